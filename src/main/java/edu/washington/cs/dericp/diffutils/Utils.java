@@ -19,6 +19,8 @@ import java.util.List;
 public class Utils {
 
     public static final boolean DEBUG = true;
+    // the path of a file that does not exist, in a diff
+    public static final String DEV_NULL = "/dev/null";
 
     /**
      * This private constructor prevents clients from instantiating Utils.
@@ -72,4 +74,72 @@ public class Utils {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Splits the specified text into lines, without their "\n" or "\r\n"
+     * terminators. A terminator at the end of the text does not start another
+     * line.
+     *
+     * @param text the contents of a file
+     * @return the lines of text
+     */
+    public static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            lines.add(text.substring(start, lineEnd));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the path named by a "---" or "+++" line of a diff, without the
+     * marker and without a timestamp that follows it.
+     *
+     * @param diffPathLine a "---" or "+++" line of a diff
+     * @return the path named by the line, with its a/ or b/ prefix
+     */
+    public static String diffPath(String diffPathLine) {
+        return stripTimestamp(diffPathLine.substring(Math.min(4, diffPathLine.length())));
+    }
+
+    /**
+     * Returns the specified diff path without its a/ or b/ prefix and without
+     * a timestamp that follows it.
+     *
+     * @param path a diff path without its "---" or "+++" marker
+     * @return the path of the file relative to the root of the diff
+     */
+    public static String stripPrefix(String path) {
+        path = stripTimestamp(path);
+        return path.startsWith("a/") || path.startsWith("b/") ? path.substring(2) : path;
+    }
+
+    /**
+     * Returns the specified diff path without a timestamp that follows it.
+     *
+     * @param path a diff path without its "---" or "+++" marker
+     * @return the path without the tab and timestamp that follow it
+     */
+    public static String stripTimestamp(String path) {
+        int tab = path.indexOf('\t');
+        return tab == -1 ? path.trim() : path.substring(0, tab).trim();
+    }
+
+    /**
+     * Returns true if the specified diff path names a file that does not
+     * exist.
+     *
+     * @param path a diff path without its "---" or "+++" marker
+     * @return true if the path is /dev/null
+     */
+    public static boolean isDevNull(String path) {
+        return stripTimestamp(path).equals(DEV_NULL);
+    }
 }
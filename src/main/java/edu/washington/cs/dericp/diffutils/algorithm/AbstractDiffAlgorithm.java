@@ -0,0 +1,158 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>An AbstractDiffAlgorithm is a {@link DiffAlgorithm} that finds which
+ * lines are deleted and inserted with {@link #compare(Edits, int, int, int,
+ * int)}, and turns them into hunks.</p>
+ *
+ * <p>Before the sequences are compared, every distinct line is mapped to an
+ * int, so that comparing two lines is a comparison of ints. The hunks produced
+ * have the given number of lines of context around each change, and changes
+ * separated by no more than twice that many unchanged lines share a hunk, as
+ * with diff -u.</p>
+ */
+abstract class AbstractDiffAlgorithm implements DiffAlgorithm {
+    // the edit operations of an edit script
+    static final byte EQUAL = 0;
+    static final byte DELETE = 1;
+    static final byte INSERT = 2;
+    // the number of unchanged lines around each change of a hunk
+    private final int contextSize;
+
+    /**
+     * Constructs an AbstractDiffAlgorithm whose hunks have the specified
+     * number of lines of context around each change.
+     *
+     * @param contextSize the number of unchanged lines around each change
+     */
+    AbstractDiffAlgorithm(int contextSize) {
+        if (contextSize < 0) {
+            throw new IllegalArgumentException("Context size is negative");
+        }
+        this.contextSize = contextSize;
+    }
+
+    @Override
+    public SingleFileUnifiedDiff diff(String originalPath, List<String> original, String revisedPath,
+                                      List<String> revised) {
+        List<String> diffLines = new ArrayList<String>();
+        diffLines.add("diff --git a/" + originalPath + " b/" + revisedPath);
+        diffLines.add("--- a/" + originalPath);
+        diffLines.add("+++ b/" + revisedPath);
+        diffLines.addAll(hunkLines(original, revised));
+        return new SingleFileUnifiedDiff(diffLines);
+    }
+
+    @Override
+    public List<UnifiedHunk> diffHunks(List<String> original, List<String> revised) {
+        List<String> lines = hunkLines(original, revised);
+        List<UnifiedHunk> hunks = new ArrayList<UnifiedHunk>();
+        int start = 0;
+        for (int i = 1; i <= lines.size(); ++i) {
+            if (i == lines.size() || lines.get(i).startsWith("@@")) {
+                hunks.add(new UnifiedHunk(lines.subList(start, i)));
+                start = i;
+            }
+        }
+        return hunks;
+    }
+
+    /**
+     * Marks the lines that are deleted from a[aLo, aHi) and inserted from
+     * b[bLo, bHi) of the specified comparison.
+     *
+     * @param edits the comparison whose lines are marked
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     */
+    abstract void compare(Edits edits, int aLo, int aHi, int bLo, int bHi);
+
+    /**
+     * Returns the lines of the hunks of the differences between the specified
+     * lines.
+     *
+     * @param original the lines of the original file
+     * @param revised the lines of the revised file
+     * @return the lines of each hunk, starting with its context information
+     */
+    private List<String> hunkLines(List<String> original, List<String> revised) {
+        Edits edits = new Edits(original, revised);
+        compare(edits, 0, edits.a.length, 0, edits.b.length);
+        return hunkLines(original, revised, edits.toScript(), contextSize);
+    }
+
+    /**
+     * Returns the lines of the hunks of the specified edit script, grouping
+     * changes separated by no more than twice the context size of unchanged
+     * lines into one hunk.
+     *
+     * @param original the lines of the original file
+     * @param revised the lines of the revised file
+     * @param script the edit script that turns original into revised
+     * @param contextSize the number of unchanged lines around each change
+     * @return the lines of each hunk, starting with its context information
+     */
+    static List<String> hunkLines(List<String> original, List<String> revised, byte[] script, int contextSize) {
+        // the index in original and revised of the line of each operation
+        int[] originalIndices = new int[script.length + 1];
+        int[] revisedIndices = new int[script.length + 1];
+        for (int p = 0; p < script.length; ++p) {
+            originalIndices[p + 1] = originalIndices[p] + (script[p] == INSERT ? 0 : 1);
+            revisedIndices[p + 1] = revisedIndices[p] + (script[p] == DELETE ? 0 : 1);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        int p = nextChange(script, 0);
+        while (p < script.length) {
+            int last = p;
+            int next = nextChange(script, last + 1);
+            while (next < script.length && next - last - 1 <= 2 * contextSize) {
+                last = next;
+                next = nextChange(script, last + 1);
+            }
+            int start = Math.max(0, p - contextSize);
+            int end = Math.min(script.length, last + 1 + contextSize);
+
+            int originalSize = originalIndices[end] - originalIndices[start];
+            int revisedSize = revisedIndices[end] - revisedIndices[start];
+            int originalStart = UnifiedHunk.lineNumber(originalIndices[start], originalSize);
+            int revisedStart = UnifiedHunk.lineNumber(revisedIndices[start], revisedSize);
+            lines.add("@@ -" + originalStart + ',' + originalSize + " +" + revisedStart + ',' + revisedSize + " @@");
+            for (int q = start; q < end; ++q) {
+                if (script[q] == DELETE) {
+                    lines.add('-' + original.get(originalIndices[q]));
+                } else if (script[q] == INSERT) {
+                    lines.add('+' + revised.get(revisedIndices[q]));
+                } else {
+                    lines.add(' ' + original.get(originalIndices[q]));
+                }
+            }
+            p = next;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the index of the first operation at or after the specified
+     * index that is not EQUAL.
+     *
+     * @param script an edit script
+     * @param from the index to start at
+     * @return the index of the next change, script.length if there is none
+     */
+    private static int nextChange(byte[] script, int from) {
+        int p = from;
+        while (p < script.length && script[p] == EQUAL) {
+            ++p;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,40 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.List;
+
+/**
+ * <p>A DiffAlgorithm computes the differences between two sequences of lines
+ * and returns them as {@link UnifiedHunk}s or as a
+ * {@link SingleFileUnifiedDiff}.</p>
+ *
+ * <p>Every DiffAlgorithm produces hunks that turn the original lines into the
+ * revised lines, but different algorithms may choose different hunks for the
+ * same lines. A DiffAlgorithm may be used by several threads at once.</p>
+ */
+public interface DiffAlgorithm {
+
+    /**
+     * Returns the hunks of the differences between the specified lines.
+     *
+     * @param original the lines of the original file
+     * @param revised the lines of the revised file
+     * @return the UnifiedHunks that turn original into revised, in order,
+     *         empty if the lines are equal
+     */
+    List<UnifiedHunk> diffHunks(List<String> original, List<String> revised);
+
+    /**
+     * Returns the differences between the specified lines as a
+     * SingleFileUnifiedDiff in the format of git diff.
+     *
+     * @param originalPath the path of the original file, without the a/ prefix
+     * @param original the lines of the original file
+     * @param revisedPath the path of the revised file, without the b/ prefix
+     * @param revised the lines of the revised file
+     * @return a SingleFileUnifiedDiff that turns original into revised
+     */
+    SingleFileUnifiedDiff diff(String originalPath, List<String> original, String revisedPath, List<String> revised);
+}
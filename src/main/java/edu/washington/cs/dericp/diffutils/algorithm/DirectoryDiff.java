@@ -0,0 +1,401 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.Utils;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>A DirectoryDiff compares two directory trees and returns the differences
+ * between their files as a {@link MultiFileUnifiedDiff}, as git diff
+ * --no-index does.</p>
+ *
+ * <p>Both trees are walked once, and the size and last modified time of each
+ * regular file are read during the walk. A file that has the same size and
+ * last modified time in both trees is taken to be unchanged without being
+ * read, and a file of the same size whose time differs is compared a block at
+ * a time, stopping at the first difference, so that unchanged files cost no
+ * more than one read of each copy. Only the files that differ are decoded and
+ * diffed with the {@link DiffAlgorithm}. Comparing and diffing the files is
+ * done in parallel when the DirectoryDiff is given an ExecutorService.</p>
+ *
+ * <p>The diffs are in the order of the paths of their files, whatever order
+ * the files were compared in. Each diff starts with a diff --git line and
+ * names its files a/path and b/path, relative to the roots of the trees, as
+ * {@link SingleFileUnifiedDiff#setFilePaths(String, String)} does. A file
+ * that is only in the original tree is deleted with a revised path of
+ * /dev/null, and a file that is only in the revised tree is created with an
+ * original path of /dev/null.</p>
+ *
+ * <p>Files are split into lines at "\n" alone, so a line that ends with "\r"
+ * in one copy only is changed, and a file whose copies differ but still have
+ * the same lines, such as one with a missing newline at the end, gets a diff
+ * with no hunks, so that no changed file is left out. With
+ * {@link #setIgnoreLineTerminators(boolean)} set to true, files are split at
+ * "\n" and "\r\n" instead, and a file whose copies only differ in their line
+ * terminators, such as "\r\n" against "\n" or a missing newline at the end,
+ * has the same lines in both trees and is left out of the diff.</p>
+ *
+ * <p>A file with a NUL byte in its first block in either tree is binary. It
+ * is not decoded, and its diff has no hunks, only a "Binary files a/path and
+ * b/path differ" line, as git diff writes it without --binary.</p>
+ */
+public class DirectoryDiff {
+    // the number of bytes compared at a time
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // the algorithm that changed files are diffed with
+    private final DiffAlgorithm algorithm;
+    // the executor that files are compared on, null if they are compared on
+    // the calling thread
+    private final ExecutorService executor;
+    // the charset that files are decoded with
+    private Charset charset = Charset.defaultCharset();
+    // true if files with the same size and last modified time are unchanged
+    private boolean trustModifiedTimes = true;
+    // true if files that only differ in their line terminators are unchanged
+    private boolean ignoreLineTerminators;
+
+    /**
+     * Constructs a DirectoryDiff that compares files on the calling thread.
+     *
+     * @param algorithm the algorithm that changed files are diffed with
+     */
+    public DirectoryDiff(DiffAlgorithm algorithm) {
+        this(algorithm, null);
+    }
+
+    /**
+     * Constructs a DirectoryDiff that compares and diffs files in parallel on
+     * the specified ExecutorService.
+     *
+     * @param algorithm the algorithm that changed files are diffed with
+     * @param executor the ExecutorService that files are compared on, or
+     *                 null to compare them on the calling thread
+     */
+    public DirectoryDiff(DiffAlgorithm algorithm, ExecutorService executor) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("Algorithm is null");
+        }
+        this.algorithm = algorithm;
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the charset that files are decoded with, the default charset of
+     * the JVM unless set.
+     *
+     * @param charset the charset of the files
+     */
+    public void setCharset(Charset charset) {
+        if (charset == null) {
+            throw new IllegalArgumentException("Charset is null");
+        }
+        this.charset = charset;
+    }
+
+    /**
+     * Sets whether files with the same size and last modified time in both
+     * trees are taken to be unchanged without being read, true unless set.
+     * If false, the contents of every pair of files of the same size are
+     * compared.
+     *
+     * @param trustModifiedTimes true if files are compared by size and last
+     *                           modified time first
+     */
+    public void setTrustModifiedTimes(boolean trustModifiedTimes) {
+        this.trustModifiedTimes = trustModifiedTimes;
+    }
+
+    /**
+     * Sets whether files whose copies only differ in their line terminators
+     * are taken to be unchanged, false unless set. If false, a "\r" before a
+     * "\n" is part of its line, and a file whose copies differ but have the
+     * same lines gets a diff with no hunks. If true, such files are left out
+     * of the diff.
+     *
+     * @param ignoreLineTerminators true if files are compared by their lines
+     *                              without their terminators
+     */
+    public void setIgnoreLineTerminators(boolean ignoreLineTerminators) {
+        this.ignoreLineTerminators = ignoreLineTerminators;
+    }
+
+    /**
+     * Compares the specified directory trees.
+     *
+     * @param original the root of the original tree
+     * @param revised the root of the revised tree
+     * @return a MultiFileUnifiedDiff with one diff per file that differs
+     *         between the trees, in the order of their paths
+     * @throws IOException if a tree cannot be walked or a file cannot be read
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              waiting for the files to be compared
+     */
+    public MultiFileUnifiedDiff diff(Path original, Path revised) throws IOException, InterruptedException {
+        Map<String, BasicFileAttributes> originalFiles = walk(original);
+        Map<String, BasicFileAttributes> revisedFiles = walk(revised);
+        TreeSet<String> paths = new TreeSet<String>(originalFiles.keySet());
+        paths.addAll(revisedFiles.keySet());
+
+        List<String> changedPaths = new ArrayList<String>();
+        for (String path : paths) {
+            BasicFileAttributes originalAttributes = originalFiles.get(path);
+            BasicFileAttributes revisedAttributes = revisedFiles.get(path);
+            if (originalAttributes == null || revisedAttributes == null
+                    || originalAttributes.size() != revisedAttributes.size()
+                    || !trustModifiedTimes
+                    || !originalAttributes.lastModifiedTime().equals(revisedAttributes.lastModifiedTime())) {
+                changedPaths.add(path);
+            }
+        }
+
+        List<SingleFileUnifiedDiff> diffs = new ArrayList<SingleFileUnifiedDiff>();
+        if (executor == null) {
+            try {
+                for (String path : changedPaths) {
+                    addDiff(diffs, diffFile(path, original, originalFiles.get(path), revised, revisedFiles.get(path)));
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return new MultiFileUnifiedDiff(diffs.iterator());
+        }
+        List<Future<SingleFileUnifiedDiff>> futures = new ArrayList<Future<SingleFileUnifiedDiff>>();
+        for (String path : changedPaths) {
+            BasicFileAttributes originalAttributes = originalFiles.get(path);
+            BasicFileAttributes revisedAttributes = revisedFiles.get(path);
+            futures.add(executor.submit(
+                    () -> diffFile(path, original, originalAttributes, revised, revisedAttributes)));
+        }
+        try {
+            for (Future<SingleFileUnifiedDiff> future : futures) {
+                try {
+                    addDiff(diffs, future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            for (Future<SingleFileUnifiedDiff> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return new MultiFileUnifiedDiff(diffs.iterator());
+    }
+
+    /**
+     * Returns the regular files of the tree at the specified root, by their
+     * paths relative to the root with / as the separator.
+     *
+     * @param root the root of a directory tree
+     * @return the attributes of each file of the tree, by path
+     * @throws IOException if the tree cannot be walked
+     */
+    private static Map<String, BasicFileAttributes> walk(final Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException(root + " is not a directory");
+        }
+        final Map<String, BasicFileAttributes> files = new TreeMap<String, BasicFileAttributes>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    StringBuilder path = new StringBuilder();
+                    for (Path name : root.relativize(file)) {
+                        if (path.length() > 0) {
+                            path.append('/');
+                        }
+                        path.append(name);
+                    }
+                    files.put(path.toString(), attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Adds the specified diff to the specified list if it is not null.
+     */
+    private static void addDiff(List<SingleFileUnifiedDiff> diffs, SingleFileUnifiedDiff diff) {
+        if (diff != null) {
+            diffs.add(diff);
+        }
+    }
+
+    /**
+     * Compares the file at the specified path in each tree.
+     *
+     * @param path the path of the file relative to the roots
+     * @param original the root of the original tree
+     * @param originalAttributes the attributes of the original file, null if
+     *                           it is not in the original tree
+     * @param revised the root of the revised tree
+     * @param revisedAttributes the attributes of the revised file, null if it
+     *                          is not in the revised tree
+     * @return the diff of the file, null if it is the same in both trees, or
+     *         only differs in its line terminators and those are ignored
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    private SingleFileUnifiedDiff diffFile(String path, Path original, BasicFileAttributes originalAttributes,
+                                           Path revised, BasicFileAttributes revisedAttributes) {
+        try {
+            Path originalFile = original.resolve(path);
+            Path revisedFile = revised.resolve(path);
+            if (originalAttributes != null && revisedAttributes != null
+                    && originalAttributes.size() == revisedAttributes.size()
+                    && sameContents(originalFile, revisedFile)) {
+                return null;
+            }
+            String originalName = originalAttributes == null ? Utils.DEV_NULL : "a/" + path;
+            String revisedName = revisedAttributes == null ? Utils.DEV_NULL : "b/" + path;
+            if ((originalAttributes != null && isBinary(originalFile))
+                    || (revisedAttributes != null && isBinary(revisedFile))) {
+                return new SingleFileUnifiedDiff(Arrays.asList("diff --git a/" + path + " b/" + path,
+                        "Binary files " + originalName + " and " + revisedName + " differ"));
+            }
+            List<String> originalLines = originalAttributes == null ? Collections.<String>emptyList()
+                    : readLines(originalFile);
+            List<String> revisedLines = revisedAttributes == null ? Collections.<String>emptyList()
+                    : readLines(revisedFile);
+
+            List<UnifiedHunk> hunks = algorithm.diffHunks(originalLines, revisedLines);
+            if (hunks.isEmpty() && originalAttributes != null && revisedAttributes != null
+                    && ignoreLineTerminators) {
+                // the files differ only in their line terminators
+                return null;
+            }
+
+            List<String> diffLines = new ArrayList<String>();
+            diffLines.add("diff --git a/" + path + " b/" + path);
+            diffLines.add("--- " + originalName);
+            diffLines.add("+++ " + revisedName);
+            for (UnifiedHunk hunk : hunks) {
+                diffLines.addAll(hunk.hunkToLines());
+            }
+            return new SingleFileUnifiedDiff(diffLines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the lines of the specified file, split at "\n" and "\r\n", or at
+     * "\n" alone if line terminators are not ignored.
+     *
+     * @param file a file of one of the trees
+     * @return the lines of the file
+     * @throws IOException if the file cannot be read
+     */
+    private List<String> readLines(Path file) throws IOException {
+        String text = new String(Files.readAllBytes(file), charset);
+        if (ignoreLineTerminators) {
+            return Utils.splitLines(text);
+        }
+        List<String> lines = new ArrayList<String>(Arrays.asList(text.split("\n", -1)));
+        // a terminator at the end of the text does not start another line
+        if (lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns true if the specified file has a NUL byte in its first block,
+     * as git takes a binary file to have.
+     *
+     * @param file a file of one of the trees
+     * @return true if the file is binary
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean isBinary(Path file) throws IOException {
+        byte[] block = new byte[BLOCK_SIZE];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = readBlock(in, block);
+        }
+        for (int i = 0; i < length; ++i) {
+            if (block[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the specified files of the same size have the same
+     * contents, reading them a block at a time until they differ.
+     *
+     * @param first a file
+     * @param second a file of the same size as first
+     * @return true if the files have the same contents
+     * @throws IOException if a file cannot be read
+     */
+    private static boolean sameContents(Path first, Path second) throws IOException {
+        byte[] firstBlock = new byte[BLOCK_SIZE];
+        byte[] secondBlock = new byte[BLOCK_SIZE];
+        try (InputStream firstIn = Files.newInputStream(first);
+             InputStream secondIn = Files.newInputStream(second)) {
+            while (true) {
+                int length = readBlock(firstIn, firstBlock);
+                if (length != readBlock(secondIn, secondBlock)) {
+                    return false;
+                }
+                if (length == 0) {
+                    return true;
+                }
+                if (!Arrays.equals(firstBlock, secondBlock)) {
+                    // the blocks past length are left from the last full
+                    // block, which was equal, so only the read bytes differ
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads from the specified stream until the specified block is full or
+     * the stream ends.
+     *
+     * @param in the stream to read from
+     * @param block the array that bytes are read into
+     * @return the number of bytes read, less than the length of block only at
+     *         the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        while (length < block.length) {
+            int read = in.read(block, length, block.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+}
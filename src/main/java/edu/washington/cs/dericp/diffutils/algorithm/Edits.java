@@ -0,0 +1,137 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Edits is the state of one comparison of two sequences of lines: the
+ * lines as ints, and which of them have been found to be deleted or inserted
+ * so far. Each comparison has its own Edits, so a DiffAlgorithm holds no state
+ * of its own.
+ */
+final class Edits {
+    // the id of each original and revised line, equal lines have equal ids
+    final int[] a;
+    final int[] b;
+    // the number of distinct lines
+    final int numIds;
+    // true at the index of each deleted original line and of each inserted
+    // revised line
+    final boolean[] deleted;
+    final boolean[] inserted;
+    // the furthest reaching paths of the forward and backward searches of
+    // MyersDiff, null until it first needs them
+    int[] forward;
+    int[] backward;
+
+    /**
+     * Constructs the Edits of a comparison of the specified lines, none of
+     * which are deleted or inserted yet.
+     *
+     * @param original the lines of the original file
+     * @param revised the lines of the revised file
+     */
+    Edits(List<String> original, List<String> revised) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        a = intern(original, ids);
+        b = intern(revised, ids);
+        numIds = ids.size();
+        deleted = new boolean[a.length];
+        inserted = new boolean[b.length];
+    }
+
+    /**
+     * Maps each line to the id of its content, giving new content the next id.
+     *
+     * @param lines the lines to be mapped
+     * @param ids the id of every content seen so far
+     * @return the id of each line
+     */
+    private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+        int[] interned = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            interned[i++] = id;
+        }
+        return interned;
+    }
+
+    /**
+     * Marks every line of a[aLo, aHi) as deleted and every line of
+     * b[bLo, bHi) as inserted.
+     *
+     * @param aLo the first deleted line of a
+     * @param aHi one past the last deleted line of a
+     * @param bLo the first inserted line of b
+     * @param bHi one past the last inserted line of b
+     */
+    void replace(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; ++i) {
+            deleted[i] = true;
+        }
+        for (int j = bLo; j < bHi; ++j) {
+            inserted[j] = true;
+        }
+    }
+
+    /**
+     * Returns the length of the common prefix of a[aLo, aHi) and b[bLo, bHi).
+     *
+     * @return the number of equal lines at the start of both ranges
+     */
+    int commonPrefix(int aLo, int aHi, int bLo, int bHi) {
+        int length = 0;
+        while (aLo + length < aHi && bLo + length < bHi && a[aLo + length] == b[bLo + length]) {
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length of the common suffix of a[aLo, aHi) and b[bLo, bHi).
+     *
+     * @return the number of equal lines at the end of both ranges
+     */
+    int commonSuffix(int aLo, int aHi, int bLo, int bHi) {
+        int length = 0;
+        while (aHi - length > aLo && bHi - length > bLo && a[aHi - 1 - length] == b[bHi - 1 - length]) {
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the edit script that deletes and inserts the marked lines,
+     * deleting before inserting where both happen between the same unchanged
+     * lines.
+     *
+     * @return the operations of the edit script, in order
+     */
+    byte[] toScript() {
+        byte[] script = new byte[deleted.length + inserted.length];
+        int length = 0;
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && deleted[i]) {
+                script[length++] = AbstractDiffAlgorithm.DELETE;
+                ++i;
+            } else if (j < inserted.length && inserted[j]) {
+                script[length++] = AbstractDiffAlgorithm.INSERT;
+                ++j;
+            } else {
+                script[length++] = AbstractDiffAlgorithm.EQUAL;
+                ++i;
+                ++j;
+            }
+        }
+        return Arrays.copyOf(script, length);
+    }
+}
@@ -0,0 +1,173 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.Arrays;
+
+/**
+ * <p>A HistogramDiff is a {@link DiffAlgorithm} that computes the differences
+ * between two sequences of lines with the histogram diff algorithm of git.</p>
+ *
+ * <p>The number of occurrences of each line of the original range is counted,
+ * and the longest run of lines common to both ranges that contains the least
+ * frequent common line is kept in place. The ranges before and after the run
+ * are compared in the same way, and a range with no common line that occurs
+ * fewer than {@link #MAX_OCCURRENCES} times is compared with
+ * {@link MyersDiff}. Like {@link PatienceDiff}, this keeps rare lines in place,
+ * but it also anchors on lines that are not unique, so it falls back to the
+ * shortest edit script less often, and it is usually faster than both.</p>
+ *
+ * <p>The hunks produced have the given number of lines of context around each
+ * change, {@link UnifiedHunk#CONTEXT_SIZE} by default.</p>
+ */
+public class HistogramDiff extends AbstractDiffAlgorithm {
+    // lines that occur this many times or more in a range are not anchored on
+    static final int MAX_OCCURRENCES = 64;
+
+    /**
+     * Constructs a HistogramDiff whose hunks have
+     * {@link UnifiedHunk#CONTEXT_SIZE} lines of context.
+     */
+    public HistogramDiff() {
+        this(UnifiedHunk.CONTEXT_SIZE);
+    }
+
+    /**
+     * Constructs a HistogramDiff whose hunks have the specified number of
+     * lines of context around each change.
+     *
+     * @param contextSize the number of unchanged lines around each change
+     */
+    public HistogramDiff(int contextSize) {
+        super(contextSize);
+    }
+
+    @Override
+    void compare(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        // the last occurrence of each id in the current range of a, indexed by
+        // id, and the previous occurrence of each line of a, shared by every
+        // range since the ranges are compared one at a time
+        int[] last = new int[edits.numIds];
+        Arrays.fill(last, -1);
+        int[] previous = new int[edits.a.length];
+        int[] counts = new int[edits.numIds];
+        histogram(edits, last, previous, counts, aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Marks the lines that are deleted from a[aLo, aHi) and inserted from
+     * b[bLo, bHi), splitting the comparison at the longest common run that
+     * contains the least frequent common line.
+     *
+     * @param edits the comparison whose lines are marked
+     * @param last scratch space with one element per id, all -1
+     * @param previous scratch space with one element per line of a
+     * @param counts zeroed scratch space with one element per id
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     */
+    private static void histogram(Edits edits, int[] last, int[] previous, int[] counts,
+                                  int aLo, int aHi, int bLo, int bHi) {
+        // recurse on the smaller side of each run and loop on the larger, so
+        // that the depth of recursion is logarithmic in the number of lines
+        while (true) {
+            int prefix = edits.commonPrefix(aLo, aHi, bLo, bHi);
+            aLo += prefix;
+            bLo += prefix;
+            int suffix = edits.commonSuffix(aLo, aHi, bLo, bHi);
+            aHi -= suffix;
+            bHi -= suffix;
+            if (aLo == aHi || bLo == bHi) {
+                edits.replace(aLo, aHi, bLo, bHi);
+                return;
+            }
+
+            int[] run = longestRun(edits, last, previous, counts, aLo, aHi, bLo, bHi);
+            if (run == null) {
+                MyersDiff.shortestEdit(edits, aLo, aHi, bLo, bHi);
+                return;
+            }
+            int endA = run[0] + run[2];
+            int endB = run[1] + run[2];
+            if (run[0] - aLo + run[1] - bLo < aHi - endA + bHi - endB) {
+                histogram(edits, last, previous, counts, aLo, run[0], bLo, run[1]);
+                aLo = endA;
+                bLo = endB;
+            } else {
+                histogram(edits, last, previous, counts, endA, aHi, endB, bHi);
+                aHi = run[0];
+                bHi = run[1];
+            }
+        }
+    }
+
+    /**
+     * Finds the longest run of lines common to a[aLo, aHi) and b[bLo, bHi)
+     * whose least frequent line in a occurs the fewest times.
+     *
+     * @param edits the comparison whose lines are matched
+     * @param last scratch space with one element per id, all -1, and all -1
+     *             again when this returns
+     * @param previous scratch space with one element per line of a
+     * @param counts zeroed scratch space with one element per id, zeroed
+     *               again when this returns
+     * @param aLo the first line of a to match
+     * @param aHi one past the last line of a to match
+     * @param bLo the first line of b to match
+     * @param bHi one past the last line of b to match
+     * @return the run as {startA, startB, length}, null if no common line
+     *         occurs fewer than MAX_OCCURRENCES times in a
+     */
+    private static int[] longestRun(Edits edits, int[] last, int[] previous, int[] counts,
+                                    int aLo, int aHi, int bLo, int bHi) {
+        int[] a = edits.a;
+        int[] b = edits.b;
+        // chain the occurrences of each line of a, latest first
+        for (int i = aLo; i < aHi; ++i) {
+            previous[i] = last[a[i]];
+            last[a[i]] = i;
+            ++counts[a[i]];
+        }
+
+        int[] best = null;
+        int bestCount = MAX_OCCURRENCES - 1;
+        int j = bLo;
+        while (j < bHi) {
+            int next = j + 1;
+            int count = counts[b[j]];
+            if (count > 0 && count <= bestCount) {
+                for (int i = last[b[j]]; i != -1; i = previous[i]) {
+                    // extend the match of a[i] and b[j] in both directions
+                    int start = 0;
+                    while (i - start > aLo && j - start > bLo && a[i - start - 1] == b[j - start - 1]) {
+                        ++start;
+                    }
+                    int end = 1;
+                    while (i + end < aHi && j + end < bHi && a[i + end] == b[j + end]) {
+                        ++end;
+                    }
+                    int runCount = count;
+                    for (int k = i - start; k < i + end; ++k) {
+                        runCount = Math.min(runCount, counts[a[k]]);
+                    }
+                    int length = start + end;
+                    if (best == null || runCount < bestCount || (runCount == bestCount && length > best[2])) {
+                        best = new int[] {i - start, j - start, length};
+                        bestCount = runCount;
+                    }
+                    // the lines of b in this run need not be matched again
+                    next = Math.max(next, j + end);
+                }
+            }
+            j = next;
+        }
+
+        for (int i = aLo; i < aHi; ++i) {
+            last[a[i]] = -1;
+            counts[a[i]] = 0;
+        }
+        return best;
+    }
+}
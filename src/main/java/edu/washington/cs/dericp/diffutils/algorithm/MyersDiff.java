@@ -0,0 +1,157 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+/**
+ * <p>A MyersDiff is a {@link DiffAlgorithm} that computes the differences
+ * between two sequences of lines with Myers' O(ND) difference algorithm, and
+ * returns them as a {@link SingleFileUnifiedDiff} or as {@link UnifiedHunk}s.</p>
+ *
+ * <p>The common prefix and suffix of the sequences are skipped, and the rest
+ * is compared with the linear space refinement of the algorithm, which finds
+ * the middle snake of the shortest edit script from both ends at once and
+ * recurses on the halves before and after it. Comparing sequences of N and M
+ * lines that differ by D lines takes O((N + M) D) time and O(N + M) space.</p>
+ *
+ * <p>The hunks produced have the given number of lines of context around each
+ * change, {@link UnifiedHunk#CONTEXT_SIZE} by default.</p>
+ */
+public class MyersDiff extends AbstractDiffAlgorithm {
+
+    /**
+     * Constructs a MyersDiff whose hunks have {@link UnifiedHunk#CONTEXT_SIZE}
+     * lines of context.
+     */
+    public MyersDiff() {
+        this(UnifiedHunk.CONTEXT_SIZE);
+    }
+
+    /**
+     * Constructs a MyersDiff whose hunks have the specified number of lines of
+     * context around each change.
+     *
+     * @param contextSize the number of unchanged lines around each change
+     */
+    public MyersDiff(int contextSize) {
+        super(contextSize);
+    }
+
+    @Override
+    void compare(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        shortestEdit(edits, aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Marks the lines that are deleted from a[aLo, aHi) and inserted from
+     * b[bLo, bHi) by the shortest edit script between them. Other algorithms
+     * fall back to this for the ranges they cannot divide.
+     *
+     * @param edits the comparison whose lines are marked
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     */
+    static void shortestEdit(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        int max = (aHi - aLo + bHi - bLo + 1) / 2;
+        if (edits.forward == null || edits.forward.length < 2 * max + 3) {
+            edits.forward = new int[2 * max + 3];
+            edits.backward = new int[2 * max + 3];
+        }
+        divide(edits, aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Marks the lines that are deleted and inserted by the shortest edit
+     * script between a[aLo, aHi) and b[bLo, bHi), dividing it at its middle
+     * snake.
+     *
+     * @param edits the comparison whose lines are marked
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     */
+    private static void divide(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        int prefix = edits.commonPrefix(aLo, aHi, bLo, bHi);
+        aLo += prefix;
+        bLo += prefix;
+        int suffix = edits.commonSuffix(aLo, aHi, bLo, bHi);
+        aHi -= suffix;
+        bHi -= suffix;
+        if (aLo == aHi || bLo == bHi) {
+            edits.replace(aLo, aHi, bLo, bHi);
+        } else {
+            int[] snake = middleSnake(edits, aLo, aHi, bLo, bHi);
+            divide(edits, aLo, snake[0], bLo, snake[1]);
+            divide(edits, snake[2], aHi, snake[3], bHi);
+        }
+    }
+
+    /**
+     * Finds the middle snake of the shortest edit script between a[aLo, aHi)
+     * and b[bLo, bHi), by searching forward from their starts and backward
+     * from their ends until the searches overlap.
+     *
+     * @param edits the comparison whose lines are compared
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     * @return the start and end of the middle snake, as
+     *         {startA, startB, endA, endB}
+     */
+    private static int[] middleSnake(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        int[] a = edits.a;
+        int[] b = edits.b;
+        int[] forward = edits.forward;
+        int[] backward = edits.backward;
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        // forward[offset + k] is the furthest x reached on diagonal k = x - y,
+        // and backward[offset + c] is the furthest distance from the ends
+        // reached on diagonal c of the reversed sequences
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; ++d) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    ++x;
+                    ++y;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int x = c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])
+                        ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int y = x - c;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    ++x;
+                    ++y;
+                }
+                backward[offset + c] = x;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && x + forward[offset + k] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake found");
+    }
+}
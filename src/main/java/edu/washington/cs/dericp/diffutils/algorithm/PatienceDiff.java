@@ -0,0 +1,176 @@
+package edu.washington.cs.dericp.diffutils.algorithm;
+
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+/**
+ * <p>A PatienceDiff is a {@link DiffAlgorithm} that computes the differences
+ * between two sequences of lines with the patience diff algorithm.</p>
+ *
+ * <p>The lines that occur exactly once in each sequence are matched first, and
+ * the longest run of them that is in the same order in both sequences is kept
+ * as anchors, found with patience sorting. The ranges between the anchors are
+ * compared in the same way, and a range with no unique lines in common is
+ * compared with {@link MyersDiff}. Because unique lines such as declarations
+ * are kept in place, the hunks follow the structure of the file more closely
+ * than those of a shortest edit script, particularly where blocks are moved or
+ * where many lines are blank or braces.</p>
+ *
+ * <p>The hunks produced have the given number of lines of context around each
+ * change, {@link UnifiedHunk#CONTEXT_SIZE} by default.</p>
+ */
+public class PatienceDiff extends AbstractDiffAlgorithm {
+
+    /**
+     * Constructs a PatienceDiff whose hunks have
+     * {@link UnifiedHunk#CONTEXT_SIZE} lines of context.
+     */
+    public PatienceDiff() {
+        this(UnifiedHunk.CONTEXT_SIZE);
+    }
+
+    /**
+     * Constructs a PatienceDiff whose hunks have the specified number of lines
+     * of context around each change.
+     *
+     * @param contextSize the number of unchanged lines around each change
+     */
+    public PatienceDiff(int contextSize) {
+        super(contextSize);
+    }
+
+    @Override
+    void compare(Edits edits, int aLo, int aHi, int bLo, int bHi) {
+        // counts and positions of each id in the current range, indexed by id,
+        // shared by every range since the ranges are compared one at a time
+        int[] counts = new int[edits.numIds];
+        int[] positions = new int[edits.numIds];
+        patience(edits, counts, positions, aLo, aHi, bLo, bHi);
+    }
+
+    /**
+     * Marks the lines that are deleted from a[aLo, aHi) and inserted from
+     * b[bLo, bHi), anchoring the comparison at their common unique lines.
+     *
+     * @param edits the comparison whose lines are marked
+     * @param counts zeroed scratch space with one element per id
+     * @param positions scratch space with one element per id
+     * @param aLo the first line of a to compare
+     * @param aHi one past the last line of a to compare
+     * @param bLo the first line of b to compare
+     * @param bHi one past the last line of b to compare
+     */
+    private static void patience(Edits edits, int[] counts, int[] positions, int aLo, int aHi, int bLo, int bHi) {
+        int prefix = edits.commonPrefix(aLo, aHi, bLo, bHi);
+        aLo += prefix;
+        bLo += prefix;
+        int suffix = edits.commonSuffix(aLo, aHi, bLo, bHi);
+        aHi -= suffix;
+        bHi -= suffix;
+        if (aLo == aHi || bLo == bHi) {
+            edits.replace(aLo, aHi, bLo, bHi);
+            return;
+        }
+
+        int[] anchors = anchors(edits, counts, positions, aLo, aHi, bLo, bHi);
+        if (anchors.length == 0) {
+            MyersDiff.shortestEdit(edits, aLo, aHi, bLo, bHi);
+            return;
+        }
+        int i = aLo;
+        int j = bLo;
+        for (int k = 0; k < anchors.length; k += 2) {
+            patience(edits, counts, positions, i, anchors[k], j, anchors[k + 1]);
+            i = anchors[k] + 1;
+            j = anchors[k + 1] + 1;
+        }
+        patience(edits, counts, positions, i, aHi, j, bHi);
+    }
+
+    /**
+     * Returns the longest sequence of lines that occur exactly once in both
+     * a[aLo, aHi) and b[bLo, bHi) and are in the same order in both.
+     *
+     * @param edits the comparison whose lines are matched
+     * @param counts zeroed scratch space with one element per id, zeroed
+     *               again when this returns
+     * @param positions scratch space with one element per id
+     * @param aLo the first line of a to match
+     * @param aHi one past the last line of a to match
+     * @param bLo the first line of b to match
+     * @param bHi one past the last line of b to match
+     * @return the index in a and in b of each anchor, as
+     *         {a0, b0, a1, b1, ...} in increasing order
+     */
+    private static int[] anchors(Edits edits, int[] counts, int[] positions, int aLo, int aHi, int bLo, int bHi) {
+        int[] a = edits.a;
+        int[] b = edits.b;
+        // counts[id] holds the number of occurrences of id in a in its low
+        // 16 bits, saturated at 2, and the number in b above them
+        for (int i = aLo; i < aHi; ++i) {
+            if ((counts[a[i]] & 0xFFFF) < 2) {
+                ++counts[a[i]];
+                positions[a[i]] = i;
+            }
+        }
+        for (int j = bLo; j < bHi; ++j) {
+            if ((counts[b[j]] & 0xFFFF) == 1 && (counts[b[j]] >>> 16) < 2) {
+                counts[b[j]] += 1 << 16;
+            }
+        }
+
+        // the index in a of each unique common line, in the order of b, and
+        // its index in b
+        int[] matchA = new int[Math.min(aHi - aLo, bHi - bLo)];
+        int[] matchB = new int[matchA.length];
+        int numMatches = 0;
+        for (int j = bLo; j < bHi; ++j) {
+            if (counts[b[j]] == (1 << 16) + 1) {
+                matchA[numMatches] = positions[b[j]];
+                matchB[numMatches] = j;
+                ++numMatches;
+            }
+        }
+        for (int i = aLo; i < aHi; ++i) {
+            counts[a[i]] = 0;
+        }
+        for (int j = bLo; j < bHi; ++j) {
+            counts[b[j]] = 0;
+        }
+        if (numMatches == 0) {
+            return new int[0];
+        }
+
+        // patience sorting: tops[p] is the match on top of pile p, which has
+        // the smallest index in a of any match ending a sequence of length
+        // p + 1, and previous links each match to the top of the pile to its
+        // left when it was placed
+        int[] tops = new int[numMatches];
+        int[] previous = new int[numMatches];
+        int numPiles = 0;
+        for (int m = 0; m < numMatches; ++m) {
+            int lo = 0;
+            int hi = numPiles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (matchA[tops[mid]] < matchA[m]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[m] = lo == 0 ? -1 : tops[lo - 1];
+            tops[lo] = m;
+            if (lo == numPiles) {
+                ++numPiles;
+            }
+        }
+
+        int[] anchors = new int[2 * numPiles];
+        int k = anchors.length;
+        for (int m = tops[numPiles - 1]; m != -1; m = previous[m]) {
+            anchors[--k] = matchB[m];
+            anchors[--k] = matchA[m];
+        }
+        return anchors;
+    }
+}
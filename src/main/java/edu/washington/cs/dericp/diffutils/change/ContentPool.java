@@ -0,0 +1,121 @@
+package edu.washington.cs.dericp.diffutils.change;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A ContentPool deduplicates the content of hunk lines so that lines with
+ * identical content, such as blank lines, closing braces, imports and license
+ * headers, share a single String instance.</p>
+ *
+ * <p>A ContentPool is bounded. Once it holds its capacity of distinct
+ * contents, content that is not already in the pool is returned as is
+ * rather than added. A ContentPool keeps statistics of how many lookups
+ * were made and how many of them found content already in the pool, so
+ * that it can be determined whether pooling pays for itself.</p>
+ *
+ * <p>A ContentPool may be shared by parsers running on several threads.</p>
+ */
+public class ContentPool {
+
+    // the canonical instance of each pooled content
+    private final ConcurrentMap<String, String> pool;
+    // the maximum number of distinct contents held by this pool
+    private final int capacity;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Constructs an empty ContentPool that holds at most the specified number
+     * of distinct contents.
+     *
+     * @param capacity the maximum number of distinct contents in this pool
+     */
+    public ContentPool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity is negative");
+        }
+        this.capacity = capacity;
+        this.pool = new ConcurrentHashMap<String, String>();
+    }
+
+    /**
+     * Returns the pooled instance of the specified content. If no equal
+     * content is pooled, the specified content is added to the pool if the
+     * pool has not reached its capacity.
+     *
+     * @param content the content to be deduplicated
+     * @return a String equal to content, shared with every other lookup of
+     *         equal content if it is pooled
+     */
+    public String intern(String content) {
+        lookups.incrementAndGet();
+        String pooled = pool.get(content);
+        if (pooled != null) {
+            hits.incrementAndGet();
+            return pooled;
+        }
+        if (pool.size() >= capacity) {
+            return content;
+        }
+        pooled = pool.putIfAbsent(content, content);
+        if (pooled != null) {
+            hits.incrementAndGet();
+            return pooled;
+        }
+        return content;
+    }
+
+    /**
+     * Returns the number of distinct contents held by this pool.
+     *
+     * @return the number of pooled contents
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Returns the maximum number of distinct contents held by this pool.
+     *
+     * @return the capacity of this pool
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of times content has been looked up in this pool.
+     *
+     * @return the number of calls to {@link #intern(String)}
+     */
+    public long lookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Returns the number of lookups that found equal content already pooled.
+     *
+     * @return the number of lookups that were deduplicated
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the fraction of lookups that found equal content already pooled.
+     *
+     * @return hits divided by lookups, 0 if there have been no lookups
+     */
+    public double hitRate() {
+        long total = lookups.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentPool[size=" + size() + ", capacity=" + capacity + ", lookups=" + lookups()
+                + ", hits=" + hits() + "]";
+    }
+}
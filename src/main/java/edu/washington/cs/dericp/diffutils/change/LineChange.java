@@ -5,6 +5,10 @@ package edu.washington.cs.dericp.diffutils.change;
  * file, lines may be either deleted inserted, or remain the same. In the case
  * that a line remains the same between two different revisions of a file, the
  * line can be known as a context line.</p>
+ *
+ * <p>A LineChange either holds its own state or is a view of a line in a
+ * {@link LineChangeStore}, in which case its state is read from and written
+ * to the store.</p>
  */
 public class LineChange {
 
@@ -18,6 +22,11 @@ public class LineChange {
         INSERTION, DELETION, CONTEXT
     }
 
+    // the store that holds the state of this LineChange, null if this
+    // LineChange holds its own state
+    private final LineChangeStore store;
+    // the index of this LineChange in store
+    private final int index;
     // the content of the line that this LineChange represents
     private String content;
     // the line number of the content of this LineChange in the original file
@@ -43,19 +52,37 @@ public class LineChange {
      * @param type the type of change to be created
      */
     public LineChange(String content, int originalLineNumber, int revisedLineNumber, Type type) {
+        this.store = null;
+        this.index = -1;
         this.content = content;
         this.originalLineNumber = originalLineNumber;
         this.revisedLineNumber = revisedLineNumber;
         this.type = type;
     }
 
+    /**
+     * Constructs a LineChange that is a view of the line at the specified
+     * index of the specified store.
+     *
+     * @param store the store that holds the state of the line
+     * @param index the index of the line in store
+     */
+    LineChange(LineChangeStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
     /**
      * Sets the type of this change.
      *
      * @param type the type of change that this LineChange will now represent
      */
     public void setType(Type type) {
-        this.type = type;
+        if (store != null) {
+            store.setType(index, type);
+        } else {
+            this.type = type;
+        }
     }
 
     /**
@@ -64,7 +91,7 @@ public class LineChange {
      * @return the content of this LineChange
      */
     public String getContent() {
-        return content;
+        return store != null ? store.getContent(index) : content;
     }
 
     /**
@@ -73,7 +100,7 @@ public class LineChange {
      * @return where this change occurs in the original file
      */
     public int getOriginalLineNumber() {
-        return originalLineNumber;
+        return store != null ? store.getOriginalLineNumber(index) : originalLineNumber;
     }
 
     /**
@@ -82,7 +109,7 @@ public class LineChange {
      * @return where this change is seen in the revised file
      */
     public int getRevisedLineNumber() {
-        return revisedLineNumber;
+        return store != null ? store.getRevisedLineNumber(index) : revisedLineNumber;
     }
 
     /**
@@ -91,7 +118,7 @@ public class LineChange {
      * @return the type of this LineChange.
      */
     public Type getType() {
-        return type;
+        return store != null ? store.getType(index) : type;
     }
 
     @Override
@@ -101,19 +128,19 @@ public class LineChange {
         }
 
         LineChange other = (LineChange) o;
-        return content.equals(other.content) &&
-                originalLineNumber == other.originalLineNumber &&
-                revisedLineNumber == other.revisedLineNumber &&
-                type == other.type;
+        return getOriginalLineNumber() == other.getOriginalLineNumber() &&
+                getRevisedLineNumber() == other.getRevisedLineNumber() &&
+                getType() == other.getType() &&
+                getContent().equals(other.getContent());
     }
 
     @Override
     public int hashCode() {
         int result = 17;
-        result = 31 * result + content.hashCode();
-        result = 31 * result + originalLineNumber;
-        result = 31 * result + revisedLineNumber;
-        result = 31 * result + type.hashCode();
+        result = 31 * result + getContent().hashCode();
+        result = 31 * result + getOriginalLineNumber();
+        result = 31 * result + getRevisedLineNumber();
+        result = 31 * result + getType().hashCode();
         return result;
     }
 }
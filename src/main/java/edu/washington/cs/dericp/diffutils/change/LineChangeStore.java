@@ -0,0 +1,795 @@
+package edu.washington.cs.dericp.diffutils.change;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>A LineChangeStore is a compact, columnar List of the {@link LineChange}s
+ * of a hunk. Rather than holding one LineChange object per line, it holds the
+ * type, original line number and revised line number of every line in
+ * primitive arrays, and the content of every line as an offset and length
+ * into one shared buffer.</p>
+ *
+ * <p>The shared buffer is either a sequence of characters that the content of
+ * each line is appended to, or a region of encoded bytes such as a
+ * memory-mapped patch file. Encoded content is only decoded when
+ * {@link LineChange#getContent()} is called. Alternatively, a LineChangeStore
+ * constructed with a {@link ContentPool} holds a reference to the pooled
+ * content of each line, so that repeated content is shared across stores.</p>
+ *
+ * <p>The LineChanges returned by a LineChangeStore are flyweight views of
+ * the store. Changing the type of a returned LineChange changes the type of
+ * the line in the store. Consecutive calls to {@link #get(int)} return equal
+ * but not identical LineChanges. A LineChange of a line that has since been
+ * removed remains readable, with the content, line numbers and type that the
+ * line had when it was removed.</p>
+ *
+ * <p>Lines are added to a LineChangeStore with the append methods, which
+ * number the lines the same way a unified hunk does. A line is removed by
+ * setting it to null, which leaves its index in place until the store is
+ * compacted with {@link #compact()}. A LineChangeStore can also be changed
+ * with {@link #set(int, LineChange)}, {@link #add(int, LineChange)} and
+ * {@link #remove(int)} like any List, which neither renumber the other lines
+ * nor update the hunk that holds the store. The first such change copies the
+ * content of every line into the store, so they are meant for occasional
+ * edits.</p>
+ */
+public class LineChangeStore extends AbstractList<LineChange> {
+
+    private static final LineChange.Type[] TYPES = LineChange.Type.values();
+    private static final int DEFAULT_CAPACITY = 8;
+
+    // the type of each line, as the ordinal of its LineChange.Type, which a
+    // removed line keeps
+    private byte[] types;
+    // the indices of the lines that have been removed
+    private BitSet removed;
+    // the line number of each line in the original file, -1 for insertions
+    private int[] originalLineNumbers;
+    // the line number of each line in the revised file, -1 for deletions
+    private int[] revisedLineNumbers;
+    // where the content of each line starts in the shared buffer
+    private int[] contentOffsets;
+    // the length of the content of each line in the shared buffer
+    private int[] contentLengths;
+    // the pooled content of each line, null if the content is held in a
+    // shared buffer
+    private String[] contents;
+    // the pool that appended content is deduplicated with
+    private ContentPool pool;
+    // the number of lines in this store, including removed lines
+    private int size;
+    // the number of lines in this store that have been removed
+    private int removedCount;
+    // the shared character buffer, null if the content is encoded
+    private CharSequence chars;
+    // the shared encoded buffer and its charset, null if the content is
+    // held as characters
+    private ByteBuffer bytes;
+    private Charset charset;
+    // the line numbers that the next appended line will be given
+    private int nextOriginalLineNumber;
+    private int nextRevisedLineNumber;
+    // the log that changes to the types of lines are recorded in, null if
+    // they are not recorded
+    private TypeLog typeLog;
+
+    /**
+     * Constructs an empty LineChangeStore whose content will be appended as
+     * characters.
+     *
+     * @param originalLineNumber the original line number of the first line
+     * @param revisedLineNumber the revised line number of the first line
+     */
+    public LineChangeStore(int originalLineNumber, int revisedLineNumber) {
+        this(originalLineNumber, revisedLineNumber, DEFAULT_CAPACITY);
+        chars = new StringBuilder();
+    }
+
+    /**
+     * Constructs an empty LineChangeStore whose appended content will be
+     * deduplicated with the specified pool.
+     *
+     * @param pool the pool that the content of each line is interned in
+     * @param originalLineNumber the original line number of the first line
+     * @param revisedLineNumber the revised line number of the first line
+     */
+    public LineChangeStore(ContentPool pool, int originalLineNumber, int revisedLineNumber) {
+        this(originalLineNumber, revisedLineNumber, DEFAULT_CAPACITY);
+        this.pool = pool;
+        this.contents = new String[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Constructs an empty LineChangeStore whose content is held encoded in
+     * the specified buffer.
+     *
+     * @param bytes the buffer holding the encoded content of the lines, it
+     *              will not be modified
+     * @param charset the charset that the content is encoded with
+     * @param originalLineNumber the original line number of the first line
+     * @param revisedLineNumber the revised line number of the first line
+     */
+    public LineChangeStore(ByteBuffer bytes, Charset charset, int originalLineNumber, int revisedLineNumber) {
+        this(originalLineNumber, revisedLineNumber, DEFAULT_CAPACITY);
+        this.bytes = bytes;
+        this.charset = charset;
+    }
+
+    /**
+     * Constructs a LineChangeStore that is a copy of the specified
+     * LineChangeStore. The copy shares the content of the lines of the
+     * specified store but none of its columns, so changing the type of a line
+     * or removing a line in one store does not affect the other. The
+     * specified store is only read, so a store that is no longer changed may
+     * be copied by several threads at once.
+     *
+     * @param store the LineChangeStore to be copied
+     */
+    public LineChangeStore(LineChangeStore store) {
+        size = store.size;
+        types = Arrays.copyOf(store.types, size);
+        originalLineNumbers = Arrays.copyOf(store.originalLineNumbers, size);
+        revisedLineNumbers = Arrays.copyOf(store.revisedLineNumbers, size);
+        contentOffsets = Arrays.copyOf(store.contentOffsets, size);
+        contentLengths = Arrays.copyOf(store.contentLengths, size);
+        contents = store.contents == null ? null : Arrays.copyOf(store.contents, size);
+        removed = (BitSet) store.removed.clone();
+        removedCount = store.removedCount;
+        // a character buffer that is still being appended to is not shared
+        chars = store.chars instanceof StringBuilder ? store.chars.toString() : store.chars;
+        bytes = store.bytes;
+        charset = store.charset;
+        nextOriginalLineNumber = store.nextOriginalLineNumber;
+        nextRevisedLineNumber = store.nextRevisedLineNumber;
+    }
+
+    /**
+     * Constructs an empty LineChangeStore with the specified capacity.
+     *
+     * @param originalLineNumber the original line number of the first line
+     * @param revisedLineNumber the revised line number of the first line
+     * @param capacity the number of lines that can be added before the
+     *                 columns grow
+     */
+    private LineChangeStore(int originalLineNumber, int revisedLineNumber, int capacity) {
+        types = new byte[capacity];
+        removed = new BitSet();
+        originalLineNumbers = new int[capacity];
+        revisedLineNumbers = new int[capacity];
+        contentOffsets = new int[capacity];
+        contentLengths = new int[capacity];
+        nextOriginalLineNumber = originalLineNumber;
+        nextRevisedLineNumber = revisedLineNumber;
+    }
+
+    /**
+     * Appends a line whose content is the specified range of characters to
+     * this LineChangeStore. The content is copied into the shared character
+     * buffer, or interned in the pool of this store if it has one.
+     *
+     * @param type the type of the line
+     * @param line the characters that hold the content of the line
+     * @param start the index in line where the content starts
+     * @param end the index in line where the content ends, exclusive
+     * @throws IllegalStateException if this store holds encoded content
+     */
+    public void append(LineChange.Type type, CharSequence line, int start, int end) {
+        if (contents != null) {
+            String content = line.subSequence(start, end).toString();
+            addLine(type, 0, end - start);
+            contents[size - 1] = pool == null ? content : pool.intern(content);
+            return;
+        }
+        if (!(chars instanceof StringBuilder)) {
+            throw new IllegalStateException("LineChangeStore does not accept characters");
+        }
+        StringBuilder buffer = (StringBuilder) chars;
+        addLine(type, buffer.length(), end - start);
+        buffer.append(line, start, end);
+    }
+
+    /**
+     * Appends a line whose content is the specified range of the encoded
+     * buffer of this LineChangeStore.
+     *
+     * @param type the type of the line
+     * @param contentOffset the index in the encoded buffer where the content
+     *                      of the line starts
+     * @param contentLength the number of bytes of the content of the line
+     * @throws IllegalStateException if this store does not hold encoded content
+     */
+    public void append(LineChange.Type type, int contentOffset, int contentLength) {
+        if (bytes == null) {
+            throw new IllegalStateException("LineChangeStore does not hold encoded content");
+        }
+        addLine(type, contentOffset, contentLength);
+    }
+
+    /**
+     * Shrinks the columns of this LineChangeStore to its size. Once trimmed,
+     * a store that holds its content as characters no longer accepts new
+     * lines, and a store whose content is pooled no longer pools the content
+     * of new lines.
+     */
+    public void trimToSize() {
+        if (types.length != size) {
+            types = Arrays.copyOf(types, size);
+            originalLineNumbers = Arrays.copyOf(originalLineNumbers, size);
+            revisedLineNumbers = Arrays.copyOf(revisedLineNumbers, size);
+            contentOffsets = Arrays.copyOf(contentOffsets, size);
+            contentLengths = Arrays.copyOf(contentLengths, size);
+            if (contents != null) {
+                contents = Arrays.copyOf(contents, size);
+            }
+        }
+        if (chars instanceof StringBuilder) {
+            chars = chars.toString();
+        }
+        pool = null;
+    }
+
+    /**
+     * Drops the lines that have been removed from this LineChangeStore, so
+     * that its size is the number of lines that remain. The indices of the
+     * remaining lines change, and the LineChanges previously returned by
+     * this store must no longer be used. The columns are copied rather than
+     * compacted in place, since they may be shared with copies of this store.
+     */
+    public void compact() {
+        if (removedCount == 0) {
+            return;
+        }
+        int liveSize = size - removedCount;
+        byte[] liveTypes = new byte[liveSize];
+        int[] liveOriginalLineNumbers = new int[liveSize];
+        int[] liveRevisedLineNumbers = new int[liveSize];
+        int[] liveContentOffsets = new int[liveSize];
+        int[] liveContentLengths = new int[liveSize];
+        String[] liveContents = contents == null ? null : new String[liveSize];
+        int j = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!removed.get(i)) {
+                liveTypes[j] = types[i];
+                liveOriginalLineNumbers[j] = originalLineNumbers[i];
+                liveRevisedLineNumbers[j] = revisedLineNumbers[i];
+                liveContentOffsets[j] = contentOffsets[i];
+                liveContentLengths[j] = contentLengths[i];
+                if (liveContents != null) {
+                    liveContents[j] = contents[i];
+                }
+                ++j;
+            }
+        }
+        types = liveTypes;
+        originalLineNumbers = liveOriginalLineNumbers;
+        revisedLineNumbers = liveRevisedLineNumbers;
+        contentOffsets = liveContentOffsets;
+        contentLengths = liveContentLengths;
+        contents = liveContents;
+        size = liveSize;
+        removed.clear();
+        removedCount = 0;
+        ++modCount;
+    }
+
+    /**
+     * Returns a new LineChangeStore of the lines of this store that have not
+     * been removed, with insertions and deletions swapped, so that it is the
+     * store of the hunk that undoes the hunk of this store. The lines are
+     * numbered from the specified line numbers rather than swapped, since
+     * lines whose type has been changed in this store keep their old
+     * numbers. The content of the lines is shared with this store, but none
+     * of its columns. Like the copy constructor, this store is only read, so
+     * a store that is no longer changed may be reversed by several threads at
+     * once.
+     *
+     * @param originalLineNumber the original line number of the first line of
+     *                           the new store, the revised line number of
+     *                           the first line of this store
+     * @param revisedLineNumber the revised line number of the first line of
+     *                          the new store
+     * @return the reverse of this store
+     */
+    public LineChangeStore reverse(int originalLineNumber, int revisedLineNumber) {
+        int liveSize = size - removedCount;
+        LineChangeStore reverse = new LineChangeStore(originalLineNumber, revisedLineNumber, 0);
+        reverse.types = new byte[liveSize];
+        reverse.originalLineNumbers = new int[liveSize];
+        reverse.revisedLineNumbers = new int[liveSize];
+        reverse.contentOffsets = new int[liveSize];
+        reverse.contentLengths = new int[liveSize];
+        reverse.contents = contents == null ? null : new String[liveSize];
+        // a character buffer that is still being appended to is not shared
+        reverse.chars = chars instanceof StringBuilder ? chars.toString() : chars;
+        reverse.bytes = bytes;
+        reverse.charset = charset;
+        byte insertion = (byte) LineChange.Type.INSERTION.ordinal();
+        byte deletion = (byte) LineChange.Type.DELETION.ordinal();
+        for (int i = removed.nextClearBit(0); i < size; i = removed.nextClearBit(i + 1)) {
+            byte type = types[i];
+            int j = reverse.size++;
+            if (type == insertion) {
+                type = deletion;
+            } else if (type == deletion) {
+                type = insertion;
+            }
+            reverse.types[j] = type;
+            reverse.originalLineNumbers[j] = type == insertion ? -1 : reverse.nextOriginalLineNumber++;
+            reverse.revisedLineNumbers[j] = type == deletion ? -1 : reverse.nextRevisedLineNumber++;
+            reverse.contentOffsets[j] = contentOffsets[i];
+            reverse.contentLengths[j] = contentLengths[i];
+            if (contents != null) {
+                reverse.contents[j] = contents[i];
+            }
+        }
+        return reverse;
+    }
+
+    /**
+     * Returns the number of lines of this LineChangeStore that have not been
+     * removed.
+     *
+     * @return the number of non-null lines of this store
+     */
+    public int liveSize() {
+        return size - removedCount;
+    }
+
+    @Override
+    public LineChange get(int index) {
+        checkIndex(index);
+        return removed.get(index) ? null : new LineChange(this, index);
+    }
+
+    /**
+     * Replaces the line at the specified index of this LineChangeStore with
+     * the specified change, or removes it if the change is null. Removing a
+     * line leaves the index of every other line unchanged. Replacing a line
+     * copies the content, line numbers and type of the change into this
+     * store, without changing the other lines.
+     *
+     * @param index the index of the line to be replaced or removed
+     * @param change the new line, or null to remove the line
+     * @return a copy of the line that was at index, null if it had been
+     *         removed
+     */
+    @Override
+    public LineChange set(int index, LineChange change) {
+        LineChange previous = get(index);
+        if (previous != null) {
+            previous = new LineChange(previous.getContent(), previous.getOriginalLineNumber(),
+                    previous.getRevisedLineNumber(), previous.getType());
+        }
+        if (change == null) {
+            if (previous != null) {
+                removed.set(index);
+                ++removedCount;
+                if (typeLog != null) {
+                    typeLog.typeChanged(this, index, previous.getType(), null);
+                }
+            }
+            return previous;
+        }
+        copyContents();
+        putLine(index, change);
+        if (previous == null) {
+            removed.clear(index);
+            --removedCount;
+        }
+        if (typeLog != null) {
+            typeLog.linesEdited(this);
+        }
+        return previous;
+    }
+
+    /**
+     * Inserts the specified change at the specified index of this
+     * LineChangeStore, moving the line at that index and every later line one
+     * index up. The line numbers of the other lines are not changed.
+     *
+     * @param index the index that the change is inserted at
+     * @param change the line to be inserted, or null to insert a removed line
+     */
+    @Override
+    public void add(int index, LineChange change) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        copyContents();
+        ensureCapacity(size + 1);
+        int moved = size - index;
+        System.arraycopy(types, index, types, index + 1, moved);
+        System.arraycopy(originalLineNumbers, index, originalLineNumbers, index + 1, moved);
+        System.arraycopy(revisedLineNumbers, index, revisedLineNumbers, index + 1, moved);
+        System.arraycopy(contentOffsets, index, contentOffsets, index + 1, moved);
+        System.arraycopy(contentLengths, index, contentLengths, index + 1, moved);
+        System.arraycopy(contents, index, contents, index + 1, moved);
+        for (int i = size; i > index; --i) {
+            removed.set(i, removed.get(i - 1));
+        }
+        ++size;
+        ++modCount;
+        if (change == null) {
+            removed.set(index);
+            ++removedCount;
+        } else {
+            removed.clear(index);
+            putLine(index, change);
+        }
+        if (typeLog != null) {
+            typeLog.linesEdited(this);
+        }
+    }
+
+    /**
+     * Removes the line at the specified index from this LineChangeStore,
+     * moving every later line one index down, unlike setting the line to
+     * null. The line numbers of the other lines are not changed.
+     *
+     * @param index the index of the line to be removed
+     * @return a copy of the line that was at index, null if it had been
+     *         removed
+     */
+    @Override
+    public LineChange remove(int index) {
+        LineChange previous = get(index);
+        if (previous != null) {
+            previous = new LineChange(previous.getContent(), previous.getOriginalLineNumber(),
+                    previous.getRevisedLineNumber(), previous.getType());
+        } else {
+            --removedCount;
+        }
+        copyContents();
+        int moved = size - index - 1;
+        System.arraycopy(types, index + 1, types, index, moved);
+        System.arraycopy(originalLineNumbers, index + 1, originalLineNumbers, index, moved);
+        System.arraycopy(revisedLineNumbers, index + 1, revisedLineNumbers, index, moved);
+        System.arraycopy(contentOffsets, index + 1, contentOffsets, index, moved);
+        System.arraycopy(contentLengths, index + 1, contentLengths, index, moved);
+        System.arraycopy(contents, index + 1, contents, index, moved);
+        for (int i = index; i < size - 1; ++i) {
+            removed.set(i, removed.get(i + 1));
+        }
+        --size;
+        removed.clear(size);
+        contents[size] = null;
+        ++modCount;
+        if (typeLog != null) {
+            typeLog.linesEdited(this);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (o == null) {
+            int i = removed.nextSetBit(0);
+            return i < size ? i : -1;
+        } else if (o instanceof LineChange) {
+            LineChange change = (LineChange) o;
+            for (int i = 0; i < size; ++i) {
+                if (lineEquals(i, change)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the line at the specified index has not been removed
+     * and is equal to the specified change. This is equivalent to
+     * change.equals(get(index)) but does not create a LineChange.
+     *
+     * @param index the index of a line in this store
+     * @param change the non-null change to compare with
+     * @return true if the line at index is equal to change
+     */
+    public boolean lineEquals(int index, LineChange change) {
+        checkIndex(index);
+        // the content is only compared once the cheaper columns match
+        return !removed.get(index) && types[index] == (byte) change.getType().ordinal() &&
+                originalLineNumbers[index] == change.getOriginalLineNumber() &&
+                revisedLineNumbers[index] == change.getRevisedLineNumber() &&
+                contentEquals(index, change.getContent());
+    }
+
+    /**
+     * Returns the content of the line at the specified index.
+     *
+     * @param index the index of a line in this store
+     * @return the content of the line
+     */
+    String getContent(int index) {
+        if (contents != null) {
+            return contents[index];
+        }
+        int offset = contentOffsets[index];
+        if (bytes != null) {
+            ByteBuffer encoded = bytes.duplicate();
+            encoded.position(offset);
+            encoded.limit(offset + contentLengths[index]);
+            return charset.decode(encoded).toString();
+        }
+        return chars.subSequence(offset, offset + contentLengths[index]).toString();
+    }
+
+    /**
+     * Returns the original line number of the line at the specified index.
+     *
+     * @param index the index of a line in this store
+     * @return the original line number of the line
+     */
+    int getOriginalLineNumber(int index) {
+        return originalLineNumbers[index];
+    }
+
+    /**
+     * Returns the revised line number of the line at the specified index.
+     *
+     * @param index the index of a line in this store
+     * @return the revised line number of the line
+     */
+    int getRevisedLineNumber(int index) {
+        return revisedLineNumbers[index];
+    }
+
+    /**
+     * Returns true if the line at the specified index has been removed.
+     *
+     * @param index the index of a line in this store
+     * @return true if get(index) would return null
+     */
+    public boolean isRemoved(int index) {
+        checkIndex(index);
+        return removed.get(index);
+    }
+
+    /**
+     * Writes the content of the line at the specified index to the specified
+     * Writer. Content held as characters or in a pool is written without
+     * creating a String for the line.
+     *
+     * @param index the index of a line in this store
+     * @param out the Writer that the content is written to
+     * @throws IOException if the content cannot be written
+     */
+    public void writeContent(int index, Writer out) throws IOException {
+        checkIndex(index);
+        if (contents != null) {
+            out.write(contents[index]);
+        } else if (bytes != null) {
+            out.write(getContent(index));
+        } else if (chars instanceof String) {
+            out.write((String) chars, contentOffsets[index], contentLengths[index]);
+        } else {
+            int offset = contentOffsets[index];
+            out.append(chars, offset, offset + contentLengths[index]);
+        }
+    }
+
+    /**
+     * Returns the type of the line at the specified index.
+     *
+     * @param index the index of a line in this store
+     * @return the type of the line, or the type that it had when it was
+     *         removed
+     */
+    public LineChange.Type getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Sets the type of the line at the specified index. Setting the type of
+     * a removed line does not bring it back, so it is not recorded in the
+     * TypeLog of this store.
+     *
+     * @param index the index of a line in this store
+     * @param type the new type of the line
+     */
+    void setType(int index, LineChange.Type type) {
+        LineChange.Type previous = TYPES[types[index]];
+        types[index] = (byte) type.ordinal();
+        if (typeLog != null && previous != type && !removed.get(index)) {
+            typeLog.typeChanged(this, index, previous, type);
+        }
+    }
+
+    /**
+     * Sets the type of the line at the specified index, or removes the line
+     * if the type is null, or brings back a removed line if it is not, to
+     * undo or redo a change that was recorded in a {@link TypeLog}. The
+     * change is not recorded again.
+     *
+     * @param index the index of a line in this store
+     * @param type the type that the line is given, null to remove it
+     */
+    public void restoreType(int index, LineChange.Type type) {
+        checkIndex(index);
+        if (removed.get(index)) {
+            removed.clear(index);
+            --removedCount;
+        }
+        if (type == null) {
+            // the line keeps its type, as when it was removed
+            removed.set(index);
+            ++removedCount;
+        } else {
+            types[index] = (byte) type.ordinal();
+        }
+    }
+
+    /**
+     * Sets the log that every later change to the type of a line of this
+     * LineChangeStore, including the removal of a line, is recorded in.
+     *
+     * @param typeLog the TypeLog that changes are recorded in, or null if
+     *                they should not be recorded
+     */
+    public void setTypeLog(TypeLog typeLog) {
+        this.typeLog = typeLog;
+    }
+
+    /**
+     * Returns true if the content of the line at the specified index is
+     * equal to the specified content.
+     *
+     * @param index the index of a line in this store
+     * @param content the content to compare with
+     * @return true if the line has the specified content
+     */
+    private boolean contentEquals(int index, String content) {
+        if (contents != null) {
+            return contents[index].equals(content);
+        }
+        if (bytes != null) {
+            return getContent(index).equals(content);
+        }
+        int length = contentLengths[index];
+        if (length != content.length()) {
+            return false;
+        }
+        int offset = contentOffsets[index];
+        for (int i = 0; i < length; ++i) {
+            if (chars.charAt(offset + i) != content.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a line to the columns of this store, numbering it the same way a
+     * unified hunk does.
+     *
+     * @param type the type of the line
+     * @param contentOffset where the content of the line starts in the
+     *                      shared buffer
+     * @param contentLength the length of the content of the line
+     */
+    private void addLine(LineChange.Type type, int contentOffset, int contentLength) {
+        ensureCapacity(size + 1);
+        types[size] = (byte) type.ordinal();
+        if (type == LineChange.Type.INSERTION) {
+            originalLineNumbers[size] = -1;
+            revisedLineNumbers[size] = nextRevisedLineNumber++;
+        } else if (type == LineChange.Type.DELETION) {
+            originalLineNumbers[size] = nextOriginalLineNumber++;
+            revisedLineNumbers[size] = -1;
+        } else {
+            originalLineNumbers[size] = nextOriginalLineNumber++;
+            revisedLineNumbers[size] = nextRevisedLineNumber++;
+        }
+        contentOffsets[size] = contentOffset;
+        contentLengths[size] = contentLength;
+        ++size;
+        ++modCount;
+    }
+
+    /**
+     * Grows the columns of this store so that they hold at least the
+     * specified number of lines.
+     *
+     * @param capacity the number of lines that the columns must hold
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            capacity = Math.max(capacity, Math.max(DEFAULT_CAPACITY, size * 2));
+            types = Arrays.copyOf(types, capacity);
+            originalLineNumbers = Arrays.copyOf(originalLineNumbers, capacity);
+            revisedLineNumbers = Arrays.copyOf(revisedLineNumbers, capacity);
+            contentOffsets = Arrays.copyOf(contentOffsets, capacity);
+            contentLengths = Arrays.copyOf(contentLengths, capacity);
+            if (contents != null) {
+                contents = Arrays.copyOf(contents, capacity);
+            }
+        }
+    }
+
+    /**
+     * Moves the content of every line of this store into the contents
+     * column, so that lines can be replaced and moved. Stores whose content
+     * is already held there are left as they are.
+     */
+    private void copyContents() {
+        if (contents != null) {
+            return;
+        }
+        String[] copied = new String[types.length];
+        for (int i = 0; i < size; ++i) {
+            copied[i] = getContent(i);
+        }
+        contents = copied;
+        chars = null;
+        bytes = null;
+        charset = null;
+    }
+
+    /**
+     * Sets the columns of the line at the specified index to those of the
+     * specified change. The contents column must be in use.
+     *
+     * @param index the index of a line in this store
+     * @param change the non-null change whose state is copied
+     */
+    private void putLine(int index, LineChange change) {
+        types[index] = (byte) change.getType().ordinal();
+        originalLineNumbers[index] = change.getOriginalLineNumber();
+        revisedLineNumbers[index] = change.getRevisedLineNumber();
+        contentOffsets[index] = 0;
+        contentLengths[index] = change.getContent().length();
+        contents[index] = pool == null ? change.getContent() : pool.intern(change.getContent());
+    }
+
+    /**
+     * Checks that the specified index is a valid index of this store.
+     *
+     * @param index the index to check
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * A TypeLog is told of every change to the type of a line of the
+     * LineChangeStores that it is attached to, so that the change can be
+     * undone with {@link LineChangeStore#restoreType(int, LineChange.Type)},
+     * and of every other edit of their lines.
+     */
+    public interface TypeLog {
+        /**
+         * Records a change to the type of the line at the specified index of
+         * the specified store.
+         *
+         * @param store the store of the line
+         * @param index the index of the line in store
+         * @param previous the type of the line before the change
+         * @param type the type of the line after the change, null if the line
+         *             has been removed
+         */
+        void typeChanged(LineChangeStore store, int index, LineChange.Type previous, LineChange.Type type);
+
+        /**
+         * Records that lines of the specified store have been replaced,
+         * inserted or moved through its List methods, which cannot be undone
+         * with {@link LineChangeStore#restoreType(int, LineChange.Type)}.
+         *
+         * @param store the store whose lines have been edited
+         */
+        default void linesEdited(LineChangeStore store) {
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A BinaryDiffReader reads a patch that was written by
+ * {@link BinaryDiffWriter} in its binary format, and returns the
+ * {@link SingleFileUnifiedDiff}s that it contains one at a time.</p>
+ *
+ * <p>The patch is memory-mapped, and only its header is read when the
+ * BinaryDiffReader is constructed. The section of each diff is read when that
+ * diff is asked for, either in order with {@link #next()} or directly with
+ * {@link #readDiff(int)}, so a client that needs a few files of a large patch
+ * only pays for those files. No text is parsed: line numbers and sizes are
+ * read as varints, and the content of each hunk line stays encoded in the
+ * string table of the mapped file, referenced by the {@link LineChangeStore}
+ * of its hunk, until {@link LineChange#getContent()} is called.</p>
+ *
+ * <p>A MultiFileUnifiedDiff backed by the mapped file can be constructed with
+ * {@link MultiFileUnifiedDiff#MultiFileUnifiedDiff(Iterator)}.</p>
+ */
+public class BinaryDiffReader implements Iterator<SingleFileUnifiedDiff> {
+    // the size in bytes of the fixed part of the header
+    private static final int HEADER_SIZE = BinaryDiffWriter.MAGIC.length + 2 * 4;
+    // the contents of the patch
+    private final ByteBuffer buffer;
+    // the number of diffs in the patch
+    private final int numDiffs;
+    // where the string table starts in buffer
+    private final int stringsStart;
+    // the index of the diff that next() will return
+    private int nextDiff;
+
+    /**
+     * Constructs a BinaryDiffReader that reads the patch in the file at the
+     * specified path by memory-mapping it.
+     *
+     * @param path the path of the patch to be read
+     * @throws IOException if the file at path cannot be mapped or does not
+     *                     hold a patch in a supported version of the format
+     */
+    public BinaryDiffReader(Path path) throws IOException {
+        this(map(path));
+    }
+
+    /**
+     * Constructs a BinaryDiffReader that reads the patch held by the
+     * specified buffer, from its position to its limit. The buffer must not
+     * be changed while the diffs of the patch are in use.
+     *
+     * @param buffer the buffer that holds the patch
+     * @throws IOException if the buffer does not hold a patch in a supported
+     *                     version of the format
+     */
+    public BinaryDiffReader(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.slice();
+        if (this.buffer.limit() < HEADER_SIZE) {
+            throw new IOException("Not a binary patch");
+        }
+        for (int i = 0; i < BinaryDiffWriter.MAGIC.length; ++i) {
+            if (this.buffer.get(i) != BinaryDiffWriter.MAGIC[i]) {
+                throw new IOException("Not a binary patch");
+            }
+        }
+        int version = this.buffer.getInt(BinaryDiffWriter.MAGIC.length);
+        if (version != BinaryDiffWriter.VERSION) {
+            throw new IOException("Unsupported binary patch version: " + version);
+        }
+        numDiffs = this.buffer.getInt(BinaryDiffWriter.MAGIC.length + 4);
+        long offsetsEnd = HEADER_SIZE + 4L * (numDiffs + 1);
+        if (numDiffs < 0 || offsetsEnd > this.buffer.limit()
+                || this.buffer.getInt(HEADER_SIZE + 4 * numDiffs) > this.buffer.limit()) {
+            throw new IOException("Truncated binary patch");
+        }
+        stringsStart = (int) offsetsEnd;
+    }
+
+    /**
+     * Returns the number of diffs in the patch.
+     *
+     * @return the number of SingleFileUnifiedDiffs that the patch holds
+     */
+    public int numDiffs() {
+        return numDiffs;
+    }
+
+    /**
+     * Returns true if there is another single-file unified diff to be read.
+     *
+     * @return true if a call to {@link #next()} will return a
+     *         SingleFileUnifiedDiff
+     */
+    @Override
+    public boolean hasNext() {
+        return nextDiff < numDiffs;
+    }
+
+    /**
+     * Reads the next single-file unified diff of the patch.
+     *
+     * @return the next SingleFileUnifiedDiff of the patch
+     * @throws NoSuchElementException if there are no more single-file
+     *                                unified diffs to read
+     */
+    @Override
+    public SingleFileUnifiedDiff next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more diffs in the patch");
+        }
+        return readDiff(nextDiff++);
+    }
+
+    /**
+     * Reads the single-file unified diff at the specified index of the patch,
+     * without reading the sections of the diffs before it. Each call returns
+     * a new SingleFileUnifiedDiff.
+     *
+     * @param diffIndex the zero-based index of the diff in the patch
+     * @return the SingleFileUnifiedDiff at diffIndex
+     * @throws IndexOutOfBoundsException if there is no diff at diffIndex
+     */
+    public SingleFileUnifiedDiff readDiff(int diffIndex) {
+        if (diffIndex < 0 || diffIndex >= numDiffs) {
+            throw new IndexOutOfBoundsException("Diff index: " + diffIndex + ", number of diffs: " + numDiffs);
+        }
+        ByteBuffer section = buffer.duplicate();
+        section.limit(buffer.getInt(HEADER_SIZE + 4 * (diffIndex + 1)));
+        section.position(buffer.getInt(HEADER_SIZE + 4 * diffIndex));
+
+        int numContextInfo = readVarint(section);
+        List<String> contextInfo = new ArrayList<String>(numContextInfo);
+        for (int i = 0; i < numContextInfo; ++i) {
+            contextInfo.add(readString(readVarint(section)));
+        }
+        int originalDiffPath = readVarint(section);
+        int revisedDiffPath = readVarint(section);
+        int numHunks = readVarint(section);
+        List<UnifiedHunk> hunks = new ArrayList<UnifiedHunk>(numHunks);
+        for (int i = 0; i < numHunks; ++i) {
+            hunks.add(readHunk(section));
+        }
+        return new SingleFileUnifiedDiff(contextInfo,
+                originalDiffPath == 0 ? null : readString(originalDiffPath - 1),
+                revisedDiffPath == 0 ? null : readString(revisedDiffPath - 1), hunks);
+    }
+
+    /**
+     * Reads the hunk that starts at the position of the specified section.
+     * The content of the lines of the hunk is left encoded in the string
+     * table.
+     *
+     * @param section the section of the diff of the hunk
+     * @return the UnifiedHunk that starts at the position of section
+     */
+    private UnifiedHunk readHunk(ByteBuffer section) {
+        int originalLineNumber = readVarint(section);
+        int originalHunkSize = readVarint(section);
+        int revisedLineNumber = readVarint(section);
+        int revisedHunkSize = readVarint(section);
+        String filenameInfo = readString(readVarint(section));
+        UnifiedHunk hunk = new UnifiedHunk(originalLineNumber, originalHunkSize, revisedLineNumber, revisedHunkSize,
+                filenameInfo, buffer, StandardCharsets.UTF_8);
+
+        int linesAndFlags = readVarint(section);
+        hunk.setNoNewline((linesAndFlags & BinaryDiffWriter.ORIGINAL_NO_NEWLINE) != 0,
+                (linesAndFlags & BinaryDiffWriter.REVISED_NO_NEWLINE) != 0);
+        int numLines = linesAndFlags >>> 2;
+        int typesStart = section.position();
+        section.position(typesStart + (numLines + 3) / 4);
+        LineChangeStore hunkLines = hunk.getLineStore();
+        for (int i = 0; i < numLines; ++i) {
+            int code = (section.get(typesStart + i / 4) >>> (2 * (i % 4))) & 3;
+            ByteBuffer content = string(readVarint(section));
+            hunkLines.append(lineType(code), content.position(), content.remaining());
+        }
+        hunkLines.trimToSize();
+        return hunk;
+    }
+
+    /**
+     * Returns a view of buffer whose position and limit are the bounds of the
+     * encoded string at the specified offset of the string table.
+     */
+    private ByteBuffer string(int stringOffset) {
+        ByteBuffer string = buffer.duplicate();
+        string.position(stringsStart + stringOffset);
+        int length = readVarint(string);
+        string.limit(string.position() + length);
+        return string;
+    }
+
+    /**
+     * Decodes the string at the specified offset of the string table.
+     */
+    private String readString(int stringOffset) {
+        return StandardCharsets.UTF_8.decode(string(stringOffset)).toString();
+    }
+
+    /**
+     * Returns the type of line with the specified code in the packed type
+     * bits.
+     */
+    private static LineChange.Type lineType(int code) {
+        if (code == BinaryDiffWriter.INSERTION) {
+            return LineChange.Type.INSERTION;
+        } else if (code == BinaryDiffWriter.DELETION) {
+            return LineChange.Type.DELETION;
+        } else if (code == BinaryDiffWriter.CONTEXT) {
+            return LineChange.Type.CONTEXT;
+        }
+        throw new IllegalStateException("Corrupt binary patch: no line type " + code);
+    }
+
+    /**
+     * Reads an unsigned varint that was written by {@link BinaryDiffWriter}
+     * at the position of the specified buffer.
+     *
+     * @param in the buffer that the varint is read from
+     * @return the value of the varint
+     */
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupt binary patch: varint is too long");
+    }
+
+    /**
+     * Memory-maps the file at the specified path.
+     */
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Patch is too large to be mapped: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A BinaryDiffWriter writes a {@link MultiFileUnifiedDiff} in a compact,
+ * versioned binary format that {@link BinaryDiffReader} loads without parsing
+ * any text.</p>
+ *
+ * <p>The format starts with a header of big-endian ints:</p>
+ * <pre>
+ * 'D' 'I' 'F' 'B'              the magic bytes
+ * version                      the version of the format, {@link #VERSION}
+ * numDiffs                     the number of diffs in the patch
+ * diffOffsets[numDiffs + 1]    where the section of each diff starts, and
+ *                              where the last one ends
+ * </pre>
+ * <p>followed by the string table and then by one section per diff. Every
+ * path, line of context information and line content of the patch is held
+ * once in the string table, however many times it occurs, as an unsigned
+ * varint length followed by its UTF-8 bytes, and sections refer to a string
+ * by where it starts in the string table, so that any string can be read
+ * without reading the strings before it. A section holds, as unsigned
+ * varints:</p>
+ * <pre>
+ * numContextInfo contextInfo...  the lines that precede the file paths
+ * originalDiffPath revisedDiffPath
+ * numHunks hunk...
+ * </pre>
+ * <p>where a reference to a string that may be null is its offset plus one,
+ * with zero for null, and each hunk is</p>
+ * <pre>
+ * originalLineNumber originalHunkSize revisedLineNumber revisedHunkSize
+ * filenameInfo linesAndFlags types content...
+ * </pre>
+ * <p>in which linesAndFlags is the number of lines shifted left by two bits,
+ * with bit 0 set if the original file ends without a newline in the hunk and
+ * bit 1 set if the revised file does, and types packs the type of each line
+ * into two bits, four lines to a byte.</p>
+ *
+ * <p>Diffs, hunks and lines that have been removed are left out, so the patch
+ * that is read back has the lines of {@link MultiFileUnifiedDiff#getPatchLines()}
+ * and no removed entries.</p>
+ */
+public class BinaryDiffWriter {
+    // the bytes that a patch in the binary format starts with
+    static final byte[] MAGIC = {'D', 'I', 'F', 'B'};
+    // the version of the format that is written
+    public static final int VERSION = 2;
+    // the codes of the types of lines in the packed type bits
+    static final int CONTEXT = 0;
+    static final int INSERTION = 1;
+    static final int DELETION = 2;
+    // the bits of the no-newline flags of a hunk
+    static final int ORIGINAL_NO_NEWLINE = 1;
+    static final int REVISED_NO_NEWLINE = 2;
+
+    // where each string starts in the string table
+    private final Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+    // the length-prefixed, encoded strings of the string table, in order
+    private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    // the sections of the diffs, in order
+    private final ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    // where each section ends in sections
+    private final List<Integer> sectionEnds = new ArrayList<Integer>();
+
+    /**
+     * Constructs a BinaryDiffWriter with an empty string table.
+     */
+    private BinaryDiffWriter() {
+    }
+
+    /**
+     * Writes the specified patch to the file at the specified path in the
+     * binary format, replacing the file if it exists.
+     *
+     * @param patch the patch to be written
+     * @param path the path of the file that the patch is written to
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(MultiFileUnifiedDiff patch, Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(patch, out);
+        }
+    }
+
+    /**
+     * Writes the specified patch to the specified OutputStream in the binary
+     * format. The OutputStream is not closed.
+     *
+     * @param patch the patch to be written
+     * @param out the OutputStream that the patch is written to
+     * @throws IOException if the patch cannot be written
+     */
+    public static void write(MultiFileUnifiedDiff patch, OutputStream out) throws IOException {
+        BinaryDiffWriter writer = new BinaryDiffWriter();
+        for (SingleFileUnifiedDiff diff : patch.liveDiffs()) {
+            writer.writeDiff(diff);
+        }
+        writer.writeTo(out);
+    }
+
+    /**
+     * Appends the section of the specified diff to the sections.
+     *
+     * @param diff the diff to be written
+     */
+    private void writeDiff(SingleFileUnifiedDiff diff) {
+        List<String> contextInfo = diff.getContextInfo();
+        writeVarint(sections, contextInfo.size());
+        for (String line : contextInfo) {
+            writeVarint(sections, stringOffset(line));
+        }
+        writeVarint(sections, diff.getOriginalDiffPath() == null ? 0 : stringOffset(diff.getOriginalDiffPath()) + 1);
+        writeVarint(sections, diff.getRevisedDiffPath() == null ? 0 : stringOffset(diff.getRevisedDiffPath()) + 1);
+        List<UnifiedHunk> hunks = diff.liveHunks();
+        writeVarint(sections, hunks.size());
+        for (UnifiedHunk hunk : hunks) {
+            writeHunk(hunk);
+        }
+        sectionEnds.add(sections.size());
+    }
+
+    /**
+     * Appends the specified hunk to the current section.
+     *
+     * @param hunk the hunk to be written
+     */
+    private void writeHunk(UnifiedHunk hunk) {
+        writeVarint(sections, hunk.getOriginalLineNumber());
+        writeVarint(sections, hunk.getOriginalHunkSize());
+        writeVarint(sections, hunk.getRevisedLineNumber());
+        writeVarint(sections, hunk.getRevisedHunkSize());
+        writeVarint(sections, stringOffset(hunk.getFilenameInfo()));
+
+        LineChangeStore hunkLines = hunk.getLineStore();
+        writeVarint(sections, hunkLines.liveSize() << 2 | (hunk.isOriginalNoNewline() ? ORIGINAL_NO_NEWLINE : 0)
+                | (hunk.isRevisedNoNewline() ? REVISED_NO_NEWLINE : 0));
+        int packed = 0;
+        int numPacked = 0;
+        for (int i = 0; i < hunkLines.size(); ++i) {
+            if (hunkLines.isRemoved(i)) {
+                continue;
+            }
+            packed |= typeCode(hunkLines.getType(i)) << (2 * numPacked);
+            if (++numPacked == 4) {
+                sections.write(packed);
+                packed = 0;
+                numPacked = 0;
+            }
+        }
+        if (numPacked > 0) {
+            sections.write(packed);
+        }
+        for (int i = 0; i < hunkLines.size(); ++i) {
+            if (!hunkLines.isRemoved(i)) {
+                writeVarint(sections, stringOffset(hunkLines.get(i).getContent()));
+            }
+        }
+    }
+
+    /**
+     * Writes the header, the string table and the sections to the specified
+     * OutputStream.
+     *
+     * @param out the OutputStream that the patch is written to
+     * @throws IOException if the patch cannot be written
+     */
+    private void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        int numDiffs = sectionEnds.size();
+        long headerSize = MAGIC.length + 2 * 4 + 4L * (numDiffs + 1);
+        if (headerSize + strings.size() + sections.size() > Integer.MAX_VALUE) {
+            throw new IOException("Patch is too large for the binary format");
+        }
+        int sectionsStart = (int) headerSize + strings.size();
+
+        data.write(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(numDiffs);
+        data.writeInt(sectionsStart);
+        for (int end : sectionEnds) {
+            data.writeInt(sectionsStart + end);
+        }
+        strings.writeTo(data);
+        sections.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * Returns where the specified string starts in the string table, adding
+     * it to the table if it is not there yet.
+     *
+     * @param string the string to be looked up
+     * @return the offset of string in the string table
+     */
+    private int stringOffset(String string) {
+        Integer offset = stringOffsets.get(string);
+        if (offset == null) {
+            offset = strings.size();
+            stringOffsets.put(string, offset);
+            byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(strings, encoded.length);
+            strings.write(encoded, 0, encoded.length);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the code of the specified type in the packed type bits.
+     */
+    private static int typeCode(LineChange.Type type) {
+        if (type == LineChange.Type.INSERTION) {
+            return INSERTION;
+        } else if (type == LineChange.Type.DELETION) {
+            return DELETION;
+        }
+        return CONTEXT;
+    }
+
+    /**
+     * Writes the specified non-negative int as an unsigned varint: seven bits
+     * to a byte, least significant first, with the high bit set on every byte
+     * but the last.
+     *
+     * @param out the stream that the varint is written to
+     * @param value the value to be written
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
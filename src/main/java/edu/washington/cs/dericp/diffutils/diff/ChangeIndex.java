@@ -0,0 +1,96 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ChangeIndex maps each insertion and deletion of a patch to the positions
+ * where it occurs, so that a change can be found without scanning every hunk.
+ *
+ * A ChangeIndex is a snapshot of the patch when it was built. Its keys are
+ * copies of the changes, so later edits to the patch do not corrupt it, but
+ * a position returned by a ChangeIndex may no longer hold the change once
+ * the patch has been edited. Callers must check each returned position with
+ * {@link UnifiedHunk#hasLine(int, LineChange)} before using it, and must drop
+ * the index whenever a change may be missing from it: when a line becomes an
+ * insertion or a deletion, when lines are replaced or moved, when a removed
+ * hunk or diff is put back, and when the patch is compacted. Removing a line
+ * or making it a context line needs no new index.
+ */
+class ChangeIndex {
+
+    // the positions of each change, keyed by a copy of the change
+    private final Map<LineChange, List<Location>> locations = new HashMap<LineChange, List<Location>>();
+
+    /**
+     * Adds every insertion and deletion of the specified diff to this index.
+     *
+     * @param diffIndex the index of diff in its patch, or -1 if it is not
+     *                  part of a patch
+     * @param diff the SingleFileUnifiedDiff whose changes are indexed
+     */
+    void addDiff(int diffIndex, SingleFileUnifiedDiff diff) {
+        for (int j = 0; j < diff.numHunks(); ++j) {
+            UnifiedHunk hunk = diff.getHunk(j);
+            if (hunk == null) {
+                continue;
+            }
+            List<LineChange> hunkLines = hunk.getHunkLines();
+            for (int k = 0; k < hunkLines.size(); ++k) {
+                LineChange change = hunkLines.get(k);
+                if (change != null && change.getType() != LineChange.Type.CONTEXT) {
+                    LineChange key = new LineChange(change.getContent(), change.getOriginalLineNumber(),
+                            change.getRevisedLineNumber(), change.getType());
+                    List<Location> keyLocations = locations.get(key);
+                    if (keyLocations == null) {
+                        keyLocations = new ArrayList<Location>(1);
+                        locations.put(key, keyLocations);
+                    }
+                    keyLocations.add(new Location(diffIndex, j, k));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the positions where a change equal to the specified change
+     * occurred when it was indexed, in patch order.
+     *
+     * @param change the change to look up
+     * @return the positions of the change, empty if it was not indexed
+     */
+    List<Location> get(LineChange change) {
+        List<Location> changeLocations = locations.get(change);
+        if (changeLocations == null) {
+            return Collections.emptyList();
+        }
+        return changeLocations;
+    }
+
+    /**
+     * A Location is the position of a line in a patch.
+     */
+    static class Location {
+        final int diffIndex;
+        final int hunkIndex;
+        final int lineIndex;
+
+        /**
+         * Constructs a new Location.
+         *
+         * @param diffIndex the index of the diff that contains the line
+         * @param hunkIndex the index of the hunk in the diff
+         * @param lineIndex the index of the line in the hunk
+         */
+        Location(int diffIndex, int hunkIndex, int lineIndex) {
+            this.diffIndex = diffIndex;
+            this.hunkIndex = hunkIndex;
+            this.lineIndex = lineIndex;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>A ConcurrentMultiFileUnifiedDiff is a patch whose files can be edited by
+ * several threads at once.</p>
+ *
+ * <p>The current version of each file is an {@link ImmutableSingleFileUnifiedDiff}.
+ * An edit builds the next version of its file and publishes it, holding only
+ * the lock of that file, so edits to different files never wait for each
+ * other, and edits to the same file are applied one at a time without being
+ * lost. Reading the current version of one file takes no lock, and the
+ * version that is read never changes afterwards.</p>
+ *
+ * <p>{@link #snapshot()} and {@link #getPatchLines()} return a consistent
+ * state of the whole patch: every edit that has completed before they are
+ * called is in it, and every edit is either entirely in it or entirely out of
+ * it. The locks of all the files are held only while the current versions
+ * are collected, which takes O(d) time for a patch of d files, and the lines
+ * of the snapshot are built after they have been released.</p>
+ *
+ * <p>As in {@link MultiFileUnifiedDiff}, removed diffs, hunks and changes are
+ * left as null, and the indices of the others remain unchanged.</p>
+ */
+public class ConcurrentMultiFileUnifiedDiff {
+    // the current version of each diff, null for a removed diff
+    private final AtomicReferenceArray<ImmutableSingleFileUnifiedDiff> diffs;
+    // the lock of each diff, held while a new version of it is published and
+    // while a snapshot is taken
+    private final ReentrantLock[] locks;
+
+    /**
+     * Constructs a ConcurrentMultiFileUnifiedDiff that represents the current
+     * state of the specified MultiFileUnifiedDiff. Later changes to the
+     * MultiFileUnifiedDiff do not change the ConcurrentMultiFileUnifiedDiff.
+     *
+     * @param patch the MultiFileUnifiedDiff to be represented
+     */
+    public ConcurrentMultiFileUnifiedDiff(MultiFileUnifiedDiff patch) {
+        diffs = new AtomicReferenceArray<ImmutableSingleFileUnifiedDiff>(patch.numDiffs());
+        locks = new ReentrantLock[patch.numDiffs()];
+        for (int i = 0; i < patch.numDiffs(); ++i) {
+            SingleFileUnifiedDiff diff = patch.getDiff(i);
+            diffs.set(i, diff == null ? null : new ImmutableSingleFileUnifiedDiff(diff));
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the number of diffs of this ConcurrentMultiFileUnifiedDiff,
+     * including the diffs that have been removed.
+     *
+     * @return the number of diffs this patch was constructed with
+     */
+    public int numDiffs() {
+        return locks.length;
+    }
+
+    /**
+     * Returns the current version of the diff at the specified index.
+     *
+     * @param diffIndex the zero-based index of a diff
+     * @return the diff at diffIndex, null if it has been removed
+     */
+    public ImmutableSingleFileUnifiedDiff getDiff(int diffIndex) {
+        return diffs.get(diffIndex);
+    }
+
+    /**
+     * Replaces the diff at the specified index with the result of applying
+     * the specified function to its current version. The function is called
+     * once, while the lock of the diff is held, so it should be quick and must
+     * not edit other diffs of this patch.
+     *
+     * @param diffIndex the zero-based index of the diff to be edited
+     * @param edit the function from the current version of the diff, which is
+     *             not null, to its next version, or null to remove the diff
+     * @return the new version of the diff, null if it has been removed
+     */
+    public ImmutableSingleFileUnifiedDiff updateDiff(int diffIndex,
+                                                     UnaryOperator<ImmutableSingleFileUnifiedDiff> edit) {
+        ReentrantLock lock = locks[diffIndex];
+        lock.lock();
+        try {
+            ImmutableSingleFileUnifiedDiff diff = diffs.get(diffIndex);
+            if (diff == null) {
+                return null;
+            }
+            ImmutableSingleFileUnifiedDiff edited = edit.apply(diff);
+            diffs.set(diffIndex, edited);
+            return edited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a single-file unified diff from this ConcurrentMultiFileUnifiedDiff.
+     *
+     * @param diffIndex the zero-based index of the diff to be removed
+     */
+    public void removeDiff(int diffIndex) {
+        updateDiff(diffIndex, diff -> null);
+    }
+
+    /**
+     * Removes a unified hunk from a single-file unified diff in this
+     * ConcurrentMultiFileUnifiedDiff, shifting the later hunks of the diff as
+     * {@link MultiFileUnifiedDiff#removeHunk(int, int)} does.
+     *
+     * @param diffIndex the zero-based index of the diff of the hunk
+     * @param hunkIndex the zero-based index of the hunk to be removed
+     */
+    public void removeHunk(int diffIndex, int hunkIndex) {
+        updateDiff(diffIndex, diff -> diff.withoutHunk(hunkIndex));
+    }
+
+    /**
+     * Removes a change from a unified hunk of a single-file unified diff in
+     * this ConcurrentMultiFileUnifiedDiff, shifting the later hunks of the
+     * diff as {@link MultiFileUnifiedDiff#removeChange(int, int, int)} does.
+     *
+     * @param diffIndex the zero-based index of the diff of the change
+     * @param hunkIndex the zero-based index of the hunk of the change
+     * @param lineIndex the zero-based index of the change in its hunk
+     */
+    public void removeChange(int diffIndex, int hunkIndex, int lineIndex) {
+        updateDiff(diffIndex, diff -> diff.withoutChange(hunkIndex, lineIndex));
+    }
+
+    /**
+     * Returns a consistent snapshot of this ConcurrentMultiFileUnifiedDiff,
+     * which later edits do not change.
+     *
+     * @return the current version of the whole patch
+     */
+    public ImmutableMultiFileUnifiedDiff snapshot() {
+        List<ImmutableSingleFileUnifiedDiff> current = new ArrayList<ImmutableSingleFileUnifiedDiff>(locks.length);
+        // the locks are always taken in index order, and an edit holds only
+        // one of them, so taking every lock cannot deadlock
+        int locked = 0;
+        try {
+            for (; locked < locks.length; ++locked) {
+                locks[locked].lock();
+            }
+            for (int i = 0; i < locks.length; ++i) {
+                current.add(diffs.get(i));
+            }
+        } finally {
+            while (locked > 0) {
+                locks[--locked].unlock();
+            }
+        }
+        return new ImmutableMultiFileUnifiedDiff(current);
+    }
+
+    /**
+     * Gets the lines of a consistent snapshot of this patch.
+     *
+     * @return a List of Strings that represents the lines of this patch, one
+     *         String per line
+     */
+    public List<String> getPatchLines() {
+        return snapshot().getPatchLines();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
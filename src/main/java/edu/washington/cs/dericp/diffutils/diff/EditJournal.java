@@ -0,0 +1,335 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.util.Arrays;
+
+/**
+ * <p>An EditJournal records every change made to a {@link MultiFileUnifiedDiff}
+ * so that changes can be undone back to a mark and redone, in place of copying
+ * the patch before changes that might have to be undone.</p>
+ *
+ * <p>The journal records the primitive edits that the changes of the patch
+ * are made of: the removal of a diff or of a hunk, each shift of the revised
+ * line numbers of the later hunks of a diff, each change to the revised line
+ * number or size of a hunk, including {@link UnifiedHunk#modifyRevisedLineNumber(int)},
+ * and each change to the type of a line, including {@link LineChange#setType(LineChange.Type)}
+ * and the removal of a line. Each edit is recorded as four ints and two
+ * references in arrays that grow as needed, so recording an edit takes
+ * constant time and allocates nothing in the common case, and undoing or
+ * redoing edits takes time proportional to the number of edits, not to the
+ * size of the patch.</p>
+ *
+ * <pre>
+ * long mark = journal.mark();
+ * patch.removeChange(0, 2, 1);
+ * if (!stillCompiles(patch)) {
+ *     journal.rollback(mark);
+ * }
+ * </pre>
+ *
+ * <p>Compacting the patch changes the indices that the edits refer to, so it
+ * clears the journal, as does replacing, adding or removing lines through the
+ * List of a hunk, which cannot be undone. Rolling back or redoing edits drops
+ * the change indexes of the patch, since it may bring back changes that they
+ * do not hold.</p>
+ *
+ * <p>A mark holds the number of times that the journal had been cleared when
+ * it was returned, so a mark from before the journal was last cleared is
+ * rejected instead of rolling back to a state that it does not refer to.</p>
+ */
+public class EditJournal implements LineChangeStore.TypeLog {
+    // the kinds of edits
+    private static final int REMOVE_DIFF = 0;
+    private static final int REMOVE_HUNK = 1;
+    private static final int SHIFT_HUNKS = 2;
+    private static final int REVISED_LINE_NUMBER = 3;
+    private static final int REVISED_HUNK_SIZE = 4;
+    private static final int LINE_TYPE = 5;
+    // the number of ints and of references that each edit is recorded as
+    private static final int INTS = 4;
+    private static final int REFS = 2;
+    private static final LineChange.Type[] TYPES = LineChange.Type.values();
+
+    // the patch whose edits are recorded
+    private final MultiFileUnifiedDiff patch;
+    // the kind and the arguments of each edit
+    private int[] ints = new int[INTS * 16];
+    // the objects that each edit was made to
+    private Object[] refs = new Object[REFS * 16];
+    // the number of edits that are in effect
+    private int size;
+    // the number of recorded edits, of which those at or after size have been
+    // rolled back and can be redone
+    private int end;
+    // the number of times that the journal has been cleared
+    private int generation;
+    // true while edits are undone or redone, so that they are not recorded
+    private boolean replaying;
+
+    /**
+     * Constructs an empty EditJournal for the specified patch.
+     *
+     * @param patch the patch whose edits are recorded
+     */
+    EditJournal(MultiFileUnifiedDiff patch) {
+        this.patch = patch;
+    }
+
+    /**
+     * Returns a mark of the current state of the patch, which the patch can
+     * be rolled back to with {@link #rollback(long)} until the journal is
+     * cleared.
+     *
+     * @return the generation of the journal in the high 32 bits and the
+     *         number of edits that are in effect in the low 32 bits
+     */
+    public long mark() {
+        return ((long) generation << 32) | size;
+    }
+
+    /**
+     * Returns the number of edits that are in effect.
+     *
+     * @return the number of edits that rolling back to mark zero would undo
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Undoes every edit made since the specified mark was returned. The edits
+     * can be redone with {@link #redo()} until the patch is changed again.
+     *
+     * @param mark a mark returned by {@link #mark()} since the journal was
+     *             last cleared
+     * @throws IllegalStateException if the journal has been cleared since
+     *                               mark was returned
+     * @throws IllegalArgumentException if mark is not a mark of the current
+     *                                  state or of an earlier one
+     */
+    public void rollback(long mark) {
+        if ((int) (mark >>> 32) != generation) {
+            throw new IllegalStateException("Mark " + mark + " is from before the journal was last cleared");
+        }
+        int edits = (int) mark;
+        if (edits < 0 || edits > size) {
+            throw new IllegalArgumentException("Mark " + mark + " is not before the current state");
+        }
+        replaying = true;
+        try {
+            while (size > edits) {
+                --size;
+                undo(size);
+            }
+        } finally {
+            replaying = false;
+            patch.invalidateChangeIndexes();
+        }
+    }
+
+    /**
+     * Returns true if there are edits that have been rolled back and can be
+     * redone.
+     *
+     * @return true if {@link #redo()} will redo an edit
+     */
+    public boolean canRedo() {
+        return size < end;
+    }
+
+    /**
+     * Redoes every edit that has been rolled back since the patch was last
+     * changed, returning the patch to its state before it was rolled back.
+     */
+    public void redo() {
+        replaying = true;
+        try {
+            while (size < end) {
+                redo(size);
+                ++size;
+            }
+        } finally {
+            replaying = false;
+            patch.invalidateChangeIndexes();
+        }
+    }
+
+    /**
+     * Forgets every recorded edit, so that the current state of the patch is
+     * the earliest that it can be rolled back to.
+     */
+    public void clear() {
+        Arrays.fill(refs, 0, REFS * end, null);
+        size = 0;
+        end = 0;
+        ++generation;
+    }
+
+    /**
+     * Records the removal of a diff.
+     *
+     * @param diffIndex the index of the removed diff
+     * @param diff the removed diff
+     */
+    void diffRemoved(int diffIndex, SingleFileUnifiedDiff diff) {
+        record(REMOVE_DIFF, diffIndex, 0, 0, diff, null);
+    }
+
+    /**
+     * Records the removal of a hunk from its diff. The revised line numbers of
+     * the later hunks are shifted as a separate edit.
+     *
+     * @param diff the diff of the removed hunk
+     * @param hunkIndex the index of the removed hunk
+     * @param hunk the removed hunk
+     */
+    void hunkRemoved(SingleFileUnifiedDiff diff, int hunkIndex, UnifiedHunk hunk) {
+        record(REMOVE_HUNK, hunkIndex, 0, 0, diff, hunk);
+    }
+
+    /**
+     * Records a shift of the revised line numbers of the hunks of a diff.
+     *
+     * @param diff the diff of the shifted hunks
+     * @param fromHunkIndex the index of the first shifted hunk
+     * @param change the amount that the hunks were shifted by
+     */
+    void hunksShifted(SingleFileUnifiedDiff diff, int fromHunkIndex, int change) {
+        record(SHIFT_HUNKS, fromHunkIndex, change, 0, diff, null);
+    }
+
+    /**
+     * Records a change to the revised line number of a hunk.
+     *
+     * @param hunk the changed hunk
+     * @param change the amount that the revised line number was changed by
+     */
+    void revisedLineNumberChanged(UnifiedHunk hunk, int change) {
+        record(REVISED_LINE_NUMBER, change, 0, 0, hunk, null);
+    }
+
+    /**
+     * Records a change to the revised size of a hunk.
+     *
+     * @param hunk the changed hunk
+     * @param change the amount that the revised size was changed by
+     */
+    void revisedHunkSizeChanged(UnifiedHunk hunk, int change) {
+        record(REVISED_HUNK_SIZE, change, 0, 0, hunk, null);
+    }
+
+    /**
+     * Records a change to the type of a line.
+     */
+    @Override
+    public void typeChanged(LineChangeStore store, int index, LineChange.Type previous, LineChange.Type type) {
+        record(LINE_TYPE, index, typeCode(previous), typeCode(type), store, null);
+    }
+
+    /**
+     * Forgets every recorded edit, since lines that have been replaced or
+     * moved no longer match the indices that the edits refer to.
+     */
+    @Override
+    public void linesEdited(LineChangeStore store) {
+        clear();
+    }
+
+    /**
+     * Appends an edit to the journal, dropping the edits that can be redone.
+     */
+    private void record(int kind, int a, int b, int c, Object first, Object second) {
+        if (replaying) {
+            return;
+        }
+        if (end > size) {
+            Arrays.fill(refs, REFS * size, REFS * end, null);
+            end = size;
+        }
+        if (INTS * (size + 1) > ints.length) {
+            ints = Arrays.copyOf(ints, ints.length * 2);
+            refs = Arrays.copyOf(refs, refs.length * 2);
+        }
+        int i = INTS * size;
+        ints[i] = kind;
+        ints[i + 1] = a;
+        ints[i + 2] = b;
+        ints[i + 3] = c;
+        refs[REFS * size] = first;
+        refs[REFS * size + 1] = second;
+        ++size;
+        end = size;
+    }
+
+    /**
+     * Undoes the edit at the specified index of the journal.
+     */
+    private void undo(int edit) {
+        int i = INTS * edit;
+        Object first = refs[REFS * edit];
+        switch (ints[i]) {
+            case REMOVE_DIFF:
+                patch.restoreDiff(ints[i + 1], (SingleFileUnifiedDiff) first);
+                break;
+            case REMOVE_HUNK:
+                ((SingleFileUnifiedDiff) first).restoreHunk(ints[i + 1], (UnifiedHunk) refs[REFS * edit + 1]);
+                break;
+            case SHIFT_HUNKS:
+                ((SingleFileUnifiedDiff) first).shiftRevisedLineNumbers(ints[i + 1], -ints[i + 2]);
+                break;
+            case REVISED_LINE_NUMBER:
+                ((UnifiedHunk) first).modifyRevisedLineNumber(-ints[i + 1]);
+                break;
+            case REVISED_HUNK_SIZE:
+                ((UnifiedHunk) first).changeRevisedHunkSize(-ints[i + 1]);
+                break;
+            default:
+                ((LineChangeStore) first).restoreType(ints[i + 1], lineType(ints[i + 2]));
+                break;
+        }
+    }
+
+    /**
+     * Redoes the edit at the specified index of the journal.
+     */
+    private void redo(int edit) {
+        int i = INTS * edit;
+        Object first = refs[REFS * edit];
+        switch (ints[i]) {
+            case REMOVE_DIFF:
+                patch.removeDiff(ints[i + 1]);
+                break;
+            case REMOVE_HUNK:
+                ((SingleFileUnifiedDiff) first).removeHunk(ints[i + 1]);
+                break;
+            case SHIFT_HUNKS:
+                ((SingleFileUnifiedDiff) first).shiftRevisedLineNumbers(ints[i + 1], ints[i + 2]);
+                break;
+            case REVISED_LINE_NUMBER:
+                ((UnifiedHunk) first).modifyRevisedLineNumber(ints[i + 1]);
+                break;
+            case REVISED_HUNK_SIZE:
+                ((UnifiedHunk) first).changeRevisedHunkSize(ints[i + 1]);
+                break;
+            default:
+                ((LineChangeStore) first).restoreType(ints[i + 1], lineType(ints[i + 3]));
+                break;
+        }
+    }
+
+    /**
+     * Returns the code of the specified type, -1 for a removed line.
+     */
+    private static int typeCode(LineChange.Type type) {
+        return type == null ? -1 : type.ordinal();
+    }
+
+    /**
+     * Returns the type with the specified code, null for a removed line.
+     */
+    private static LineChange.Type lineType(int code) {
+        return code == -1 ? null : TYPES[code];
+    }
+}
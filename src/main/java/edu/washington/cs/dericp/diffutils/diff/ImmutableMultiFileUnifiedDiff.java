@@ -0,0 +1,176 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>An ImmutableMultiFileUnifiedDiff is an immutable, persistent version of a
+ * {@link MultiFileUnifiedDiff}. Removing a diff, a hunk or a change returns a
+ * new version of the patch in O(log n) time, which shares every diff, hunk and
+ * line that the removal does not change with the version that it was derived
+ * from, so that many versions of a patch that differ in a few lines cost
+ * little more than one.</p>
+ *
+ * <p>Removals have the same effect as the corresponding methods of
+ * MultiFileUnifiedDiff: the revised line numbers of the later hunks of a diff
+ * are shifted, removed entries are left as null, and the indices of the
+ * other diffs, hunks and lines remain unchanged. Every version is safe to
+ * share between threads.</p>
+ */
+public final class ImmutableMultiFileUnifiedDiff {
+    // the diffs of the patch, null for a removed diff
+    private final PersistentArray<ImmutableSingleFileUnifiedDiff> diffs;
+
+    /**
+     * Constructs an ImmutableMultiFileUnifiedDiff that represents the current
+     * state of the specified MultiFileUnifiedDiff. Later changes to the
+     * MultiFileUnifiedDiff do not change the ImmutableMultiFileUnifiedDiff.
+     *
+     * @param patch the MultiFileUnifiedDiff to be represented
+     */
+    public ImmutableMultiFileUnifiedDiff(MultiFileUnifiedDiff patch) {
+        List<ImmutableSingleFileUnifiedDiff> immutableDiffs =
+                new ArrayList<ImmutableSingleFileUnifiedDiff>(patch.numDiffs());
+        for (int i = 0; i < patch.numDiffs(); ++i) {
+            SingleFileUnifiedDiff diff = patch.getDiff(i);
+            immutableDiffs.add(diff == null ? null : new ImmutableSingleFileUnifiedDiff(diff));
+        }
+        diffs = new PersistentArray<ImmutableSingleFileUnifiedDiff>(immutableDiffs);
+    }
+
+    /**
+     * Constructs an ImmutableMultiFileUnifiedDiff with the specified diffs.
+     *
+     * @param diffs the diffs of the patch, null for a removed diff
+     */
+    ImmutableMultiFileUnifiedDiff(List<ImmutableSingleFileUnifiedDiff> diffs) {
+        this(new PersistentArray<ImmutableSingleFileUnifiedDiff>(diffs));
+    }
+
+    /**
+     * Constructs a version of an ImmutableMultiFileUnifiedDiff with the
+     * specified diffs.
+     */
+    private ImmutableMultiFileUnifiedDiff(PersistentArray<ImmutableSingleFileUnifiedDiff> diffs) {
+        this.diffs = diffs;
+    }
+
+    /**
+     * Returns the number of diffs of this ImmutableMultiFileUnifiedDiff,
+     * including the diffs that have been removed.
+     *
+     * @return the number of diffs this patch was constructed with
+     */
+    public int numDiffs() {
+        return diffs.size();
+    }
+
+    /**
+     * Returns the diff at the specified index.
+     *
+     * @param diffIndex the zero-based index of a diff
+     * @return the diff at diffIndex, null if it has been removed
+     */
+    public ImmutableSingleFileUnifiedDiff getDiff(int diffIndex) {
+        return diffs.get(diffIndex);
+    }
+
+    /**
+     * Returns a version of this ImmutableMultiFileUnifiedDiff without the
+     * diff at the specified index.
+     *
+     * @param diffIndex the zero-based index of the diff to be removed
+     * @return the new version of this patch, or this patch if the diff has
+     *         already been removed
+     */
+    public ImmutableMultiFileUnifiedDiff withoutDiff(int diffIndex) {
+        if (diffs.get(diffIndex) == null) {
+            return this;
+        }
+        return new ImmutableMultiFileUnifiedDiff(diffs.set(diffIndex, null));
+    }
+
+    /**
+     * Returns a version of this ImmutableMultiFileUnifiedDiff without the
+     * specified hunk.
+     *
+     * @param diffIndex the zero-based index of the diff of the hunk
+     * @param hunkIndex the zero-based index of the hunk in its diff
+     * @return the new version of this patch, or this patch if the hunk has
+     *         already been removed
+     */
+    public ImmutableMultiFileUnifiedDiff withoutHunk(int diffIndex, int hunkIndex) {
+        ImmutableSingleFileUnifiedDiff diff = diffs.get(diffIndex);
+        return diff == null ? this : with(diffIndex, diff, diff.withoutHunk(hunkIndex));
+    }
+
+    /**
+     * Returns a version of this ImmutableMultiFileUnifiedDiff without the
+     * specified change.
+     *
+     * @param diffIndex the zero-based index of the diff of the change
+     * @param hunkIndex the zero-based index of the hunk of the change
+     * @param lineIndex the zero-based index of the change in its hunk
+     * @return the new version of this patch, or this patch if the line is a
+     *         context line or has already been removed
+     */
+    public ImmutableMultiFileUnifiedDiff withoutChange(int diffIndex, int hunkIndex, int lineIndex) {
+        ImmutableSingleFileUnifiedDiff diff = diffs.get(diffIndex);
+        return diff == null ? this : with(diffIndex, diff, diff.withoutChange(hunkIndex, lineIndex));
+    }
+
+    /**
+     * Returns a version of this ImmutableMultiFileUnifiedDiff in which the
+     * specified diff has been replaced by the specified version of it.
+     */
+    private ImmutableMultiFileUnifiedDiff with(int diffIndex, ImmutableSingleFileUnifiedDiff diff,
+                                               ImmutableSingleFileUnifiedDiff changed) {
+        return changed == diff ? this : new ImmutableMultiFileUnifiedDiff(diffs.set(diffIndex, changed));
+    }
+
+    /**
+     * Gets the lines of this patch, as
+     * {@link MultiFileUnifiedDiff#getPatchLines()} does.
+     *
+     * @return a List of Strings that represents the lines of this patch, one
+     *         String per line
+     */
+    public List<String> getPatchLines() {
+        List<String> export = new ArrayList<String>();
+        for (int i = 0; i < diffs.size(); ++i) {
+            ImmutableSingleFileUnifiedDiff diff = diffs.get(i);
+            if (diff != null) {
+                export.addAll(diff.diffToLines());
+            }
+        }
+        return export;
+    }
+
+    /**
+     * Returns a new MultiFileUnifiedDiff that represents this version of the
+     * patch, without its removed entries.
+     *
+     * @return a mutable MultiFileUnifiedDiff with the lines of this patch
+     */
+    public MultiFileUnifiedDiff toMultiFileUnifiedDiff() {
+        return new MultiFileUnifiedDiff(getPatchLines());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImmutableMultiFileUnifiedDiff)) {
+            return false;
+        }
+        return getPatchLines().equals(((ImmutableMultiFileUnifiedDiff) obj).getPatchLines());
+    }
+
+    @Override
+    public int hashCode() {
+        return getPatchLines().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", getPatchLines());
+    }
+}
@@ -0,0 +1,186 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>An ImmutableSingleFileUnifiedDiff is an immutable version of a
+ * {@link SingleFileUnifiedDiff}. Removing a hunk or a change returns a new
+ * version of the diff, which shares every hunk that the removal does not
+ * change.</p>
+ *
+ * <p>Removing a hunk or a change shifts the revised line numbers of the later
+ * hunks of the diff, as {@link MultiFileUnifiedDiff#removeHunk(int, int)} and
+ * {@link MultiFileUnifiedDiff#removeChange(int, int, int)} do. The hunks are
+ * held in a persistent tree whose nodes record these shifts, so a removal
+ * takes O(log h + log n) time for a diff of h hunks whose changed hunk has n
+ * lines, however many hunks follow it. Removed hunks are left as null, and
+ * the indices of the other hunks remain unchanged.</p>
+ */
+public final class ImmutableSingleFileUnifiedDiff {
+    // the lines of the diff that precede its file paths
+    private final List<String> contextInfo;
+    private final String originalDiffPath;
+    private final String revisedDiffPath;
+    // the hunks of the diff, null for a removed hunk, with the revised line
+    // numbers that they had when this diff was constructed, shifted by the
+    // shift of their index
+    private final PersistentArray<ImmutableUnifiedHunk> hunks;
+
+    /**
+     * Constructs an ImmutableSingleFileUnifiedDiff that represents the current
+     * state of the specified SingleFileUnifiedDiff. Later changes to the
+     * SingleFileUnifiedDiff do not change the ImmutableSingleFileUnifiedDiff.
+     *
+     * @param diff the SingleFileUnifiedDiff to be represented
+     */
+    public ImmutableSingleFileUnifiedDiff(SingleFileUnifiedDiff diff) {
+        contextInfo = Collections.unmodifiableList(new ArrayList<String>(diff.getContextInfo()));
+        originalDiffPath = diff.getOriginalDiffPath();
+        revisedDiffPath = diff.getRevisedDiffPath();
+        List<ImmutableUnifiedHunk> immutableHunks = new ArrayList<ImmutableUnifiedHunk>(diff.numHunks());
+        for (UnifiedHunk hunk : diff.getHunks()) {
+            immutableHunks.add(hunk == null ? null : new ImmutableUnifiedHunk(hunk));
+        }
+        hunks = new PersistentArray<ImmutableUnifiedHunk>(immutableHunks);
+    }
+
+    /**
+     * Constructs a version of an ImmutableSingleFileUnifiedDiff with the
+     * specified hunks.
+     */
+    private ImmutableSingleFileUnifiedDiff(ImmutableSingleFileUnifiedDiff diff,
+                                           PersistentArray<ImmutableUnifiedHunk> hunks) {
+        this.contextInfo = diff.contextInfo;
+        this.originalDiffPath = diff.originalDiffPath;
+        this.revisedDiffPath = diff.revisedDiffPath;
+        this.hunks = hunks;
+    }
+
+    /**
+     * Returns the number of hunks of this ImmutableSingleFileUnifiedDiff,
+     * including the hunks that have been removed.
+     *
+     * @return the number of hunks this diff was constructed with
+     */
+    public int numHunks() {
+        return hunks.size();
+    }
+
+    /**
+     * Returns the hunk at the specified index, with its revised line number
+     * shifted by the removals before it.
+     *
+     * @param hunkIndex the zero-based index of a hunk
+     * @return the hunk at hunkIndex, null if it has been removed
+     */
+    public ImmutableUnifiedHunk getHunk(int hunkIndex) {
+        ImmutableUnifiedHunk hunk = hunks.get(hunkIndex);
+        return hunk == null ? null : hunk.shiftRevisedLineNumber(hunks.shift(hunkIndex));
+    }
+
+    /**
+     * Returns the path of the original file, as the line of the diff that
+     * starts with "---".
+     *
+     * @return the original diff path of this diff
+     */
+    public String getOriginalDiffPath() {
+        return originalDiffPath;
+    }
+
+    /**
+     * Returns the path of the revised file, as the line of the diff that
+     * starts with "+++".
+     *
+     * @return the revised diff path of this diff
+     */
+    public String getRevisedDiffPath() {
+        return revisedDiffPath;
+    }
+
+    /**
+     * Returns a version of this ImmutableSingleFileUnifiedDiff without the
+     * hunk at the specified index.
+     *
+     * @param hunkIndex the zero-based index of the hunk to be removed
+     * @return the new version of this diff, or this diff if the hunk has
+     *         already been removed
+     */
+    public ImmutableSingleFileUnifiedDiff withoutHunk(int hunkIndex) {
+        ImmutableUnifiedHunk hunk = hunks.get(hunkIndex);
+        if (hunk == null) {
+            return this;
+        }
+        int offset = hunk.getOriginalHunkSize() - hunk.getRevisedHunkSize();
+        return new ImmutableSingleFileUnifiedDiff(this,
+                hunks.set(hunkIndex, null).shiftFrom(hunkIndex + 1, offset));
+    }
+
+    /**
+     * Returns a version of this ImmutableSingleFileUnifiedDiff without the
+     * change at the specified line of the specified hunk.
+     *
+     * @param hunkIndex the zero-based index of the hunk of the change
+     * @param lineIndex the zero-based index of the change in its hunk
+     * @return the new version of this diff, or this diff if the line is a
+     *         context line or has already been removed
+     */
+    public ImmutableSingleFileUnifiedDiff withoutChange(int hunkIndex, int lineIndex) {
+        ImmutableUnifiedHunk hunk = hunks.get(hunkIndex);
+        if (hunk == null) {
+            return this;
+        }
+        ImmutableUnifiedHunk changed = hunk.withoutChange(lineIndex);
+        if (changed == hunk) {
+            return this;
+        }
+        // removing an insertion moves the later hunks up a line in the
+        // revised file, and removing a deletion moves them down a line
+        int offset = changed.getRevisedHunkSize() - hunk.getRevisedHunkSize();
+        return new ImmutableSingleFileUnifiedDiff(this,
+                hunks.set(hunkIndex, changed).shiftFrom(hunkIndex + 1, offset));
+    }
+
+    /**
+     * Returns this ImmutableSingleFileUnifiedDiff as a List of Strings, as
+     * {@link SingleFileUnifiedDiff#diffToLines()} does.
+     *
+     * @return a List of Strings, one String per line of this diff
+     */
+    public List<String> diffToLines() {
+        List<String> diff = new ArrayList<String>(contextInfo);
+        if (originalDiffPath != null) {
+            diff.add(originalDiffPath);
+        }
+        if (revisedDiffPath != null) {
+            diff.add(revisedDiffPath);
+        }
+        for (int i = 0; i < hunks.size(); ++i) {
+            ImmutableUnifiedHunk hunk = getHunk(i);
+            if (hunk != null) {
+                diff.addAll(hunk.hunkToLines());
+            }
+        }
+        return diff;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImmutableSingleFileUnifiedDiff)) {
+            return false;
+        }
+        return diffToLines().equals(((ImmutableSingleFileUnifiedDiff) obj).diffToLines());
+    }
+
+    @Override
+    public int hashCode() {
+        return diffToLines().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", diffToLines());
+    }
+}
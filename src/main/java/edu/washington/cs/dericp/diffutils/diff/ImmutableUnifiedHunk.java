@@ -0,0 +1,248 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>An ImmutableUnifiedHunk is an immutable version of a {@link UnifiedHunk}.
+ * Removing a line returns a new version of the hunk, which shares the content
+ * of its lines and every part of the types of its lines that the removal does
+ * not touch, so it takes O(log n) time for a hunk of n lines.</p>
+ *
+ * <p>Lines are removed as {@link UnifiedHunk#removeLine(int)} removes them: a
+ * removed insertion is left out of the hunk, a removed deletion becomes a
+ * context line, and the indices of the other lines remain unchanged.</p>
+ */
+public final class ImmutableUnifiedHunk {
+    // the content of the lines of the hunk, which is never changed
+    private final LineChangeStore lines;
+    // the type of each line of the hunk, null for a removed line
+    private final PersistentArray<LineChange.Type> types;
+    private final int originalLineNumber;
+    private final int originalHunkSize;
+    private final int revisedLineNumber;
+    private final int revisedHunkSize;
+    // the context information that follows the line numbers and sizes
+    private final String filenameInfo;
+    // true if the original or the revised file ends without a newline in
+    // the hunk
+    private final boolean originalNoNewline;
+    private final boolean revisedNoNewline;
+
+    /**
+     * Constructs an ImmutableUnifiedHunk that represents the current state of
+     * the specified UnifiedHunk. Later changes to the UnifiedHunk do not
+     * change the ImmutableUnifiedHunk.
+     *
+     * @param hunk the UnifiedHunk to be represented
+     */
+    public ImmutableUnifiedHunk(UnifiedHunk hunk) {
+        lines = new LineChangeStore(hunk.getLineStore());
+        List<LineChange.Type> lineTypes = new ArrayList<LineChange.Type>(lines.size());
+        for (int i = 0; i < lines.size(); ++i) {
+            lineTypes.add(lines.isRemoved(i) ? null : lines.getType(i));
+        }
+        types = new PersistentArray<LineChange.Type>(lineTypes);
+        originalLineNumber = hunk.getOriginalLineNumber();
+        originalHunkSize = hunk.getOriginalHunkSize();
+        revisedLineNumber = hunk.getRevisedLineNumber();
+        revisedHunkSize = hunk.getRevisedHunkSize();
+        filenameInfo = hunk.getFilenameInfo();
+        originalNoNewline = hunk.isOriginalNoNewline();
+        revisedNoNewline = hunk.isRevisedNoNewline();
+    }
+
+    /**
+     * Constructs a version of an ImmutableUnifiedHunk.
+     */
+    private ImmutableUnifiedHunk(ImmutableUnifiedHunk hunk, PersistentArray<LineChange.Type> types,
+                                 int revisedLineNumber, int revisedHunkSize) {
+        this.lines = hunk.lines;
+        this.types = types;
+        this.originalLineNumber = hunk.originalLineNumber;
+        this.originalHunkSize = hunk.originalHunkSize;
+        this.revisedLineNumber = revisedLineNumber;
+        this.revisedHunkSize = revisedHunkSize;
+        this.filenameInfo = hunk.filenameInfo;
+        this.originalNoNewline = hunk.originalNoNewline;
+        this.revisedNoNewline = hunk.revisedNoNewline;
+    }
+
+    /**
+     * Returns a version of this ImmutableUnifiedHunk without the change at
+     * the specified index.
+     *
+     * @param lineIndex the zero-based index of the line to be removed
+     * @return the new version of this hunk, or this hunk if the line is a
+     *         context line or has already been removed
+     * @throws IllegalArgumentException if there is no line at lineIndex
+     */
+    public ImmutableUnifiedHunk withoutChange(int lineIndex) {
+        if (lineIndex < 0 || lineIndex >= types.size()) {
+            throw new IllegalArgumentException("Line number is out of bounds");
+        }
+        LineChange.Type type = types.get(lineIndex);
+        if (type == LineChange.Type.INSERTION) {
+            return new ImmutableUnifiedHunk(this, types.set(lineIndex, null), revisedLineNumber,
+                    revisedHunkSize - 1);
+        }
+        if (type == LineChange.Type.DELETION) {
+            return new ImmutableUnifiedHunk(this, types.set(lineIndex, LineChange.Type.CONTEXT),
+                    revisedLineNumber, revisedHunkSize + 1);
+        }
+        return this;
+    }
+
+    /**
+     * Returns a version of this ImmutableUnifiedHunk whose revised line number
+     * is shifted by the specified amount.
+     *
+     * @param change the amount that the revised line number is shifted by
+     * @return the new version of this hunk, or this hunk if change is zero
+     */
+    ImmutableUnifiedHunk shiftRevisedLineNumber(int change) {
+        if (change == 0) {
+            return this;
+        }
+        return new ImmutableUnifiedHunk(this, types, revisedLineNumber + change, revisedHunkSize);
+    }
+
+    /**
+     * Returns the number of lines of this ImmutableUnifiedHunk, including
+     * the lines that have been removed.
+     *
+     * @return the number of lines this hunk was constructed with
+     */
+    public int numLines() {
+        return types.size();
+    }
+
+    /**
+     * Returns the type of the line at the specified index.
+     *
+     * @param lineIndex the zero-based index of a line
+     * @return the type of the line, null if it has been removed
+     */
+    public LineChange.Type getType(int lineIndex) {
+        return types.get(lineIndex);
+    }
+
+    /**
+     * Returns the content of the line at the specified index.
+     *
+     * @param lineIndex the zero-based index of a line
+     * @return the content of the line
+     */
+    public String getContent(int lineIndex) {
+        return lines.get(lineIndex).getContent();
+    }
+
+    /**
+     * Returns where this ImmutableUnifiedHunk starts in the original file.
+     *
+     * @return the original line number of this hunk
+     */
+    public int getOriginalLineNumber() {
+        return originalLineNumber;
+    }
+
+    /**
+     * Returns the size of this ImmutableUnifiedHunk in the original file.
+     *
+     * @return the original size of this hunk
+     */
+    public int getOriginalHunkSize() {
+        return originalHunkSize;
+    }
+
+    /**
+     * Returns where this ImmutableUnifiedHunk starts in the revised file,
+     * including the shifts of the hunks before it that have been changed.
+     *
+     * @return the revised line number of this hunk
+     */
+    public int getRevisedLineNumber() {
+        return revisedLineNumber;
+    }
+
+    /**
+     * Returns the size of this ImmutableUnifiedHunk in the revised file.
+     *
+     * @return the revised size of this hunk
+     */
+    public int getRevisedHunkSize() {
+        return revisedHunkSize;
+    }
+
+    /**
+     * Returns the line of context information of this ImmutableUnifiedHunk,
+     * as {@link UnifiedHunk#getContextInfo()} does.
+     *
+     * @return the context information of this hunk
+     */
+    public String getContextInfo() {
+        String contextInfo = "@@ -" + originalLineNumber + ',' + originalHunkSize +
+                " +" + revisedLineNumber + ',' + revisedHunkSize + " @@";
+        if (!filenameInfo.isEmpty()) {
+            contextInfo += " " + filenameInfo;
+        }
+        return contextInfo;
+    }
+
+    /**
+     * Returns this ImmutableUnifiedHunk as a List of Strings, as
+     * {@link UnifiedHunk#hunkToLines()} does.
+     *
+     * @return the lines of this hunk, starting with its context information
+     */
+    public List<String> hunkToLines() {
+        List<String> hunkLines = new ArrayList<String>(types.size() + 1);
+        hunkLines.add(getContextInfo());
+        int marker = noNewlineMarkerAfter(-1);
+        for (int i = 0; i < types.size(); ++i) {
+            LineChange.Type type = types.get(i);
+            if (type == LineChange.Type.INSERTION) {
+                hunkLines.add("+" + getContent(i));
+            } else if (type == LineChange.Type.DELETION) {
+                hunkLines.add("-" + getContent(i));
+            } else if (type == LineChange.Type.CONTEXT) {
+                hunkLines.add(" " + getContent(i));
+            }
+            if (i == marker) {
+                hunkLines.add(UnifiedHunk.NO_NEWLINE_MARKER);
+                marker = noNewlineMarkerAfter(i);
+            }
+        }
+        return hunkLines;
+    }
+
+    /**
+     * Returns the index of the line that the next "\\ No newline at end of
+     * file" marker follows, as {@link UnifiedHunk#noNewlineMarkerAfter(int)}
+     * does.
+     */
+    private int noNewlineMarkerAfter(int after) {
+        return UnifiedHunk.noNewlineMarkerAfter(types::get, types.size(), after, originalNoNewline, revisedNoNewline);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImmutableUnifiedHunk)) {
+            return false;
+        }
+        return hunkToLines().equals(((ImmutableUnifiedHunk) obj).hunkToLines());
+    }
+
+    @Override
+    public int hashCode() {
+        return hunkToLines().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", hunkToLines());
+    }
+}
@@ -0,0 +1,66 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+/**
+ * A LineNumberOffsets records how far the revised line number of each hunk of
+ * a diff has been shifted by edits to the hunks before it.
+ *
+ * Removing a hunk or a line shifts the revised line number of every later
+ * hunk in the diff. Rather than updating each later hunk, the shift is
+ * recorded once in a Fenwick tree over the hunk indices, and the total shift
+ * of a hunk is resolved when its revised line number is read. Both recording
+ * a shift and resolving the shift of a hunk take O(log h) time for a diff of
+ * h hunks.
+ */
+class LineNumberOffsets {
+
+    // the Fenwick tree of shifts, one-based, tree[i] holds the sum of the
+    // shifts recorded at indices (i - lowbit(i), i]
+    private final int[] tree;
+
+    /**
+     * Constructs a LineNumberOffsets for the specified number of hunks, none
+     * of which are shifted.
+     *
+     * @param numHunks the number of hunks of the diff
+     */
+    LineNumberOffsets(int numHunks) {
+        tree = new int[numHunks + 1];
+    }
+
+    /**
+     * Constructs a LineNumberOffsets that is a copy of the specified
+     * LineNumberOffsets.
+     *
+     * @param offsets the LineNumberOffsets to be copied
+     */
+    LineNumberOffsets(LineNumberOffsets offsets) {
+        tree = offsets.tree.clone();
+    }
+
+    /**
+     * Shifts every hunk at or after the specified index by the specified
+     * amount.
+     *
+     * @param fromHunkIndex the zero-based index of the first shifted hunk
+     * @param change the amount that each hunk is shifted by
+     */
+    void shift(int fromHunkIndex, int change) {
+        for (int i = fromHunkIndex + 1; i < tree.length; i += i & -i) {
+            tree[i] += change;
+        }
+    }
+
+    /**
+     * Returns the total shift of the hunk at the specified index.
+     *
+     * @param hunkIndex the zero-based index of a hunk
+     * @return the sum of every shift recorded at or before hunkIndex
+     */
+    int offset(int hunkIndex) {
+        int sum = 0;
+        for (int i = Math.min(hunkIndex + 1, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+}
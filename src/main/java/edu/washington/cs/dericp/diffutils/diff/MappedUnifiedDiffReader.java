@@ -0,0 +1,231 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A MappedUnifiedDiffReader reads a multi-file unified diff from a file
+ * by memory-mapping it, and returns the {@link SingleFileUnifiedDiff}s that it
+ * contains one at a time.</p>
+ *
+ * <p>The boundaries of diffs, file paths and hunks are found by scanning the
+ * bytes of the mapped file. Only the header lines are decoded while reading.
+ * The content of each hunk line stays encoded in the mapped file, referenced
+ * by the {@link LineChangeStore} of its hunk, until
+ * {@link LineChange#getContent()} is called, so clients that only look at
+ * paths, hunk headers and counts never pay for decoding the lines of the
+ * patch.</p>
+ *
+ * <p>A MultiFileUnifiedDiff backed by the mapped file can be constructed with
+ * {@link MultiFileUnifiedDiff#MultiFileUnifiedDiff(Iterator)}.</p>
+ */
+public class MappedUnifiedDiffReader implements Iterator<SingleFileUnifiedDiff> {
+    private static final byte[] DIFF_SPLIT = {'d', 'i', 'f', 'f'};
+    private static final byte[] ORIGINAL_PATH = {'-', '-', '-'};
+    private static final byte[] HUNK_SPLIT = {'@', '@'};
+    // the mapped contents of the patch file
+    private final ByteBuffer buffer;
+    // the charset that the patch file is encoded with
+    private final Charset charset;
+    // the index in buffer of the first byte that has not been read
+    private int position;
+    // the bounds of the most recently read line, excluding its terminator
+    private int lineStart;
+    private int lineEnd;
+    // true if the most recently read line has not been consumed
+    private boolean hasLine;
+
+    /**
+     * Constructs a MappedUnifiedDiffReader that reads the patch at the specified
+     * path using the default charset, as {@link
+     * edu.washington.cs.dericp.diffutils.Utils#readFile(String)} does.
+     *
+     * @param path the path of the patch to be read
+     * @throws IOException if the file at path cannot be mapped
+     */
+    public MappedUnifiedDiffReader(Path path) throws IOException {
+        this(path, Charset.defaultCharset());
+    }
+
+    /**
+     * Constructs a MappedUnifiedDiffReader that reads the patch at the specified
+     * path using the specified charset. The charset must encode '\n', '\r' and
+     * the characters of the diff, hunk and path separators as single ASCII
+     * bytes, as UTF-8 and the ISO-8859 charsets do.
+     *
+     * @param path the path of the patch to be read
+     * @param charset the charset that the patch is encoded with
+     * @throws IOException if the file at path cannot be mapped
+     */
+    public MappedUnifiedDiffReader(Path path, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Patch is too large to be mapped: " + path);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.buffer = mapped;
+        }
+        this.charset = charset;
+    }
+
+    /**
+     * Returns true if there is another single-file unified diff to be read.
+     *
+     * @return true if a call to {@link #next()} will return a
+     *         SingleFileUnifiedDiff
+     */
+    @Override
+    public boolean hasNext() {
+        // skip anything before the start of the next single file unified diff
+        while (!hasLine || !lineStartsWith(DIFF_SPLIT)) {
+            if (!readLine()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next single-file unified diff of the patch.
+     *
+     * @return the next SingleFileUnifiedDiff of the patch
+     * @throws NoSuchElementException if there are no more single-file
+     *                                unified diffs to read
+     */
+    @Override
+    public SingleFileUnifiedDiff next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more diffs in the patch");
+        }
+        List<String> contextInfo = new ArrayList<String>();
+        String originalDiffPath = null;
+        String revisedDiffPath = null;
+        List<UnifiedHunk> hunks = new ArrayList<UnifiedHunk>();
+
+        // reading the context info and file paths
+        contextInfo.add(decodeLine());
+        while (readLine() && !lineStartsWith(DIFF_SPLIT) && !lineStartsWith(HUNK_SPLIT)) {
+            if (lineStartsWith(ORIGINAL_PATH)) {
+                originalDiffPath = decodeLine();
+                if (readLine()) {
+                    revisedDiffPath = decodeLine();
+                    hasLine = false;
+                }
+                break;
+            }
+            contextInfo.add(decodeLine());
+        }
+
+        // reading the hunks
+        while ((hasLine || readLine()) && !lineStartsWith(DIFF_SPLIT)) {
+            if (lineStartsWith(HUNK_SPLIT)) {
+                hunks.add(readHunk());
+            } else {
+                hasLine = false;
+            }
+        }
+        return new SingleFileUnifiedDiff(contextInfo, originalDiffPath, revisedDiffPath, hunks);
+    }
+
+    /**
+     * Reads the hunk whose context information is the current line. The
+     * content of the lines of the hunk is left encoded in the mapped file.
+     *
+     * @return the UnifiedHunk that starts at the current line
+     */
+    private UnifiedHunk readHunk() {
+        UnifiedHunk hunk = new UnifiedHunk(decodeLine(), buffer, charset);
+        LineChangeStore hunkLines = hunk.getLineStore();
+        LineChange.Type previous = null;
+        while (readLine() && !lineStartsWith(DIFF_SPLIT) && !lineStartsWith(HUNK_SPLIT)) {
+            int contentOffset = Math.min(lineStart + 1, lineEnd);
+            byte marker = lineStart < lineEnd ? buffer.get(lineStart) : (byte) ' ';
+            if (marker == '\\') {
+                // a "\ No newline at end of file" marker is not a line of the file
+                hunk.markNoNewline(previous);
+            } else {
+                if (marker == '+') {
+                    previous = LineChange.Type.INSERTION;
+                } else if (marker == '-') {
+                    previous = LineChange.Type.DELETION;
+                } else {
+                    previous = LineChange.Type.CONTEXT;
+                }
+                hunkLines.append(previous, contentOffset, lineEnd - contentOffset);
+            }
+            hasLine = false;
+        }
+        hunkLines.trimToSize();
+        return hunk;
+    }
+
+    /**
+     * Finds the bounds of the next line of the mapped file, excluding its
+     * "\n" or "\r\n" terminator.
+     *
+     * @return true if a line was read, false if the end of the file has
+     *         been reached
+     */
+    private boolean readLine() {
+        int limit = buffer.limit();
+        if (position >= limit) {
+            hasLine = false;
+            return false;
+        }
+        lineStart = position;
+        int end = position;
+        while (end < limit && buffer.get(end) != '\n') {
+            ++end;
+        }
+        position = end + 1;
+        if (end > lineStart && buffer.get(end - 1) == '\r') {
+            --end;
+        }
+        lineEnd = end;
+        hasLine = true;
+        return true;
+    }
+
+    /**
+     * Returns true if the current line starts with the specified bytes.
+     *
+     * @param prefix the bytes that are compared with the start of the line
+     * @return true if the current line starts with prefix
+     */
+    private boolean lineStartsWith(byte[] prefix) {
+        if (lineEnd - lineStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if (buffer.get(lineStart + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the current line into a String.
+     *
+     * @return the current line
+     */
+    private String decodeLine() {
+        ByteBuffer line = buffer.duplicate();
+        line.position(lineStart);
+        line.limit(lineEnd);
+        return charset.decode(line).toString();
+    }
+}
@@ -1,13 +1,24 @@
 package edu.washington.cs.dericp.diffutils.diff;
 
-import edu.washington.cs.dericp.diffutils.Utils;
+import edu.washington.cs.dericp.diffutils.change.ContentPool;
 import edu.washington.cs.dericp.diffutils.change.LineChange;
 import edu.washington.cs.dericp.diffutils.patch.Patch;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 
 /**
  * <p>A MultiFileUnifiedDiff represents a unified diff patch of multiple files
@@ -32,16 +43,43 @@ import java.util.List;
  * of Strings.</p>
  *
  * <p>A MultiFileUnifiedDiff provides a method to write the patch that it represents to a file.</p>
+ *
+ * <p>A MultiFileUnifiedDiff can be parsed in parallel on a ForkJoinPool, in which case
+ * a single-file unified diff that cannot be parsed does not prevent the others from
+ * being parsed. Such failures are reported by {@link #getParseErrors()}.</p>
+ *
+ * <p>Removed single-file unified diffs, hunks and lines are left as null slots so
+ * that the indices of everything else do not change. Once many of them have been
+ * removed, {@link #compact()} drops the null slots, so that traversals only pay for
+ * what remains.</p>
  */
 public class MultiFileUnifiedDiff implements Patch {
     // This field changes depending on what signifies a new diff.
     // In some formats, this could be "diff", and in others, "---".
     // TODO if necessary, turn this into a field that can be set in the constructor
     private final String DIFF_SPLIT = "diff";
+    // the number of single file unified diffs below which a parallel parse
+    // task parses its diffs itself instead of forking
+    private static final int PARALLEL_PARSE_THRESHOLD = 16;
     private List<SingleFileUnifiedDiff> diffs;
+    // the indices of the single file unified diffs that have been removed or
+    // could not be parsed since this patch was constructed or last compacted
+    private BitSet removedDiffs = new BitSet();
+    // the errors of the single file unified diffs that could not be parsed,
+    // keyed by diff index
+    private Map<Integer, RuntimeException> parseErrors = Collections.emptyMap();
+    // the positions of the changes of this patch, null until a change is
+    // first removed by value
+    private ChangeIndex changeIndex;
+    // the journal that the edits of this patch are recorded in, null until
+    // it is first asked for
+    private EditJournal journal;
     
     /**
      * Constructs a MultiFileUnifiedDiff from the patch at the specified pathname.
+     * The patch is read one single-file unified diff at a time with a
+     * {@link UnifiedDiffReader}, so the lines of the whole patch are never held
+     * in memory at once.
      * 
      * @param pathname the relative or absolute pathname of the patch that this
      *                 MultiFileUnifiedDiff instance will represent
@@ -49,7 +87,14 @@ public class MultiFileUnifiedDiff implements Patch {
      *                     be found
      */
     public MultiFileUnifiedDiff(String pathname) throws IOException {
-        this(Utils.readFile(pathname));
+        try (UnifiedDiffReader reader = new UnifiedDiffReader(Paths.get(pathname))) {
+            readDiffs(reader);
+            if (reader.linesRead() == 0) {
+                throw new IllegalArgumentException("SingleFileUnifiedDiff is empty");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
     
     /**
@@ -60,9 +105,101 @@ public class MultiFileUnifiedDiff implements Patch {
      *                   line of the patch
      */
     public MultiFileUnifiedDiff(List<String> patchLines) {
-        parsePatchLines(patchLines);
+        this(patchLines, false);
+    }
+    
+    /**
+     * Constructs a MultiFileUnifiedDiff consisting of the given lines. If
+     * lazyHunks is true, the hunks of each {@link SingleFileUnifiedDiff} are
+     * not parsed until they are first accessed, and patchLines must not be
+     * modified until then.
+     * 
+     * @param patchLines a List of Strings that represents the patch that
+     *                   this MultiFileUnifiedDiff instance will represent, one String per
+     *                   line of the patch
+     * @param lazyHunks true if the hunks should be parsed when first accessed
+     *                  rather than at construction
+     */
+    public MultiFileUnifiedDiff(List<String> patchLines, boolean lazyHunks) {
+        parsePatchLines(patchLines, lazyHunks, null);
+    }
+    
+    /**
+     * Constructs a MultiFileUnifiedDiff consisting of the given lines. Hunk
+     * lines with equal content share the instance of that content held by the
+     * specified pool.
+     * 
+     * @param patchLines a List of Strings that represents the patch that
+     *                   this MultiFileUnifiedDiff instance will represent, one String per
+     *                   line of the patch
+     * @param pool the ContentPool that the content of each hunk line is
+     *             deduplicated with
+     */
+    public MultiFileUnifiedDiff(List<String> patchLines, ContentPool pool) {
+        parsePatchLines(patchLines, false, pool);
+    }
+    
+    /**
+     * Constructs a MultiFileUnifiedDiff consisting of the given lines, parsing
+     * its single-file unified diffs concurrently on the specified pool. The
+     * order of the diffs in the patch is preserved. A single-file unified diff
+     * that cannot be parsed is left as null, as if it had been removed, and
+     * the reason is reported by {@link #getParseErrors()}.
+     * 
+     * @param patchLines a List of Strings that represents the patch that
+     *                   this MultiFileUnifiedDiff instance will represent, one String per
+     *                   line of the patch
+     * @param pool the ForkJoinPool that the diffs will be parsed on
+     */
+    public MultiFileUnifiedDiff(List<String> patchLines, ForkJoinPool pool) {
+        this(patchLines, pool, null);
     }
     
+    /**
+     * Constructs a MultiFileUnifiedDiff consisting of the given lines, parsing
+     * its single-file unified diffs concurrently on the specified pool and
+     * deduplicating the content of hunk lines with the specified ContentPool.
+     * See {@link #MultiFileUnifiedDiff(List, ForkJoinPool)}.
+     * 
+     * @param patchLines a List of Strings that represents the patch that
+     *                   this MultiFileUnifiedDiff instance will represent, one String per
+     *                   line of the patch
+     * @param pool the ForkJoinPool that the diffs will be parsed on
+     * @param contentPool the ContentPool that the content of each hunk line
+     *                    is deduplicated with, or null if content should not
+     *                    be pooled
+     */
+    public MultiFileUnifiedDiff(List<String> patchLines, ForkJoinPool pool, ContentPool contentPool) {
+        List<List<String>> diffLines = splitPatchLines(patchLines);
+        SingleFileUnifiedDiff[] parsed = new SingleFileUnifiedDiff[diffLines.size()];
+        RuntimeException[] errors = new RuntimeException[diffLines.size()];
+        pool.invoke(new ParseTask(diffLines, contentPool, parsed, errors, 0, diffLines.size()));
+        
+        diffs = new ArrayList<SingleFileUnifiedDiff>(parsed.length);
+        Collections.addAll(diffs, parsed);
+        adoptDiffs();
+        for (int i = 0; i < errors.length; ++i) {
+            if (errors[i] != null) {
+                if (parseErrors.isEmpty()) {
+                    parseErrors = new TreeMap<Integer, RuntimeException>();
+                }
+                parseErrors.put(i, errors[i]);
+                removedDiffs.set(i);
+            }
+        }
+    }
+    
+    /**
+     * Constructs a MultiFileUnifiedDiff consisting of the SingleFileUnifiedDiffs
+     * returned by the given Iterator, such as a {@link UnifiedDiffReader}.
+     *
+     * @param diffs an Iterator over the SingleFileUnifiedDiffs that this
+     *              MultiFileUnifiedDiff instance will be composed of, in order
+     */
+    public MultiFileUnifiedDiff(Iterator<SingleFileUnifiedDiff> diffs) {
+        readDiffs(diffs);
+    }
+
     /**
      * Constructs a MultiFileUnifiedDiff that is a copy of the specified MultiFileUnifiedDiff.
      * 
@@ -71,52 +208,104 @@ public class MultiFileUnifiedDiff implements Patch {
     public MultiFileUnifiedDiff(MultiFileUnifiedDiff patch) {
         diffs = new ArrayList<SingleFileUnifiedDiff>();
         for (SingleFileUnifiedDiff diff : patch.diffs) {
-            diffs.add(new SingleFileUnifiedDiff(diff));
+            diffs.add(diff == null ? null : new SingleFileUnifiedDiff(diff));
+        }
+        adoptDiffs();
+        removedDiffs = (BitSet) patch.removedDiffs.clone();
+        parseErrors = patch.parseErrors;
+    }
+    
+    /**
+     * Reads in the lines of a patch. Each single-file unified diff is handed to
+     * {@link SingleFileUnifiedDiff} as a view of patchLines rather than a copy.
+     * 
+     * @param patchLines the non-null non-empty List of Strings
+     *        that represent a patch, one string per line of the
+     *        patch
+     * @param lazyHunks true if the hunks of each diff should be parsed when
+     *        first accessed
+     * @param pool the ContentPool that the content of each hunk line is
+     *        deduplicated with, or null if content should not be pooled
+     */
+    private void parsePatchLines(List<String> patchLines, boolean lazyHunks, ContentPool pool) {
+        diffs = new ArrayList<SingleFileUnifiedDiff>();
+        for (List<String> diffLines : splitPatchLines(patchLines)) {
+            diffs.add(new SingleFileUnifiedDiff(diffLines, lazyHunks, pool));
         }
+        adoptDiffs();
     }
     
     /**
-     * Reads in the lines of a patch.
+     * Splits the lines of a patch into the lines of its single-file unified
+     * diffs. The returned lists are views of patchLines.
      * 
      * @param patchLines the non-null non-empty List of Strings
      *        that represent a patch, one string per line of the
      *        patch
+     * @return the lines of each single-file unified diff in the patch, in order
      */
-    private void parsePatchLines(List<String> patchLines) {
+    private List<List<String>> splitPatchLines(List<String> patchLines) {
         if (patchLines == null || patchLines.isEmpty()) {
             throw new IllegalArgumentException("SingleFileUnifiedDiff is empty");
         }
         
-        diffs = new ArrayList<SingleFileUnifiedDiff>();
-        Iterator<String> iter = patchLines.iterator();
-        String currentLine = null;
-        if (iter.hasNext()) {
-            currentLine = iter.next();
-        }
-        while (iter.hasNext() && currentLine != null) {
-            if (currentLine.startsWith(DIFF_SPLIT)) {
-                List<String> diffLines = new ArrayList<String>();
-                diffLines.add(currentLine);
-                currentLine = iter.next();
-                
-                // constructing a new SingleFileUnifiedDiff
-                while (!currentLine.startsWith(DIFF_SPLIT) && iter.hasNext()) {
-                    diffLines.add(currentLine);
-                    currentLine = iter.next();
-                }
-                // if last line of unifiedDiff
-                if (!iter.hasNext()) {
-                    diffLines.add(currentLine);
+        List<List<String>> diffLines = new ArrayList<List<String>>();
+        int diffStart = -1;
+        for (int i = 0; i < patchLines.size(); ++i) {
+            if (patchLines.get(i).startsWith(DIFF_SPLIT)) {
+                if (diffStart != -1) {
+                    diffLines.add(patchLines.subList(diffStart, i));
                 }
-                
-                // adding the newly constructed SingleFileUnifiedDiff to this MultiFileUnifiedDiff
-                diffs.add(new SingleFileUnifiedDiff(diffLines));
-            } else {
-                currentLine = iter.next();
+                diffStart = i;
+            }
+        }
+        // adding the last SingleFileUnifiedDiff of the patch
+        if (diffStart != -1) {
+            diffLines.add(patchLines.subList(diffStart, patchLines.size()));
+        }
+        return diffLines;
+    }
+
+    /**
+     * Reads in the single-file unified diffs of a patch.
+     *
+     * @param diffIter the Iterator over the SingleFileUnifiedDiffs that
+     *                 compose a patch
+     */
+    private void readDiffs(Iterator<SingleFileUnifiedDiff> diffIter) {
+        diffs = new ArrayList<SingleFileUnifiedDiff>();
+        while (diffIter.hasNext()) {
+            diffs.add(diffIter.next());
+        }
+        adoptDiffs();
+    }
+
+    /**
+     * Makes every diff of this MultiFileUnifiedDiff part of it, so that the
+     * diffs drop the change index of this patch when their changes move.
+     */
+    private void adoptDiffs() {
+        for (SingleFileUnifiedDiff diff : diffs) {
+            if (diff != null) {
+                diff.setPatch(this);
             }
         }
     }
     
+    /**
+     * Returns the errors of the single-file unified diffs that could not be
+     * parsed when this MultiFileUnifiedDiff was parsed in parallel, keyed by
+     * the index of the diff. The diff at each of these indices is null until
+     * this MultiFileUnifiedDiff is compacted, after which the keys are the
+     * indices that the diffs had when they were parsed.
+     *
+     * @return an unmodifiable Map from diff index to the error that occurred
+     *         while parsing that diff, empty if every diff was parsed
+     */
+    public Map<Integer, RuntimeException> getParseErrors() {
+        return Collections.unmodifiableMap(parseErrors);
+    }
+    
     /**
      * Returns the {@link SingleFileUnifiedDiff}s that compose this MultiFileUnifiedDiff. Modifying a
      * SingleFileUnifiedDiff in the List that is returned will modify this MultiFileUnifiedDiff.
@@ -149,7 +338,8 @@ public class MultiFileUnifiedDiff implements Patch {
      * Returns the number of SingleFileUnifiedDiffs contained in this patch.
      * The return value specifies the number of SingleFileUnifiedDiffs that
      * this MultiFileUnifiedDiff was constructed with and is unaffected by the removal of
-     * SingleFileUnifiedDiffs from this MultiFileUnifiedDiff.
+     * SingleFileUnifiedDiffs from this MultiFileUnifiedDiff, until it is compacted
+     * with {@link #compact()}.
      *
      * @return the number of SingleFileUnifiedDiffs that this MultiFileUnifiedDiff was
      *         constructed with
@@ -173,8 +363,48 @@ public class MultiFileUnifiedDiff implements Patch {
         // it is beneficial to know how many UnifiedDiffs the MultiFileUnifiedDiff started
         // with. If this behavior changes, the specification also needs to change.
         if (diffIndex < diffs.size()) {
-            diffs.set(diffIndex, null);
+            SingleFileUnifiedDiff removed = diffs.set(diffIndex, null);
+            removedDiffs.set(diffIndex);
+            if (journal != null && removed != null) {
+                journal.diffRemoved(diffIndex, removed);
+            }
+        }
+    }
+
+    /**
+     * Puts back a single-file unified diff that has been removed, to undo its
+     * removal.
+     *
+     * @param diffIndex the zero-based index of the removed diff
+     * @param diff the diff that was removed
+     */
+    void restoreDiff(int diffIndex, SingleFileUnifiedDiff diff) {
+        diffs.set(diffIndex, diff);
+        removedDiffs.clear(diffIndex);
+        // the indexes were built without the changes of the diff, or before
+        // it was removed
+        diff.invalidateChangeIndex();
+        changeIndex = null;
+    }
+
+    /**
+     * Returns the journal that the edits of this MultiFileUnifiedDiff are
+     * recorded in, so that they can be rolled back and redone. The journal is
+     * started on the first call, which parses every hunk that has not been
+     * parsed yet, and only the edits made after it are recorded.
+     *
+     * @return the EditJournal of this MultiFileUnifiedDiff
+     */
+    public EditJournal getJournal() {
+        if (journal == null) {
+            journal = new EditJournal(this);
+            for (SingleFileUnifiedDiff diff : diffs) {
+                if (diff != null) {
+                    diff.setJournal(journal);
+                }
+            }
         }
+        return journal;
     }
     
     /**
@@ -190,14 +420,56 @@ public class MultiFileUnifiedDiff implements Patch {
      *                   from within the specified unified diff
      */
     public void removeHunk(int diffIndex, int hunkIndex) {
-        if (diffIndex < diffs.size() && hunkIndex < diffs.get(diffIndex).getHunks().size()) {
-            List<UnifiedHunk> hunks = diffs.get(diffIndex).getHunks();
-            UnifiedHunk removedHunk = hunks.get(hunkIndex);
-            int offset = removedHunk.getOriginalHunkSize() - removedHunk.getRevisedHunkSize();
-            for (int i = hunkIndex + 1; i < diffs.get(diffIndex).getHunks().size(); ++i) {
-               hunks.get(i).modifyRevisedLineNumber(offset);
+        if (diffIndex < diffs.size() && !removedDiffs.get(diffIndex)
+                && hunkIndex < diffs.get(diffIndex).numHunks()) {
+            SingleFileUnifiedDiff diff = diffs.get(diffIndex);
+            UnifiedHunk removedHunk = diff.getHunk(hunkIndex);
+            if (removedHunk != null) {
+                int offset = removedHunk.getOriginalHunkSize() - removedHunk.getRevisedHunkSize();
+                diff.shiftRevisedLineNumbers(hunkIndex + 1, offset);
+                diff.removeHunk(hunkIndex);
             }
-            hunks.set(hunkIndex, null);
+        }
+    }
+
+    /**
+     * Removes the specified unified hunks from a single-file unified diff in
+     * this MultiFileUnifiedDiff. This is equivalent to calling
+     * {@link #removeHunk(int, int)} with each index, but the hunks are removed
+     * in a single sweep in order, and the revised line numbers of the later
+     * hunks are shifted once for each run of adjacent removed hunks.
+     * 
+     * @param diffIndex the zero-based index of the single-file unified diff that
+     *                   contains the unified hunks to be removed
+     * @param hunkIndices the zero-based indices of the unified hunks to be
+     *                    removed from within the specified unified diff
+     */
+    public void removeHunks(int diffIndex, Collection<Integer> hunkIndices) {
+        if (diffIndex >= diffs.size() || removedDiffs.get(diffIndex)) {
+            return;
+        }
+        SingleFileUnifiedDiff diff = diffs.get(diffIndex);
+        int numHunks = diff.numHunks();
+        BitSet removing = new BitSet(numHunks);
+        for (int hunkIndex : hunkIndices) {
+            if (hunkIndex < numHunks) {
+                removing.set(hunkIndex);
+            }
+        }
+        for (int start = removing.nextSetBit(0); start >= 0; ) {
+            int end = removing.nextClearBit(start);
+            int offset = 0;
+            for (int hunkIndex = start; hunkIndex < end; ++hunkIndex) {
+                UnifiedHunk removedHunk = diff.getHunk(hunkIndex);
+                if (removedHunk != null) {
+                    offset += removedHunk.getOriginalHunkSize() - removedHunk.getRevisedHunkSize();
+                    diff.removeHunk(hunkIndex);
+                }
+            }
+            if (offset != 0) {
+                diff.shiftRevisedLineNumbers(end, offset);
+            }
+            start = end < numHunks ? removing.nextSetBit(end) : -1;
         }
     }
 
@@ -217,21 +489,16 @@ public class MultiFileUnifiedDiff implements Patch {
      *                  of the specified unified hunk and unified diff
      */
     public void removeChange(int diffIndex, int hunkIndex, int lineIndex) {
-        List<UnifiedHunk> hunks = diffs.get(diffIndex).getHunks();
-        UnifiedHunk modifiedHunk = hunks.get(hunkIndex);
-        int result = modifiedHunk.removeLine(lineIndex);
+        SingleFileUnifiedDiff diff = diffs.get(diffIndex);
+        if (diff == null || diff.getHunk(hunkIndex) == null) {
+            // the line has already been removed with its diff or hunk
+            return;
+        }
+        int result = diff.getHunk(hunkIndex).removeLine(lineIndex);
+        // removing an insertion moves the later hunks up a line in the
+        // revised file, and removing a deletion moves them down a line
         if (result != 0) {
-            for (int i = hunkIndex + 1; i < hunks.size(); i++) {
-                UnifiedHunk currentHunk = hunks.get(i);
-                if (currentHunk != null) {
-                    if (result == 1) {
-                        hunks.get(i).modifyRevisedLineNumber(-1);
-                    }
-                    if (result == -1) {
-                        hunks.get(i).modifyRevisedLineNumber(1);
-                    }
-                }
-            }
+            diff.shiftRevisedLineNumbers(hunkIndex + 1, -result);
         }
     }
     
@@ -243,21 +510,43 @@ public class MultiFileUnifiedDiff implements Patch {
      */
     public List<String> getPatchLines() {
         List<String> export = new ArrayList<String>();
-        for (SingleFileUnifiedDiff diff : diffs) {
-            if (diff != null) {
-                export.addAll(diff.diffToLines());
-            }
+        for (SingleFileUnifiedDiff diff : liveDiffs()) {
+            export.addAll(diff.diffToLines());
         }
         return export;
     }
     
+    /**
+     * Returns a new MultiFileUnifiedDiff that undoes this patch, made of the
+     * reverse of each of its single-file unified diffs in the same order.
+     * Nothing is written out or parsed again: each diff is reversed with
+     * {@link SingleFileUnifiedDiff#reverse()} in one pass over its lines.
+     *
+     * @return the reverse of this MultiFileUnifiedDiff
+     */
+    public MultiFileUnifiedDiff reverse() {
+        List<SingleFileUnifiedDiff> live = liveDiffs();
+        List<SingleFileUnifiedDiff> reversed = new ArrayList<SingleFileUnifiedDiff>(live.size());
+        for (SingleFileUnifiedDiff diff : live) {
+            reversed.add(diff.reverse());
+        }
+        return new MultiFileUnifiedDiff(reversed.iterator());
+    }
+    
     /**
      * Writes the patch that this MultiFileUnifiedDiff instance represents to a file.
+     * The patch is streamed to the file with a {@link UnifiedDiffWriter}, so the
+     * lines of the patch are never held in memory at once.
      * 
      * @param pathname path where the patch will be written
+     * @throws UncheckedIOException if the patch cannot be written
      */
     public void writePatch(String pathname) {
-        Utils.writeFile(getPatchLines(), pathname);
+        try (UnifiedDiffWriter writer = new UnifiedDiffWriter(Paths.get(pathname))) {
+            writer.write(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -275,10 +564,13 @@ public class MultiFileUnifiedDiff implements Patch {
      */
     public List<LineChange> getChanges() {
         List<LineChange> ret = new ArrayList<>();
-        for (SingleFileUnifiedDiff SFUnifiedDiff : diffs) {
+        for (SingleFileUnifiedDiff SFUnifiedDiff : liveDiffs()) {
             for (UnifiedHunk hunk : SFUnifiedDiff.getHunks()) {
+                if (hunk == null) {
+                    continue;
+                }
                 for (LineChange change : hunk.getHunkLines()) {
-                    if (change.getType() != LineChange.Type.CONTEXT) {
+                    if (change != null && change.getType() != LineChange.Type.CONTEXT) {
                         ret.add(change);
                     }
                 }
@@ -299,18 +591,151 @@ public class MultiFileUnifiedDiff implements Patch {
      * MultiFileUnifiedDiff representing the insertion of two lines,
      * {two, three}.
      *
+     * The change is found with an index from each change to its (diff, hunk,
+     * line) positions that is built on the first call, so each call takes time
+     * proportional to the number of occurrences of the change rather than to
+     * the size of the patch.
+     *
      * @param change the change to be removed
      */
     public void removeChange(LineChange change) {
-        for (int i = 0; i < diffs.size(); i++) {
-            SingleFileUnifiedDiff diff = diffs.get(i);
-            for (int j = 0; j < diff.getHunks().size(); j++) {
-                UnifiedHunk hunk = diff.getHunk(j);
-                if (hunk.getHunkLines().contains(change)) {
-                    removeChange(i, j, hunk.getHunkLines().indexOf(change));
+        for (ChangeIndex.Location location : getChangeIndex().get(change)) {
+            SingleFileUnifiedDiff diff = diffs.get(location.diffIndex);
+            if (diff == null || location.hunkIndex >= diff.numHunks()) {
+                continue;
+            }
+            UnifiedHunk hunk = diff.getHunk(location.hunkIndex);
+            if (hunk != null && hunk.hasLine(location.lineIndex, change)) {
+                removeChange(location.diffIndex, location.hunkIndex, location.lineIndex);
+            }
+        }
+    }
+
+    /**
+     * Removes every change in the specified collection from this
+     * MultiFileUnifiedDiff. This is equivalent to calling
+     * {@link #removeChange(LineChange)} with each change, but each change is
+     * found with the change index, and the revised line numbers of each
+     * diff are shifted once per modified hunk after every change is removed,
+     * rather than once per change.
+     *
+     * @param changes the changes to be removed
+     */
+    public void removeChanges(Collection<? extends LineChange> changes) {
+        ChangeIndex index = getChangeIndex();
+        // the shift of the hunks after each modified hunk, per modified diff
+        Map<Integer, int[]> shifts = new HashMap<Integer, int[]>();
+        for (LineChange change : changes) {
+            for (ChangeIndex.Location location : index.get(change)) {
+                SingleFileUnifiedDiff diff = diffs.get(location.diffIndex);
+                if (diff == null || location.hunkIndex >= diff.numHunks()) {
+                    continue;
                 }
+                UnifiedHunk hunk = diff.getHunk(location.hunkIndex);
+                if (hunk != null && hunk.hasLine(location.lineIndex, change)) {
+                    int[] diffShifts = shifts.get(location.diffIndex);
+                    if (diffShifts == null) {
+                        diffShifts = new int[diff.numHunks()];
+                        shifts.put(location.diffIndex, diffShifts);
+                    }
+                    diffShifts[location.hunkIndex] -= hunk.removeLine(location.lineIndex);
+                }
+            }
+        }
+        for (Map.Entry<Integer, int[]> entry : shifts.entrySet()) {
+            SingleFileUnifiedDiff diff = diffs.get(entry.getKey());
+            int[] diffShifts = entry.getValue();
+            for (int j = 0; j < diffShifts.length; ++j) {
+                if (diffShifts[j] != 0) {
+                    diff.shiftRevisedLineNumbers(j + 1, diffShifts[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every change from this MultiFileUnifiedDiff that does not
+     * satisfy the specified predicate, in a single pass over each
+     * single-file unified diff. The predicate is only tested with insertions
+     * and deletions, never with context lines.
+     *
+     * @param filter the predicate that each change to be kept satisfies
+     */
+    public void retainChanges(Predicate<? super LineChange> filter) {
+        for (SingleFileUnifiedDiff diff : liveDiffs()) {
+            diff.retainChanges(filter);
+        }
+    }
+
+    /**
+     * Returns the index of the changes of this MultiFileUnifiedDiff, building
+     * it if it has not been built yet.
+     *
+     * @return the ChangeIndex of this MultiFileUnifiedDiff
+     */
+    private ChangeIndex getChangeIndex() {
+        if (changeIndex == null) {
+            changeIndex = new ChangeIndex();
+            for (int i = removedDiffs.nextClearBit(0); i < diffs.size(); i = removedDiffs.nextClearBit(i + 1)) {
+                changeIndex.addDiff(i, diffs.get(i));
             }
         }
+        return changeIndex;
+    }
+
+    /**
+     * Drops the change index of this MultiFileUnifiedDiff, so that it is
+     * built again from the current positions of the changes when it is next
+     * needed.
+     */
+    void invalidateChangeIndex() {
+        changeIndex = null;
+    }
+
+    /**
+     * Drops the change index of this MultiFileUnifiedDiff and of each of its
+     * single-file unified diffs.
+     */
+    void invalidateChangeIndexes() {
+        for (SingleFileUnifiedDiff diff : liveDiffs()) {
+            diff.invalidateChangeIndex();
+        }
+        changeIndex = null;
+    }
+
+    /**
+     * Returns the single-file unified diffs of this MultiFileUnifiedDiff that
+     * have not been removed.
+     *
+     * @return a new List of the non-null diffs of this MultiFileUnifiedDiff
+     */
+    List<SingleFileUnifiedDiff> liveDiffs() {
+        List<SingleFileUnifiedDiff> live = new ArrayList<SingleFileUnifiedDiff>(diffs.size() - removedDiffs.cardinality());
+        for (int i = removedDiffs.nextClearBit(0); i < diffs.size(); i = removedDiffs.nextClearBit(i + 1)) {
+            live.add(diffs.get(i));
+        }
+        return live;
+    }
+
+    /**
+     * Drops the single-file unified diffs, hunks and lines that have been
+     * removed from this MultiFileUnifiedDiff. Afterwards, {@link #numDiffs()},
+     * {@link SingleFileUnifiedDiff#numHunks()} and the indices of the diffs,
+     * hunks and lines only count what remains, and traversals of this
+     * MultiFileUnifiedDiff no longer step over removed slots.
+     */
+    public void compact() {
+        List<SingleFileUnifiedDiff> live = liveDiffs();
+        for (SingleFileUnifiedDiff diff : live) {
+            diff.compact();
+        }
+        diffs = live;
+        removedDiffs.clear();
+        // the indexed positions no longer hold
+        changeIndex = null;
+        if (journal != null) {
+            journal.clear();
+        }
     }
 
     @Override
@@ -319,20 +744,20 @@ public class MultiFileUnifiedDiff implements Patch {
         if (!(obj instanceof MultiFileUnifiedDiff)) return false;
         
         MultiFileUnifiedDiff other = (MultiFileUnifiedDiff) obj;
-        return (diffs.equals(other.diffs));
+        return (liveDiffs().equals(other.liveDiffs()));
     }
     
     @Override
     public int hashCode() {
-        return diffs.hashCode();
+        return liveDiffs().hashCode();
     }
     
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        Iterator<SingleFileUnifiedDiff> diffIter = diffs.iterator();
+        Iterator<SingleFileUnifiedDiff> diffIter = liveDiffs().iterator();
         if (diffIter.hasNext()) {
-            sb.append(diffs.get(0).toString());
+            sb.append(diffIter.next());
         }
         while (diffIter.hasNext()) {
             sb.append(System.lineSeparator());
@@ -340,4 +765,57 @@ public class MultiFileUnifiedDiff implements Patch {
         }
         return sb.toString();
     }
+
+    /**
+     * A ParseTask parses a range of the single-file unified diffs of a patch,
+     * splitting the range in half and forking until it is small enough.
+     */
+    private static class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<List<String>> diffLines;
+        private final ContentPool contentPool;
+        private final SingleFileUnifiedDiff[] parsed;
+        private final RuntimeException[] errors;
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructs a ParseTask that parses the diffs in [start, end).
+         *
+         * @param diffLines the lines of every diff of the patch
+         * @param contentPool the pool that line content is deduplicated
+         *                    with, or null
+         * @param parsed where each parsed diff is stored at its index
+         * @param errors where the error of each diff that could not be
+         *               parsed is stored at its index
+         * @param start the index of the first diff to parse
+         * @param end one past the index of the last diff to parse
+         */
+        ParseTask(List<List<String>> diffLines, ContentPool contentPool, SingleFileUnifiedDiff[] parsed,
+                  RuntimeException[] errors, int start, int end) {
+            this.diffLines = diffLines;
+            this.contentPool = contentPool;
+            this.parsed = parsed;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= PARALLEL_PARSE_THRESHOLD) {
+                for (int i = start; i < end; ++i) {
+                    try {
+                        parsed[i] = new SingleFileUnifiedDiff(diffLines.get(i), false, contentPool);
+                    } catch (RuntimeException e) {
+                        errors[i] = e;
+                    }
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new ParseTask(diffLines, contentPool, parsed, errors, start, mid),
+                        new ParseTask(diffLines, contentPool, parsed, errors, mid, end));
+            }
+        }
+    }
 }
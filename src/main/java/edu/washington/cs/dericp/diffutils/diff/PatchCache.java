@@ -0,0 +1,300 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A PatchCache caches parsed patches by their content, so that a patch
+ * that is asked for again is neither read from its text nor parsed again,
+ * whatever file it is read from.</p>
+ *
+ * <p>Patches are keyed by the SHA-256 digest of their bytes and by their
+ * length, so two different patches are never taken for one another, and the
+ * files of the second tier are named by the same key. Every call to {@link #get(String)} returns a new copy of the cached patch,
+ * so clients may remove changes from the patches they are given without
+ * affecting the cache or each other.</p>
+ *
+ * <p>The cache holds patches up to a budget that is measured in bytes of patch
+ * text, which the size of a parsed patch is proportional to. When the budget
+ * is exceeded, the least recently used patches are evicted. A patch larger
+ * than the whole budget is parsed but not cached.</p>
+ *
+ * <p>A PatchCache may be given a directory as a second tier. Every patch that
+ * is parsed is also written to the directory in the format of
+ * {@link BinaryDiffWriter}, and a patch that is not in memory is loaded from
+ * the directory with {@link BinaryDiffReader} before it is parsed from its
+ * text, so the directory can be shared by several caches and outlives them.
+ * Files in the directory are never evicted by the cache, but a file that
+ * cannot be read, such as one written in an older version of the format, is
+ * deleted and written again from the parsed text.</p>
+ *
+ * <p>A PatchCache is safe for use by multiple threads. Patches are parsed
+ * outside of its lock, so threads that miss on the same patch at once may
+ * each parse it.</p>
+ */
+public class PatchCache {
+    // the patches in the cache, from least to most recently used
+    private final LinkedHashMap<Key, CachedPatch> patches = new LinkedHashMap<Key, CachedPatch>(16, 0.75f, true);
+    // the budget of the cache in bytes of patch text
+    private final long maxBytes;
+    // the directory of the second tier, null if there is none
+    private final Path directory;
+    // the bytes of patch text of the patches in the cache
+    private long bytes;
+    // the number of calls to get that found their patch in memory, and that
+    // did not
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructs an empty PatchCache with the specified budget and no second
+     * tier.
+     *
+     * @param maxBytes the number of bytes of patch text that the cache holds
+     *                 at most
+     */
+    public PatchCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Constructs an empty PatchCache with the specified budget whose second
+     * tier is the specified directory.
+     *
+     * @param maxBytes the number of bytes of patch text that the cache holds
+     *                 at most
+     * @param directory the existing directory that parsed patches are written
+     *                  to, or null if there is no second tier
+     */
+    public PatchCache(long maxBytes, Path directory) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Budget is negative");
+        }
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a copy of the patch at the specified pathname, parsing it as
+     * {@link MultiFileUnifiedDiff#MultiFileUnifiedDiff(String)} does if it is
+     * not cached.
+     *
+     * @param pathname the relative or absolute pathname of the patch
+     * @return a MultiFileUnifiedDiff that is equal to the patch at pathname
+     * @throws IOException if the patch cannot be read
+     */
+    public MultiFileUnifiedDiff get(String pathname) throws IOException {
+        return get(Files.readAllBytes(Paths.get(pathname)));
+    }
+
+    /**
+     * Returns a copy of the patch whose text is the specified bytes, in the
+     * default charset, parsing it if it is not cached.
+     *
+     * @param patch the text of the patch
+     * @return a MultiFileUnifiedDiff that represents patch
+     * @throws IOException if the second tier cannot be read or written
+     */
+    public MultiFileUnifiedDiff get(byte[] patch) throws IOException {
+        Key key = new Key(digest(patch), patch.length);
+        CachedPatch cached;
+        synchronized (this) {
+            cached = patches.get(key);
+            if (cached != null) {
+                ++hits;
+            } else {
+                ++misses;
+            }
+        }
+        if (cached != null) {
+            // cached patches are never changed, and copying a patch only
+            // reads it, so they are copied outside of the lock
+            return new MultiFileUnifiedDiff(cached.patch);
+        }
+        MultiFileUnifiedDiff parsed = load(key, patch);
+        synchronized (this) {
+            if (patch.length <= maxBytes && !patches.containsKey(key)) {
+                patches.put(key, new CachedPatch(parsed, patch.length));
+                bytes += patch.length;
+                Iterator<CachedPatch> eldest = patches.values().iterator();
+                while (bytes > maxBytes) {
+                    bytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return new MultiFileUnifiedDiff(parsed);
+    }
+
+    /**
+     * Returns the number of patches in the memory of this PatchCache.
+     *
+     * @return the number of cached patches
+     */
+    public synchronized int size() {
+        return patches.size();
+    }
+
+    /**
+     * Returns the bytes of patch text of the patches in the memory of this
+     * PatchCache.
+     *
+     * @return the part of the budget that is in use
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of calls to get that found their patch in memory.
+     *
+     * @return the number of hits of this PatchCache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to get that did not find their patch in
+     * memory, and loaded it from the second tier or parsed it.
+     *
+     * @return the number of misses of this PatchCache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Evicts every patch from the memory of this PatchCache. The second tier
+     * is left as it is.
+     */
+    public synchronized void clear() {
+        patches.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Loads the patch with the specified key from the second tier, or parses
+     * it from its text and writes it to the second tier.
+     *
+     * @param key the key of the patch
+     * @param patch the text of the patch
+     * @return the parsed patch
+     * @throws IOException if the second tier cannot be read or written
+     */
+    private MultiFileUnifiedDiff load(Key key, byte[] patch) throws IOException {
+        Path file = directory == null ? null : directory.resolve(key.toString());
+        if (file != null && Files.exists(file)) {
+            try {
+                return new MultiFileUnifiedDiff(new BinaryDiffReader(file));
+            } catch (IOException | RuntimeException e) {
+                // a file in another version of the format, or a damaged one,
+                // is replaced by parsing the patch again
+                Files.deleteIfExists(file);
+            }
+        }
+        MultiFileUnifiedDiff parsed;
+        try (UnifiedDiffReader reader = new UnifiedDiffReader(new ByteArrayInputStream(patch))) {
+            parsed = new MultiFileUnifiedDiff(reader);
+            if (reader.linesRead() == 0) {
+                throw new IllegalArgumentException("SingleFileUnifiedDiff is empty");
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (file != null) {
+            // the file is written under another name and moved into place, so
+            // that no reader ever maps a partly written file
+            Path temp = Files.createTempFile(directory, key.toString(), ".tmp");
+            try {
+                BinaryDiffWriter.write(parsed, temp);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // another cache wrote the same patch first
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the specified bytes.
+     *
+     * @param data the bytes to be digested
+     * @return the 32 bytes of the digest of data
+     */
+    static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // every implementation of the Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A Key identifies a patch by the SHA-256 digest and the length of its
+     * bytes.
+     */
+    private static final class Key {
+        private final byte[] digest;
+        private final int length;
+
+        Key(byte[] digest, int length) {
+            this.digest = digest;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Arrays.equals(digest, other.digest) && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest) * 31 + length;
+        }
+
+        /**
+         * Returns the name of the file of the patch in the second tier.
+         */
+        @Override
+        public String toString() {
+            StringBuilder name = new StringBuilder(2 * digest.length + 16);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append('-').append(length).append(".bin").toString();
+        }
+    }
+
+    /**
+     * A CachedPatch is a parsed patch and the length of its text.
+     */
+    private static final class CachedPatch {
+        private final MultiFileUnifiedDiff patch;
+        private final int length;
+
+        CachedPatch(MultiFileUnifiedDiff patch, int length) {
+            this.patch = patch;
+            this.length = length;
+        }
+    }
+}
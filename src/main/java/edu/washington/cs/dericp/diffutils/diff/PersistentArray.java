@@ -0,0 +1,193 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.util.List;
+
+/**
+ * A PersistentArray is an immutable array of fixed size, each version of
+ * which is derived from another by replacing an element or by shifting the
+ * elements from an index onwards, and shares every part of the other version
+ * that the change does not touch.
+ *
+ * The elements are the leaves of a balanced binary tree, and a change copies
+ * only the nodes on the paths to the leaves that it touches. Every node also
+ * holds a shift that applies to all of the leaves below it, so that shifting
+ * every element from an index onwards copies O(log n) nodes, as recording a
+ * shift in {@link LineNumberOffsets} does. Reading an element, reading its
+ * shift, replacing an element and shifting a suffix each take O(log n) time
+ * for an array of n elements.
+ *
+ * @param <T> the type of the elements
+ */
+final class PersistentArray<T> {
+
+    // the root of the tree, null if the array is empty
+    private final Node<T> root;
+    // the number of elements in the array
+    private final int size;
+
+    /**
+     * Constructs a PersistentArray that holds the specified elements, none of
+     * which are shifted.
+     *
+     * @param elements the elements of the array, which may be null
+     */
+    PersistentArray(List<? extends T> elements) {
+        size = elements.size();
+        root = size == 0 ? null : build(elements, 0, size);
+    }
+
+    /**
+     * Constructs a version of a PersistentArray with the specified root.
+     */
+    private PersistentArray(Node<T> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of elements in this PersistentArray.
+     *
+     * @return the size of this array
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the element at the specified index.
+     *
+     * @param index the zero-based index of an element
+     * @return the element at index
+     */
+    T get(int index) {
+        checkIndex(index);
+        Node<T> node = root;
+        int lo = 0;
+        int hi = size;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (index < mid) {
+                node = node.left;
+                hi = mid;
+            } else {
+                node = node.right;
+                lo = mid;
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the total shift of the element at the specified index.
+     *
+     * @param index the zero-based index of an element
+     * @return the sum of every shift that applies to the element at index
+     */
+    int shift(int index) {
+        checkIndex(index);
+        Node<T> node = root;
+        int shift = node.shift;
+        int lo = 0;
+        int hi = size;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (index < mid) {
+                node = node.left;
+                hi = mid;
+            } else {
+                node = node.right;
+                lo = mid;
+            }
+            shift += node.shift;
+        }
+        return shift;
+    }
+
+    /**
+     * Returns a version of this PersistentArray in which the element at the
+     * specified index is the specified element.
+     *
+     * @param index the zero-based index of the element to be replaced
+     * @param element the new element
+     * @return the new version of this array
+     */
+    PersistentArray<T> set(int index, T element) {
+        checkIndex(index);
+        return new PersistentArray<T>(set(root, 0, size, index, element), size);
+    }
+
+    /**
+     * Returns a version of this PersistentArray in which every element at or
+     * after the specified index is shifted by the specified amount.
+     *
+     * @param fromIndex the zero-based index of the first shifted element
+     * @param change the amount that each element is shifted by
+     * @return the new version of this array, or this array if no element is
+     *         shifted
+     */
+    PersistentArray<T> shiftFrom(int fromIndex, int change) {
+        if (change == 0 || fromIndex >= size) {
+            return this;
+        }
+        return new PersistentArray<T>(shiftFrom(root, 0, size, Math.max(fromIndex, 0), change), size);
+    }
+
+    private static <T> Node<T> build(List<? extends T> elements, int lo, int hi) {
+        if (hi - lo == 1) {
+            return new Node<T>(null, null, elements.get(lo), 0);
+        }
+        int mid = (lo + hi) >>> 1;
+        return new Node<T>(build(elements, lo, mid), build(elements, mid, hi), null, 0);
+    }
+
+    private static <T> Node<T> set(Node<T> node, int lo, int hi, int index, T element) {
+        if (hi - lo == 1) {
+            return new Node<T>(null, null, element, node.shift);
+        }
+        int mid = (lo + hi) >>> 1;
+        if (index < mid) {
+            return new Node<T>(set(node.left, lo, mid, index, element), node.right, null, node.shift);
+        }
+        return new Node<T>(node.left, set(node.right, mid, hi, index, element), null, node.shift);
+    }
+
+    private static <T> Node<T> shiftFrom(Node<T> node, int lo, int hi, int fromIndex, int change) {
+        if (fromIndex <= lo) {
+            // every element below this node is shifted
+            return new Node<T>(node.left, node.right, node.value, node.shift + change);
+        }
+        int mid = (lo + hi) >>> 1;
+        if (fromIndex >= mid) {
+            return new Node<T>(node.left, shiftFrom(node.right, mid, hi, fromIndex, change), null, node.shift);
+        }
+        return new Node<T>(shiftFrom(node.left, lo, mid, fromIndex, change),
+                shiftFrom(node.right, mid, hi, mid, change), null, node.shift);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * A Node is a node of the tree of a PersistentArray, which is never
+     * changed once it is constructed.
+     */
+    private static final class Node<T> {
+        // the children of an internal node, null for a leaf
+        private final Node<T> left;
+        private final Node<T> right;
+        // the element of a leaf, null for an internal node
+        private final T value;
+        // the shift of every leaf below this node
+        private final int shift;
+
+        Node(Node<T> left, Node<T> right, T value, int shift) {
+            this.left = left;
+            this.right = right;
+            this.value = value;
+            this.shift = shift;
+        }
+    }
+}
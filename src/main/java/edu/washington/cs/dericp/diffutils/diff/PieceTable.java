@@ -0,0 +1,326 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>A PieceTable is the revised content of a file that a
+ * {@link SingleFileUnifiedDiff} has been applied to, as an unmodifiable List
+ * of its lines.</p>
+ *
+ * <p>Rather than holding the revised lines, a PieceTable holds a sequence of
+ * pieces, each of which is either a run of lines of the original content or a
+ * run of lines inserted by the diff. Building a PieceTable takes one pass over
+ * the hunks of the diff, and no line of the original content is copied, so
+ * applying a diff costs time proportional to the size of the diff rather than
+ * to the size of the file.</p>
+ *
+ * <p>The lines of a PieceTable are produced when they are read. Iterating
+ * over a PieceTable or writing it with {@link #writeTo(Writer, String)} takes
+ * constant time per line, and {@link #get(int)} takes time logarithmic in the
+ * number of pieces. When the original content is a CharSequence, its lines are
+ * found in one pass when the PieceTable is built, and are only turned into
+ * Strings when they are read.</p>
+ *
+ * <p>A PieceTable reads the original content that it was built from, which must
+ * not be modified while the PieceTable is in use.</p>
+ */
+public class PieceTable extends AbstractList<String> {
+    private static final int DEFAULT_CAPACITY = 8;
+    // the lines of the original content
+    private final List<String> original;
+    // the lines inserted by the diff, in order
+    private final List<String> added = new ArrayList<String>();
+    // the index of the first line of each piece in original, or the bitwise
+    // complement of its index in added if it is a piece of inserted lines
+    private int[] pieceStarts = new int[DEFAULT_CAPACITY];
+    // the number of lines in each piece
+    private int[] pieceLengths = new int[DEFAULT_CAPACITY];
+    // the index in this table of the first line of each piece
+    private int[] pieceOffsets = new int[DEFAULT_CAPACITY];
+    private int numPieces;
+    private int size;
+    // false if the diff leaves the last line without a newline
+    private boolean finalNewline = true;
+
+    /**
+     * Constructs an empty PieceTable whose pieces refer to the specified
+     * original lines.
+     *
+     * @param original the lines of the content that a diff is applied to
+     */
+    PieceTable(List<String> original) {
+        this.original = original;
+    }
+
+    /**
+     * Returns the lines of the specified text as a List that only creates the
+     * String of a line when it is read. A line is terminated by "\n" or
+     * "\r\n", and a terminator at the end of the text does not start another
+     * line.
+     *
+     * @param text the text to be split into lines
+     * @return the lines of text
+     */
+    static List<String> lines(CharSequence text) {
+        return new TextLines(text);
+    }
+
+    /**
+     * Appends a run of lines of the original content to this table, merging it
+     * with the last piece if that piece ends where the run starts.
+     *
+     * @param start the index of the first line in the original content
+     * @param length the number of lines in the run
+     */
+    void copyOriginal(int start, int length) {
+        if (length == 0) {
+            return;
+        }
+        int last = numPieces - 1;
+        if (last >= 0 && pieceStarts[last] >= 0 && pieceStarts[last] + pieceLengths[last] == start) {
+            pieceLengths[last] += length;
+        } else {
+            addPiece(start, length);
+        }
+        size += length;
+    }
+
+    /**
+     * Appends a line inserted by the diff to this table.
+     *
+     * @param line the content of the inserted line
+     */
+    void addLine(String line) {
+        int last = numPieces - 1;
+        if (last >= 0 && pieceStarts[last] < 0 && ~pieceStarts[last] + pieceLengths[last] == added.size()) {
+            ++pieceLengths[last];
+        } else {
+            addPiece(~added.size(), 1);
+        }
+        added.add(line);
+        ++size;
+    }
+
+    /**
+     * Sets whether the last line of this table ends with a newline.
+     *
+     * @param finalNewline false if the diff leaves the revised file without
+     *                     a newline at the end
+     */
+    void setFinalNewline(boolean finalNewline) {
+        this.finalNewline = finalNewline;
+    }
+
+    /**
+     * Returns false if the diff that this table was built from leaves the
+     * revised file without a newline at the end, as a "\\ No newline at end
+     * of file" marker after its last revised line says.
+     *
+     * @return true if the last line of this table ends with a newline
+     */
+    public boolean hasFinalNewline() {
+        return finalNewline;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int piece = Arrays.binarySearch(pieceOffsets, 0, numPieces, index);
+        if (piece < 0) {
+            // the piece that starts before index
+            piece = -piece - 2;
+        }
+        return line(piece, index - pieceOffsets[piece]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of pieces that this table is made of.
+     *
+     * @return the number of runs of original and inserted lines
+     */
+    public int numPieces() {
+        return numPieces;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int piece;
+            private int line;
+
+            @Override
+            public boolean hasNext() {
+                return piece < numPieces;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String next = line(piece, line);
+                if (++line == pieceLengths[piece]) {
+                    ++piece;
+                    line = 0;
+                }
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Writes the lines of this table to the specified Writer, each followed by
+     * the specified line separator, except the last line if this table has
+     * no final newline. Lines of original content that is a
+     * CharSequence are copied without creating a String per line.
+     *
+     * @param out the Writer that the lines are written to
+     * @param lineSeparator the separator written after each line
+     * @throws IOException if the lines cannot be written
+     */
+    public void writeTo(Writer out, String lineSeparator) throws IOException {
+        for (int piece = 0; piece < numPieces; ++piece) {
+            int start = pieceStarts[piece];
+            for (int i = 0; i < pieceLengths[piece]; ++i) {
+                if (start < 0) {
+                    out.write(added.get(~start + i));
+                } else if (original instanceof TextLines) {
+                    ((TextLines) original).writeLine(start + i, out);
+                } else {
+                    out.write(original.get(start + i));
+                }
+                if (finalNewline || pieceOffsets[piece] + i + 1 < size) {
+                    out.write(lineSeparator);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the line at the specified position of the specified piece.
+     *
+     * @param piece the index of a piece
+     * @param line the index of the line within the piece
+     * @return the line
+     */
+    private String line(int piece, int line) {
+        int start = pieceStarts[piece];
+        return start < 0 ? added.get(~start + line) : original.get(start + line);
+    }
+
+    /**
+     * Appends a piece to this table.
+     *
+     * @param start the encoded start of the piece
+     * @param length the number of lines in the piece
+     */
+    private void addPiece(int start, int length) {
+        if (numPieces == pieceStarts.length) {
+            int capacity = numPieces * 2;
+            pieceStarts = Arrays.copyOf(pieceStarts, capacity);
+            pieceLengths = Arrays.copyOf(pieceLengths, capacity);
+            pieceOffsets = Arrays.copyOf(pieceOffsets, capacity);
+        }
+        pieceStarts[numPieces] = start;
+        pieceLengths[numPieces] = length;
+        pieceOffsets[numPieces] = size;
+        ++numPieces;
+    }
+
+    /**
+     * A TextLines is a List of the lines of a CharSequence that holds the
+     * bounds of each line rather than its String.
+     */
+    private static class TextLines extends AbstractList<String> {
+        private final CharSequence text;
+        // the index in text of the first character of each line, followed by
+        // the index after the terminator of the last line
+        private final int[] lineStarts;
+        private final int size;
+
+        /**
+         * Constructs the TextLines of the specified text.
+         *
+         * @param text the text to be split into lines
+         */
+        TextLines(CharSequence text) {
+            this.text = text;
+            int[] starts = new int[DEFAULT_CAPACITY];
+            int count = 0;
+            int start = 0;
+            while (start < text.length()) {
+                if (count + 1 >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                }
+                starts[count++] = start;
+                int end = start;
+                while (end < text.length() && text.charAt(end) != '\n') {
+                    ++end;
+                }
+                start = end + 1;
+            }
+            // one past the terminator of the last line, or one past the end
+            // of the text if the last line has no terminator
+            starts[count] = start;
+            this.lineStarts = starts;
+            this.size = count;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return text.subSequence(lineStarts[index], lineEnd(index)).toString();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Writes the line at the specified index, without its terminator.
+         *
+         * @param index the index of a line
+         * @param out the Writer that the line is written to
+         * @throws IOException if the line cannot be written
+         */
+        void writeLine(int index, Writer out) throws IOException {
+            if (text instanceof String) {
+                out.write((String) text, lineStarts[index], lineEnd(index) - lineStarts[index]);
+            } else {
+                out.append(text, lineStarts[index], lineEnd(index));
+            }
+        }
+
+        /**
+         * Returns the index in text of the end of the line at the specified
+         * index, excluding its terminator.
+         *
+         * @param index the index of a line
+         * @return the end of the line
+         */
+        private int lineEnd(int index) {
+            int end = Math.min(lineStarts[index + 1] - 1, text.length());
+            if (end > lineStarts[index] && text.charAt(end - 1) == '\r') {
+                --end;
+            }
+            return end;
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package edu.washington.cs.dericp.diffutils.diff;
 
+import edu.washington.cs.dericp.diffutils.change.ContentPool;
 import edu.washington.cs.dericp.diffutils.change.LineChange;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
 
 /**
  * This class represents a diff which denotes all changes to a single file.
@@ -27,6 +31,16 @@ import java.util.List;
  *     
  * Note that a UnifiedHunk has its own internal structure. Please see the related
  * documentation at {@link UnifiedHunk}.
+ * 
+ * A SingleFileUnifiedDiff can be constructed lazily, in which case only the
+ * context info, the file paths and the positions of the hunks are read at
+ * construction. Each UnifiedHunk is then constructed the first time it is
+ * accessed through {@link #getHunk(int)} or {@link #getHunks()}.
+ * 
+ * Removed hunks and lines are left as null slots so that the indices of the
+ * other hunks and lines do not change. Once many of them have been removed,
+ * {@link #compact()} drops the null slots, so that traversals only pay for
+ * the hunks and lines that remain.
  */
 public class SingleFileUnifiedDiff {
 
@@ -40,6 +54,29 @@ public class SingleFileUnifiedDiff {
     private String revisedDiffPath;
     // a List of UnifiedHunk objects which compose this SingleFIleUnifiedDiff
     private List<UnifiedHunk> hunks;
+    // the lines of the diff that the unparsed hunks are read from, null once
+    // every hunk has been parsed
+    private List<String> source;
+    // the index in source of the context information line of each hunk
+    private int[] hunkStarts;
+    // the indices of the hunks that have not been parsed yet
+    private BitSet unparsedHunks;
+    // the indices of the hunks that have been removed since this diff was
+    // constructed or last compacted
+    private BitSet removedHunks;
+    // the pool that the content of the unparsed hunks is deduplicated with,
+    // null if content is not pooled
+    private ContentPool pool;
+    // the shifts of the revised line numbers of the hunks of this diff
+    private LineNumberOffsets offsets;
+    // the positions of the changes of this diff, null until a change is
+    // first removed by value
+    private ChangeIndex changeIndex;
+    // the journal that the edits of this diff are recorded in, null if they
+    // are not recorded
+    private EditJournal journal;
+    // the patch that contains this diff, null if it is not part of a patch
+    private MultiFileUnifiedDiff patch;
     
     /**
      * Constructs a new SingleFileUnifiedDiff with the specified diffLines.
@@ -47,30 +84,100 @@ public class SingleFileUnifiedDiff {
      * @param diffLines is a list of the lines of the diff
      */
     public SingleFileUnifiedDiff(List<String> diffLines) {
+        this(diffLines, false);
+    }
+    
+    /**
+     * Constructs a new SingleFileUnifiedDiff with the specified diffLines.
+     * If lazy is true, the hunks of the diff are not parsed until they are
+     * first accessed, and diffLines must not be modified until then.
+     * 
+     * @param diffLines is a list of the lines of the diff
+     * @param lazy is true if the hunks should be parsed when first accessed
+     *        rather than at construction
+     */
+    public SingleFileUnifiedDiff(List<String> diffLines, boolean lazy) {
+        this(diffLines, lazy, null);
+    }
+    
+    /**
+     * Constructs a new SingleFileUnifiedDiff with the specified diffLines,
+     * sharing the content of each hunk line with equal content in the
+     * specified pool. If lazy is true, the hunks of the diff are not parsed
+     * until they are first accessed, and diffLines must not be modified
+     * until then.
+     * 
+     * @param diffLines is a list of the lines of the diff
+     * @param lazy is true if the hunks should be parsed when first accessed
+     *        rather than at construction
+     * @param pool is the ContentPool that the content of each hunk line is
+     *        deduplicated with, or null if content should not be pooled
+     */
+    public SingleFileUnifiedDiff(List<String> diffLines, boolean lazy, ContentPool pool) {
+        this.pool = pool;
         contextInfo = new ArrayList<String>();
         hunks = new ArrayList<UnifiedHunk>();
+        unparsedHunks = new BitSet();
+        removedHunks = new BitSet();
         setContextInfo(diffLines);
         setHunks(diffLines);
+        if (!lazy) {
+            parseHunks();
+        }
+    }
+    
+    /**
+     * Constructs a new SingleFileUnifiedDiff from its already parsed parts.
+     *
+     * @param contextInfo is the list of lines that precede the file paths
+     * @param originalDiffPath is the line that specifies the original file path
+     * @param revisedDiffPath is the line that specifies the revised file path
+     * @param hunks is the list of hunks of the diff, it will be owned by this
+     *        SingleFileUnifiedDiff
+     */
+    SingleFileUnifiedDiff(List<String> contextInfo, String originalDiffPath, String revisedDiffPath,
+                          List<UnifiedHunk> hunks) {
+        this.contextInfo = contextInfo;
+        this.originalDiffPath = originalDiffPath;
+        this.revisedDiffPath = revisedDiffPath;
+        this.hunks = hunks;
+        this.unparsedHunks = new BitSet();
+        this.removedHunks = new BitSet();
+        this.offsets = new LineNumberOffsets(hunks.size());
+        for (int i = 0; i < hunks.size(); ++i) {
+            hunks.get(i).setDiff(this, offsets, i);
+        }
     }
     
     /**
      * Constructs a new SingleFileUnifiedDiff that is a copy of the specified SingleFileUnifiedDiff.
+     * Hunks that the specified SingleFileUnifiedDiff has not parsed yet are
+     * left unparsed in the copy.
      * 
      * @param diff is the SingleFileUnifiedDiff to be copied
      */
     public SingleFileUnifiedDiff(SingleFileUnifiedDiff diff) {
-        contextInfo.clear();
-        for (String info : diff.contextInfo) {
-            contextInfo.add(info);
-        }
+        contextInfo = new ArrayList<String>(diff.contextInfo);
         originalDiffPath = diff.originalDiffPath;
         revisedDiffPath = diff.revisedDiffPath;
+        source = diff.source;
+        hunkStarts = diff.hunkStarts;
+        pool = diff.pool;
+        unparsedHunks = (BitSet) diff.unparsedHunks.clone();
+        removedHunks = (BitSet) diff.removedHunks.clone();
+        offsets = new LineNumberOffsets(diff.offsets);
         hunks = new ArrayList<UnifiedHunk>();
-        for (UnifiedHunk hunk : diff.hunks) {
+        for (int i = 0; i < diff.hunks.size(); ++i) {
+            UnifiedHunk hunk = diff.hunks.get(i);
             if (hunk == null) {
                 hunks.add(null);
             } else {
-                hunks.add(new UnifiedHunk(hunk));
+                // the copy has the shift of the hunk applied, which is
+                // recorded in the copied offsets as well
+                UnifiedHunk copy = new UnifiedHunk(hunk);
+                copy.modifyRevisedLineNumber(-offsets.offset(i));
+                copy.setDiff(this, offsets, i);
+                hunks.add(copy);
             }
         }
     }
@@ -86,6 +193,7 @@ public class SingleFileUnifiedDiff {
     // would be a huge win. However, representation exposure is currently
     // necessary for SingleFileUnifiedDiffs to work with MultiFileUnifiedDiffs
     public List<UnifiedHunk> getHunks() {
+        parseHunks();
         return hunks;
     }
 
@@ -102,6 +210,9 @@ public class SingleFileUnifiedDiff {
      *         null if it has already been removed from this SingleFileUnifiedDiff
      */
     public UnifiedHunk getHunk(int hunkIndex) {
+        if (unparsedHunks.get(hunkIndex)) {
+            parseHunk(hunkIndex);
+        }
         return hunks.get(hunkIndex);
     }
 
@@ -110,7 +221,7 @@ public class SingleFileUnifiedDiff {
      * SingleFileUnifiedPatch. The return value specifies the number
      * of UnifiedHunks that this SingleFileUnifiedPatch was constructed
      * with and is unaffected by the removal of UnifiedHunks from this
-     * SingleFileUnifiedDiff
+     * SingleFileUnifiedDiff, until it is compacted with {@link #compact()}.
      *
      * @return the number of UnifiedHunks that this SingleFileUnifiedDiff
      *         was constructed with
@@ -119,6 +230,17 @@ public class SingleFileUnifiedDiff {
         return hunks.size();
     }
 
+    /**
+     * Returns the lines of this SingleFileUnifiedDiff that precede its file
+     * paths.
+     * 
+     * @return the context info of this SingleFileUnifiedDiff, one String per
+     *         line
+     */
+    List<String> getContextInfo() {
+        return contextInfo;
+    }
+
     /**
      * Sets the context info of this SingleFileUnifiedDiff.
      * 
@@ -139,7 +261,9 @@ public class SingleFileUnifiedDiff {
     }
     
     /**
-     * Sets the hunks of this SingleFileUnifiedDiff.
+     * Sets the hunks of this SingleFileUnifiedDiff. Only the positions of the
+     * hunks in diffLines are recorded, each hunk is parsed by
+     * {@link #parseHunk(int)}.
      * 
      * @param diffLines is a non-null non-empty List of Strings that represents
      *        a diff, one String per line of the diff
@@ -150,32 +274,194 @@ public class SingleFileUnifiedDiff {
         }
         
         hunks.clear();
-        Iterator<String> iter = diffLines.iterator();
-        String line = iter.next();
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < diffLines.size(); ++i) {
+            if (diffLines.get(i).startsWith("@@")) {
+                starts.add(i);
+                hunks.add(null);
+            }
+        }
+        offsets = new LineNumberOffsets(starts.size());
         
-        while (iter.hasNext()) {
-            if (line.startsWith("@@")) {
-                List<String> hunkLines = new ArrayList<String>();
-                hunkLines.add(line);
-                
-                line = iter.next();
-                
-                while (!line.startsWith("@@") && iter.hasNext()) {
-                    hunkLines.add(line);
-                    line = iter.next();
-                }
-                
-                // if last line of SingleFileUnifiedDiff
-                if (!iter.hasNext()) {
-                    hunkLines.add(line);
-                }
-                hunks.add(new UnifiedHunk(hunkLines));
-            } else {
-                line = iter.next();
+        if (!starts.isEmpty()) {
+            source = diffLines;
+            hunkStarts = new int[starts.size()];
+            for (int i = 0; i < hunkStarts.length; ++i) {
+                hunkStarts[i] = starts.get(i);
+            }
+            unparsedHunks.set(0, hunkStarts.length);
+        }
+    }
+    
+    /**
+     * Parses the hunk at the specified index from the lines this
+     * SingleFileUnifiedDiff was constructed with. Each hunk is handed to
+     * {@link UnifiedHunk} as a view of those lines rather than a copy.
+     * 
+     * @param hunkIndex the zero-based index of an unparsed hunk
+     */
+    private void parseHunk(int hunkIndex) {
+        int hunkEnd = hunkIndex + 1 < hunkStarts.length ? hunkStarts[hunkIndex + 1] : source.size();
+        UnifiedHunk hunk = new UnifiedHunk(source.subList(hunkStarts[hunkIndex], hunkEnd), pool);
+        hunk.setDiff(this, offsets, hunkIndex);
+        hunks.set(hunkIndex, hunk);
+        markParsed(hunkIndex);
+    }
+    
+    /**
+     * Records that the hunk at the specified index no longer needs to be
+     * parsed, releasing the lines of the diff once no hunk does.
+     * 
+     * @param hunkIndex the zero-based index of the hunk
+     */
+    private void markParsed(int hunkIndex) {
+        unparsedHunks.clear(hunkIndex);
+        if (unparsedHunks.isEmpty()) {
+            // the lines of the diff are no longer needed
+            source = null;
+            hunkStarts = null;
+            pool = null;
+        }
+    }
+    
+    /**
+     * Parses every hunk of this SingleFileUnifiedDiff that has not been
+     * parsed yet.
+     */
+    private void parseHunks() {
+        for (int i = unparsedHunks.nextSetBit(0); i >= 0; i = unparsedHunks.nextSetBit(i + 1)) {
+            parseHunk(i);
+        }
+    }
+    
+    /**
+     * Removes the hunk at the specified index, leaving the indices of the
+     * other hunks unchanged. The revised line numbers of later hunks are not
+     * shifted.
+     *
+     * @param hunkIndex the zero-based index of the hunk to be removed
+     */
+    void removeHunk(int hunkIndex) {
+        UnifiedHunk removed = hunks.set(hunkIndex, null);
+        removedHunks.set(hunkIndex);
+        markParsed(hunkIndex);
+        if (journal != null && removed != null) {
+            journal.hunkRemoved(this, hunkIndex, removed);
+        }
+    }
+
+    /**
+     * Puts back a hunk that has been removed, to undo its removal. The
+     * revised line numbers of later hunks are not shifted.
+     *
+     * @param hunkIndex the zero-based index of the removed hunk
+     * @param hunk the hunk that was removed
+     */
+    void restoreHunk(int hunkIndex, UnifiedHunk hunk) {
+        hunks.set(hunkIndex, hunk);
+        removedHunks.clear(hunkIndex);
+        // the indexes were built without the changes of the hunk
+        invalidateChangeIndex();
+    }
+
+    /**
+     * Records every later edit of this SingleFileUnifiedDiff and of its hunks
+     * in the specified journal, parsing the hunks that have not been parsed
+     * yet.
+     *
+     * @param journal the EditJournal of the patch that contains this diff
+     */
+    void setJournal(EditJournal journal) {
+        parseHunks();
+        this.journal = journal;
+        for (UnifiedHunk hunk : hunks) {
+            if (hunk != null) {
+                hunk.setJournal(journal);
             }
         }
     }
     
+    /**
+     * Returns the hunks of this SingleFileUnifiedDiff that have not been
+     * removed, parsing any that have not been parsed yet.
+     * 
+     * @return a new List of the non-null hunks of this SingleFileUnifiedDiff
+     */
+    List<UnifiedHunk> liveHunks() {
+        parseHunks();
+        List<UnifiedHunk> live = new ArrayList<UnifiedHunk>(hunks.size() - removedHunks.cardinality());
+        for (int i = removedHunks.nextClearBit(0); i < hunks.size(); i = removedHunks.nextClearBit(i + 1)) {
+            live.add(hunks.get(i));
+        }
+        return live;
+    }
+    
+    /**
+     * Drops the hunks that have been removed from this SingleFileUnifiedDiff
+     * and the lines that have been removed from its hunks. Afterwards,
+     * {@link #numHunks()} and the indices of the hunks and of their lines
+     * only count what remains, and the revised line number of each hunk has
+     * every recorded shift applied.
+     */
+    public void compact() {
+        List<UnifiedHunk> live = new ArrayList<UnifiedHunk>(hunks.size() - removedHunks.cardinality());
+        parseHunks();
+        for (int i = removedHunks.nextClearBit(0); i < hunks.size(); i = removedHunks.nextClearBit(i + 1)) {
+            UnifiedHunk hunk = hunks.get(i);
+            hunk.modifyRevisedLineNumber(offsets.offset(i));
+            hunk.compact();
+            live.add(hunk);
+        }
+        hunks = live;
+        offsets = new LineNumberOffsets(hunks.size());
+        for (int i = 0; i < hunks.size(); ++i) {
+            hunks.get(i).setDiff(this, offsets, i);
+        }
+        removedHunks.clear();
+        // the indexed positions no longer hold, here or in the patch
+        invalidateChangeIndex();
+        if (journal != null) {
+            journal.clear();
+        }
+    }
+    
+    /**
+     * Makes this SingleFileUnifiedDiff part of the specified patch, whose
+     * change index is dropped whenever the changes of this diff move.
+     *
+     * @param patch the MultiFileUnifiedDiff that contains this diff
+     */
+    void setPatch(MultiFileUnifiedDiff patch) {
+        this.patch = patch;
+    }
+
+    /**
+     * Drops the change index of this SingleFileUnifiedDiff and of the patch
+     * that contains it, so that they are built again from the current
+     * positions of the changes when they are next needed.
+     */
+    void invalidateChangeIndex() {
+        changeIndex = null;
+        if (patch != null) {
+            patch.invalidateChangeIndex();
+        }
+    }
+    
+    /**
+     * Shifts the revised line number of every hunk at or after the specified
+     * index by the specified amount, in O(log h) time for a diff of h hunks.
+     * Hunks that have not been parsed yet are shifted once they are parsed.
+     *
+     * @param fromHunkIndex the zero-based index of the first hunk to shift
+     * @param change the amount that each revised line number is changed by
+     */
+    void shiftRevisedLineNumbers(int fromHunkIndex, int change) {
+        offsets.shift(fromHunkIndex, change);
+        if (journal != null) {
+            journal.hunksShifted(this, fromHunkIndex, change);
+        }
+    }
+    
     /**
      * Sets the file paths that specify where the diff should be applied to.
      * 
@@ -184,7 +470,7 @@ public class SingleFileUnifiedDiff {
      */
     public void setFilePaths(String originalRelPath, String revisedRelPath) {
         this.originalDiffPath = "--- a/" + originalRelPath;
-        this.revisedDiffPath = "+++ b/" + originalRelPath;
+        this.revisedDiffPath = "+++ b/" + revisedRelPath;
     }
     
     /**
@@ -208,24 +494,201 @@ public class SingleFileUnifiedDiff {
         return revisedDiffPath;
     }
     
+    /**
+     * Returns a new SingleFileUnifiedDiff that undoes this diff. Every hunk is
+     * reversed with {@link UnifiedHunk#reverse()}, the original and revised
+     * diff paths are swapped, and the lines of context information that
+     * name the two versions of the file, such as the diff --git, index, new
+     * file mode and rename lines, are swapped as well. Hunks that have been
+     * removed from this diff are left out of the reverse, and a diff without
+     * diff paths, such as a git diff that only changes the mode of a file or
+     * a binary file, is reversed without them.
+     *
+     * @return the reverse of this SingleFileUnifiedDiff
+     */
+    public SingleFileUnifiedDiff reverse() {
+        List<UnifiedHunk> live = liveHunks();
+        List<UnifiedHunk> reversedHunks = new ArrayList<UnifiedHunk>(live.size());
+        for (UnifiedHunk hunk : live) {
+            reversedHunks.add(hunk.reverse());
+        }
+        List<String> reversedContextInfo = new ArrayList<String>(contextInfo.size());
+        for (String line : contextInfo) {
+            reversedContextInfo.add(reverseContextLine(line));
+        }
+        // git expects the old mode and the rename source first
+        for (int i = 0; i + 1 < reversedContextInfo.size(); ++i) {
+            String line = reversedContextInfo.get(i);
+            String next = reversedContextInfo.get(i + 1);
+            if ((line.startsWith("new mode ") && next.startsWith("old mode "))
+                    || (line.startsWith("rename to ") && next.startsWith("rename from "))) {
+                reversedContextInfo.set(i, next);
+                reversedContextInfo.set(i + 1, line);
+                ++i;
+            }
+        }
+        return new SingleFileUnifiedDiff(reversedContextInfo, reverseDiffPath("--- ", revisedDiffPath),
+                reverseDiffPath("+++ ", originalDiffPath), reversedHunks);
+    }
+
+    /**
+     * Returns the specified diff path with its marker replaced by the
+     * specified marker and its a/ or b/ prefix swapped.
+     *
+     * @param marker the marker of the reversed path, "--- " or "+++ "
+     * @param diffPath a diff path of this diff, or null if it has none
+     * @return the reversed diff path, or null if diffPath is null
+     */
+    private static String reverseDiffPath(String marker, String diffPath) {
+        return diffPath == null ? null : marker + swapPrefix(diffPath.substring(4));
+    }
+
+    /**
+     * Returns the reverse of a line of context information, which names the
+     * original and revised versions of the file the other way around.
+     *
+     * @param line a line of the context information of a diff
+     * @return the line with its original and revised versions swapped
+     */
+    private static String reverseContextLine(String line) {
+        if (line.startsWith("diff --git a/")) {
+            int split = line.lastIndexOf(" b/");
+            if (split != -1) {
+                return "diff --git a/" + line.substring(split + 3) + " b/"
+                        + line.substring("diff --git a/".length(), split);
+            }
+        } else if (line.startsWith("index ")) {
+            int dots = line.indexOf("..");
+            if (dots != -1) {
+                int end = line.indexOf(' ', dots);
+                if (end == -1) {
+                    end = line.length();
+                }
+                return "index " + line.substring(dots + 2, end) + ".." + line.substring(6, dots) + line.substring(end);
+            }
+        } else if (line.startsWith("new file mode ")) {
+            return "deleted file mode " + line.substring("new file mode ".length());
+        } else if (line.startsWith("deleted file mode ")) {
+            return "new file mode " + line.substring("deleted file mode ".length());
+        } else if (line.startsWith("old mode ")) {
+            return "new mode " + line.substring("old mode ".length());
+        } else if (line.startsWith("new mode ")) {
+            return "old mode " + line.substring("new mode ".length());
+        } else if (line.startsWith("rename from ")) {
+            return "rename to " + line.substring("rename from ".length());
+        } else if (line.startsWith("rename to ")) {
+            return "rename from " + line.substring("rename to ".length());
+        }
+        return line;
+    }
+
+    /**
+     * Swaps the a/ or b/ prefix of a diff path, so that the path names the
+     * same file once it is on the other side of the diff.
+     *
+     * @param path a diff path without its --- or +++ marker
+     * @return the path with an a/ prefix turned into b/ and the other way
+     *         around, or the path itself if it has neither
+     */
+    private static String swapPrefix(String path) {
+        if (path.startsWith("a/")) {
+            return "b/" + path.substring(2);
+        } else if (path.startsWith("b/")) {
+            return "a/" + path.substring(2);
+        }
+        return path;
+    }
+
     /**
      * Returns this SingleFileUnifiedDiff as a List of Strings.
      * 
      * @return a List of Strings, one String per line of this diff
      */
     public List<String> diffToLines() {
+        parseHunks();
         List<String> diff = new ArrayList<String>();
         diff.addAll(contextInfo);
-        diff.add(originalDiffPath);
-        diff.add(revisedDiffPath);
-        for (UnifiedHunk hunk : hunks) {
-            if (hunk != null) {
-                diff.addAll(hunk.hunkToLines());
-            }
+        if (originalDiffPath != null) {
+            diff.add(originalDiffPath);
+        }
+        if (revisedDiffPath != null) {
+            diff.add(revisedDiffPath);
+        }
+        for (UnifiedHunk hunk : liveHunks()) {
+            diff.addAll(hunk.hunkToLines());
         }
         return diff;
     }
 
+    /**
+     * Applies this SingleFileUnifiedDiff to the specified lines of its original
+     * file, and returns the lines of the revised file. The context and deleted
+     * lines of each hunk must match the original lines exactly at the original
+     * line number of the hunk.
+     * 
+     * The revised lines are returned as a {@link PieceTable} that is built in
+     * one pass over the hunks of this diff and refers to the original lines
+     * rather than copying them, so original must not be modified while the
+     * result is in use. The result has no final newline if the last hunk
+     * leaves the revised file without one, see
+     * {@link PieceTable#hasFinalNewline()}.
+     * 
+     * @param original the lines of the original file
+     * @return the lines of the revised file
+     * @throws IllegalArgumentException if a hunk of this diff does not match
+     *         original
+     */
+    public PieceTable apply(List<String> original) {
+        PieceTable revised = new PieceTable(original);
+        // the index of the first original line that has not been added to revised
+        int cursor = 0;
+        for (UnifiedHunk hunk : liveHunks()) {
+            int start = hunk.getOriginalStart();
+            if (start < cursor || start + hunk.getOriginalHunkSize() > original.size()) {
+                throw new IllegalArgumentException("Hunk does not apply at line " + hunk.getOriginalLineNumber());
+            }
+            revised.copyOriginal(cursor, start - cursor);
+            cursor = start;
+            if (hunk.isRevisedNoNewline() || hunk.isOriginalNoNewline()) {
+                revised.setFinalNewline(!hunk.isRevisedNoNewline());
+            }
+            for (LineChange change : hunk.getHunkLines()) {
+                if (change == null) {
+                    continue;
+                }
+                if (change.getType() == LineChange.Type.INSERTION) {
+                    revised.addLine(change.getContent());
+                    continue;
+                }
+                if (cursor >= original.size() || !original.get(cursor).equals(change.getContent())) {
+                    throw new IllegalArgumentException("Hunk does not apply at line " + (cursor + 1));
+                }
+                if (change.getType() == LineChange.Type.CONTEXT) {
+                    revised.copyOriginal(cursor, 1);
+                }
+                ++cursor;
+            }
+        }
+        revised.copyOriginal(cursor, original.size() - cursor);
+        return revised;
+    }
+    
+    /**
+     * Applies this SingleFileUnifiedDiff to the specified content of its
+     * original file, and returns the lines of the revised file. The content is
+     * split into lines at "\n" and "\r\n" in one pass, and the String of an
+     * original line is only created when it is compared with a hunk or read
+     * from the result. See {@link #apply(List)}.
+     * 
+     * @param original the content of the original file
+     * @return the lines of the revised file
+     * @throws IllegalArgumentException if a hunk of this diff does not match
+     *         original
+     */
+    public PieceTable apply(CharSequence original) {
+        return apply(PieceTable.lines(original));
+    }
+    
     /**
      * Removes a change from this SingleFileUnifiedDiff. Conceptually, all the
      * LineChanges represented by this SingleFileUnifiedDiff with the same
@@ -238,11 +701,52 @@ public class SingleFileUnifiedDiff {
      * SingleFileUnifiedDiff representing the insertion of two lines,
      * {two, three}.
      *
+     * The change is found with an index of the changes of this diff that is
+     * built on the first call, so each call takes time proportional to the
+     * number of occurrences of the change rather than to the size of the diff.
+     * The index is dropped whenever a line of this diff becomes a change, is
+     * replaced or moves, or a removed hunk is put back, and is built again on
+     * the next call.
+     *
      * @param change the change to be removed
      */
     public void removeChange(LineChange change) {
-        for (UnifiedHunk hunk : hunks) {
-            hunk.removeChange(change);
+        if (changeIndex == null) {
+            changeIndex = new ChangeIndex();
+            changeIndex.addDiff(-1, this);
+        }
+        for (ChangeIndex.Location location : changeIndex.get(change)) {
+            if (location.hunkIndex >= hunks.size()) {
+                continue;
+            }
+            UnifiedHunk hunk = getHunk(location.hunkIndex);
+            if (hunk != null && hunk.hasLine(location.lineIndex, change)) {
+                hunk.removeLine(location.lineIndex);
+            }
+        }
+    }
+    
+    /**
+     * Removes every change from this SingleFileUnifiedDiff that does not
+     * satisfy the specified predicate in a single pass over its hunks, and
+     * shifts the revised line numbers of later hunks once per modified hunk.
+     *
+     * @param filter the predicate that each change to be kept satisfies
+     */
+    void retainChanges(Predicate<? super LineChange> filter) {
+        for (int j = removedHunks.nextClearBit(0); j < numHunks(); j = removedHunks.nextClearBit(j + 1)) {
+            UnifiedHunk hunk = getHunk(j);
+            List<LineChange> hunkLines = hunk.getHunkLines();
+            int shift = 0;
+            for (int k = 0; k < hunkLines.size(); ++k) {
+                LineChange change = hunkLines.get(k);
+                if (change != null && change.getType() != LineChange.Type.CONTEXT && !filter.test(change)) {
+                    shift -= hunk.removeLine(k);
+                }
+            }
+            if (shift != 0) {
+                shiftRevisedLineNumbers(j + 1, shift);
+            }
         }
     }
     
@@ -253,31 +757,30 @@ public class SingleFileUnifiedDiff {
         
         SingleFileUnifiedDiff other = (SingleFileUnifiedDiff) obj;
         return contextInfo.equals(other.contextInfo) &&
-                originalDiffPath.equals(other.originalDiffPath) &&
-                revisedDiffPath.equals(other.revisedDiffPath) &&
-                hunks.equals(other.hunks);
+                Objects.equals(originalDiffPath, other.originalDiffPath) &&
+                Objects.equals(revisedDiffPath, other.revisedDiffPath) &&
+                liveHunks().equals(other.liveHunks());
     }
     
     @Override
     public int hashCode() {
-        return contextInfo.hashCode() * originalDiffPath.hashCode()
-                * revisedDiffPath.hashCode() * hunks.hashCode();
+        return contextInfo.hashCode() * Objects.hashCode(originalDiffPath)
+                * Objects.hashCode(revisedDiffPath) * liveHunks().hashCode();
     }
     
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        for (String line : contextInfo) {
-            sb.append(line);
-            sb.append(System.lineSeparator());
+        List<String> lines = new ArrayList<String>(contextInfo);
+        // a diff that only changes the mode of a file has no paths
+        if (originalDiffPath != null) {
+            lines.add(originalDiffPath);
         }
-        sb.append(originalDiffPath);
-        sb.append(System.lineSeparator());
-        sb.append(revisedDiffPath);
-        for (UnifiedHunk hunk : hunks) {
-            sb.append(System.lineSeparator());
-            sb.append(hunk.toString());
+        if (revisedDiffPath != null) {
+            lines.add(revisedDiffPath);
+        }
+        for (UnifiedHunk hunk : liveHunks()) {
+            lines.add(hunk.toString());
         }
-        return sb.toString();
+        return String.join(System.lineSeparator(), lines);
     }
 }
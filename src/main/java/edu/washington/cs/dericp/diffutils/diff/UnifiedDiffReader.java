@@ -0,0 +1,231 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.ContentPool;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>A UnifiedDiffReader reads a multi-file unified diff from a character
+ * stream and returns the {@link SingleFileUnifiedDiff}s that it contains one
+ * at a time.</p>
+ *
+ * <p>Only the lines of the single-file unified diff that is currently being
+ * read are held in memory, so reading a patch with a UnifiedDiffReader
+ * requires memory proportional to its largest single-file unified diff
+ * rather than to the whole patch.</p>
+ *
+ * <p>A UnifiedDiffReader can read the hunks of each SingleFileUnifiedDiff
+ * lazily with {@link #setLazyHunks(boolean)}, in which case the lines of a
+ * single-file unified diff are kept until its hunks are first accessed.</p>
+ *
+ * <p>A UnifiedDiffReader can be consumed either as an Iterator or as a
+ * Stream with {@link #stream()}. Since an Iterator cannot throw checked
+ * exceptions, an IOException that occurs while reading is rethrown as an
+ * UncheckedIOException.</p>
+ */
+public class UnifiedDiffReader implements Iterator<SingleFileUnifiedDiff>, Closeable {
+    // the prefix of the line that starts a new single file unified diff,
+    // this matches the split used by MultiFileUnifiedDiff
+    private static final String DIFF_SPLIT = "diff";
+    private final BufferedReader reader;
+    // the line that was read but not yet consumed, null if there is none
+    private String nextLine;
+    // the number of lines that have been read so far
+    private int linesRead;
+    // true once the end of the underlying stream has been reached
+    private boolean finished;
+    // true if the hunks of each diff are parsed when first accessed
+    private boolean lazyHunks;
+    // the pool that the content of hunk lines is deduplicated with, or null
+    private ContentPool contentPool;
+
+    /**
+     * Constructs a UnifiedDiffReader that reads a patch from the specified
+     * Reader.
+     *
+     * @param reader the Reader that the patch will be read from
+     */
+    public UnifiedDiffReader(Reader reader) {
+        if (reader instanceof BufferedReader) {
+            this.reader = (BufferedReader) reader;
+        } else {
+            this.reader = new BufferedReader(reader);
+        }
+    }
+
+    /**
+     * Constructs a UnifiedDiffReader that reads a patch from the specified
+     * InputStream using the specified charset.
+     *
+     * @param in the InputStream that the patch will be read from
+     * @param charset the charset that the patch is encoded with
+     */
+    public UnifiedDiffReader(InputStream in, Charset charset) {
+        this(new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Constructs a UnifiedDiffReader that reads a patch from the specified
+     * InputStream using the default charset, as {@link
+     * edu.washington.cs.dericp.diffutils.Utils#readFile(String)} does.
+     *
+     * @param in the InputStream that the patch will be read from
+     */
+    public UnifiedDiffReader(InputStream in) {
+        this(in, Charset.defaultCharset());
+    }
+
+    /**
+     * Constructs a UnifiedDiffReader that reads the patch at the specified
+     * path using the default charset.
+     *
+     * @param path the path of the patch to be read
+     * @throws IOException if the file at path cannot be opened
+     */
+    public UnifiedDiffReader(Path path) throws IOException {
+        this(Files.newInputStream(path));
+    }
+
+    /**
+     * Returns true if there is another single-file unified diff to be read.
+     *
+     * @return true if a call to {@link #next()} will return a
+     *         SingleFileUnifiedDiff
+     * @throws UncheckedIOException if the patch cannot be read
+     */
+    @Override
+    public boolean hasNext() {
+        // skip anything before the start of the next single file unified diff
+        while (nextLine == null || !nextLine.startsWith(DIFF_SPLIT)) {
+            nextLine = readLine();
+            if (nextLine == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next single-file unified diff of the patch.
+     *
+     * @return the next SingleFileUnifiedDiff of the patch
+     * @throws NoSuchElementException if there are no more single-file
+     *                                unified diffs to read
+     * @throws UncheckedIOException if the patch cannot be read
+     */
+    @Override
+    public SingleFileUnifiedDiff next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more diffs in the patch");
+        }
+        List<String> diffLines = new ArrayList<String>();
+        diffLines.add(nextLine);
+        nextLine = readLine();
+        while (nextLine != null && !nextLine.startsWith(DIFF_SPLIT)) {
+            diffLines.add(nextLine);
+            nextLine = readLine();
+        }
+        return new SingleFileUnifiedDiff(diffLines, lazyHunks, contentPool);
+    }
+
+    /**
+     * Sets whether the hunks of the SingleFileUnifiedDiffs returned by
+     * {@link #next()} are parsed when first accessed rather than when the
+     * diff is read.
+     *
+     * @param lazyHunks true if hunks should be parsed when first accessed
+     */
+    public void setLazyHunks(boolean lazyHunks) {
+        this.lazyHunks = lazyHunks;
+    }
+
+    /**
+     * Sets the ContentPool that the content of the hunk lines of every
+     * SingleFileUnifiedDiff returned by {@link #next()} is deduplicated with,
+     * so that equal content is shared across the whole patch.
+     *
+     * @param contentPool the pool to deduplicate content with, or null if
+     *                    content should not be pooled
+     */
+    public void setContentPool(ContentPool contentPool) {
+        this.contentPool = contentPool;
+    }
+
+    /**
+     * Returns a sequential Stream of the single-file unified diffs that
+     * remain to be read. Closing the returned Stream closes this
+     * UnifiedDiffReader.
+     *
+     * @return a Stream of the remaining SingleFileUnifiedDiffs of the patch
+     */
+    public Stream<SingleFileUnifiedDiff> stream() {
+        Spliterator<SingleFileUnifiedDiff> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of lines of the patch that have been read so far.
+     *
+     * @return the number of lines read
+     */
+    int linesRead() {
+        return linesRead;
+    }
+
+    /**
+     * Closes the underlying stream of this UnifiedDiffReader.
+     *
+     * @throws IOException if the underlying stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Reads the next line of the patch.
+     *
+     * @return the next line of the patch, null if the end of the patch has
+     *         been reached
+     */
+    private String readLine() {
+        if (finished) {
+            return null;
+        }
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                finished = true;
+            } else {
+                ++linesRead;
+            }
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package edu.washington.cs.dericp.diffutils.diff;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>A UnifiedDiffWriter writes multi-file unified diffs, single-file unified
+ * diffs and unified hunks to a character stream, an OutputStream or a
+ * channel.</p>
+ *
+ * <p>A UnifiedDiffWriter writes straight from the in-memory model of a patch.
+ * No List of the lines of the patch is built, and the content of each hunk
+ * line is copied from its {@link LineChangeStore} into the buffer of the
+ * writer, so writing a patch requires a fixed amount of memory regardless of
+ * its size.</p>
+ *
+ * <p>The lines written are those returned by
+ * {@link MultiFileUnifiedDiff#getPatchLines()}, separated by the line
+ * separator of the platform, with no separator after the last line, as
+ * {@link edu.washington.cs.dericp.diffutils.Utils#writeFile(java.util.List, String)}
+ * writes them. A UnifiedDiffWriter can compress its output with gzip.</p>
+ */
+public class UnifiedDiffWriter implements Closeable, Flushable {
+    // the size in chars of the buffer that lines are written to
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final Writer writer;
+    private final String lineSeparator = System.lineSeparator();
+    // true until the first line has been written
+    private boolean firstLine = true;
+
+    /**
+     * Constructs a UnifiedDiffWriter that writes to the specified Writer.
+     *
+     * @param writer the Writer that patches will be written to
+     */
+    public UnifiedDiffWriter(Writer writer) {
+        if (writer instanceof BufferedWriter) {
+            this.writer = writer;
+        } else {
+            this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Constructs a UnifiedDiffWriter that writes to the specified
+     * OutputStream using the specified charset.
+     *
+     * @param out the OutputStream that patches will be written to
+     * @param charset the charset that patches are encoded with
+     */
+    public UnifiedDiffWriter(OutputStream out, Charset charset) {
+        this(new OutputStreamWriter(out, charset));
+    }
+
+    /**
+     * Constructs a UnifiedDiffWriter that writes to the specified
+     * OutputStream using the specified charset, compressing its output with
+     * gzip if gzip is true.
+     *
+     * @param out the OutputStream that patches will be written to
+     * @param charset the charset that patches are encoded with
+     * @param gzip true if the output should be compressed with gzip
+     * @throws IOException if the gzip header cannot be written
+     */
+    public UnifiedDiffWriter(OutputStream out, Charset charset, boolean gzip) throws IOException {
+        this(gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out, charset);
+    }
+
+    /**
+     * Constructs a UnifiedDiffWriter that writes to the specified channel
+     * using the specified charset, compressing its output with gzip if gzip
+     * is true.
+     *
+     * @param channel the channel that patches will be written to
+     * @param charset the charset that patches are encoded with
+     * @param gzip true if the output should be compressed with gzip
+     * @throws IOException if the gzip header cannot be written
+     */
+    public UnifiedDiffWriter(WritableByteChannel channel, Charset charset, boolean gzip) throws IOException {
+        this(Channels.newOutputStream(channel), charset, gzip);
+    }
+
+    /**
+     * Constructs a UnifiedDiffWriter that writes to the file at the specified
+     * path using the default charset, as
+     * {@link edu.washington.cs.dericp.diffutils.Utils#writeFile(java.util.List, String)}
+     * does. The file is created if it does not exist and truncated if it does.
+     *
+     * @param path the path of the file that patches will be written to
+     * @throws IOException if the file cannot be opened for writing
+     */
+    public UnifiedDiffWriter(Path path) throws IOException {
+        this(Files.newOutputStream(path), Charset.defaultCharset());
+    }
+
+    /**
+     * Writes the lines of the specified MultiFileUnifiedDiff.
+     *
+     * @param patch the MultiFileUnifiedDiff to be written
+     * @throws IOException if the patch cannot be written
+     */
+    public void write(MultiFileUnifiedDiff patch) throws IOException {
+        for (SingleFileUnifiedDiff diff : patch.liveDiffs()) {
+            write(diff);
+        }
+    }
+
+    /**
+     * Writes the lines of the specified SingleFileUnifiedDiff.
+     *
+     * @param diff the SingleFileUnifiedDiff to be written
+     * @throws IOException if the diff cannot be written
+     */
+    public void write(SingleFileUnifiedDiff diff) throws IOException {
+        for (String line : diff.getContextInfo()) {
+            writeLine(line);
+        }
+        // a diff that only changes the mode of a file has no diff paths
+        if (diff.getOriginalDiffPath() != null) {
+            writeLine(diff.getOriginalDiffPath());
+        }
+        if (diff.getRevisedDiffPath() != null) {
+            writeLine(diff.getRevisedDiffPath());
+        }
+        for (UnifiedHunk hunk : diff.liveHunks()) {
+            write(hunk);
+        }
+    }
+
+    /**
+     * Writes the lines of the specified UnifiedHunk.
+     *
+     * @param hunk the UnifiedHunk to be written
+     * @throws IOException if the hunk cannot be written
+     */
+    public void write(UnifiedHunk hunk) throws IOException {
+        writeLine(hunk.getContextInfo());
+        LineChangeStore hunkLines = hunk.getLineStore();
+        int marker = hunk.noNewlineMarkerAfter(-1);
+        for (int i = 0; i < hunkLines.size(); ++i) {
+            if (hunkLines.isRemoved(i)) {
+                continue;
+            }
+            startLine();
+            LineChange.Type type = hunkLines.getType(i);
+            if (type == LineChange.Type.INSERTION) {
+                writer.write('+');
+            } else if (type == LineChange.Type.DELETION) {
+                writer.write('-');
+            } else {
+                writer.write(' ');
+            }
+            hunkLines.writeContent(i, writer);
+            if (i == marker) {
+                writeLine(UnifiedHunk.NO_NEWLINE_MARKER);
+                marker = hunk.noNewlineMarkerAfter(i);
+            }
+        }
+    }
+
+    /**
+     * Writes a line, preceded by a line separator unless it is the first line.
+     *
+     * @param line the line to be written
+     * @throws IOException if the line cannot be written
+     */
+    private void writeLine(String line) throws IOException {
+        startLine();
+        writer.write(line);
+    }
+
+    /**
+     * Writes the line separator that precedes every line but the first.
+     *
+     * @throws IOException if the separator cannot be written
+     */
+    private void startLine() throws IOException {
+        if (firstLine) {
+            firstLine = false;
+        } else {
+            writer.write(lineSeparator);
+        }
+    }
+
+    /**
+     * Writes any buffered output to the underlying stream. Output compressed
+     * with gzip is only complete once this UnifiedDiffWriter is closed.
+     *
+     * @throws IOException if the buffered output cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Flushes and closes this UnifiedDiffWriter and the stream that it writes
+     * to, finishing the gzip output if it is compressed.
+     *
+     * @throws IOException if the output cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,10 +1,15 @@
 package edu.washington.cs.dericp.diffutils.diff;
 
+import edu.washington.cs.dericp.diffutils.change.ContentPool;
 import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.change.LineChangeStore;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.function.IntFunction;
 
 /**
  * <p>A UnifiedHunk represents a unified hunk in a unified diff.</p>
@@ -16,25 +21,49 @@ import java.util.Scanner;
  * <p>Hunks are the components of a unified diff and can be grouped together in
  * addition to the context information of a diff to denote all the changes
  * to a single file.</p>
+ *
+ * <p>The lines of a UnifiedHunk are held in a columnar {@link LineChangeStore}
+ * rather than as individual LineChange objects.</p>
  */
 public class UnifiedHunk {
 
-    // TODO make this a parameter for the construction of a hunk
+    // the default number of context lines around the changes of a hunk, the
+    // diff engines in the algorithm package take the context size as a parameter
     public static final int CONTEXT_SIZE = 3;
+    // the line that follows the last line of a file that does not end with a
+    // newline
+    public static final String NO_NEWLINE_MARKER = "\\ No newline at end of file";
     // all the lines exclusive of the CONTEXT_SIZE lines at the beginning
     // and end of the hunk
-    private List<LineChange> hunkLines;
+    private LineChangeStore hunkLines;
     // where the hunk starts in the original file
     private int originalLineNumber;
     // the size of the hunk in the original file
     private int originalHunkSize;
-    // where the hunk starts in the revised file
+    // where the hunk starts in the revised file, before the shift recorded
+    // for this hunk in offsets
     private int revisedLineNumber;
+    // the shifts of the revised line numbers of the diff that contains this
+    // hunk, null if this hunk is not part of a diff
+    private LineNumberOffsets offsets;
+    // the index of this hunk in offsets
+    private int hunkIndex;
     // the size of the hunk in the revised file
     private int revisedHunkSize;
     // the context information of a hunk that sits in-line next to the
     // hunk size and line number information
     private String filenameInfo;
+    // true if the last line of the hunk in the original or the revised file
+    // is the last line of that file and does not end with a newline
+    private boolean originalNoNewline;
+    private boolean revisedNoNewline;
+    // the journal that the edits of this hunk are recorded in, null if they
+    // are not recorded
+    private EditJournal journal;
+    // the diff that contains this hunk, null if it is not part of a diff
+    private SingleFileUnifiedDiff diff;
+    // the log that the store of this hunk reports changes to its lines to
+    private final LineChangeStore.TypeLog lineLog = new LineLog();
     
     /**
      * Constructs a new UnifiedHunk with the specified hunk lines.
@@ -43,28 +72,93 @@ public class UnifiedHunk {
      *        original lines of the hunk
      */
     public UnifiedHunk(List<String> originalHunkLines) {
+        this(originalHunkLines, null);
+    }
+    
+    /**
+     * Constructs a new UnifiedHunk with the specified hunk lines, sharing the
+     * content of each line with equal content in the specified pool. A
+     * "\\ No newline at end of file" marker is not a line of either file, so
+     * it is left out of the lines of the hunk, and recorded for the side of
+     * the line before it instead.
+     * 
+     * @param originalHunkLines is a List of Strings that represents the
+     *        original lines of the hunk
+     * @param pool is the ContentPool that the content of each line is
+     *        deduplicated with, or null if content should not be pooled
+     */
+    public UnifiedHunk(List<String> originalHunkLines, ContentPool pool) {
         setContextInfo(originalHunkLines.get(0));
-        hunkLines = new ArrayList<LineChange>();
-        int currentOriginalLineNum = originalLineNumber;
-        int currentRevisedLineNum = revisedLineNumber;
+        if (pool == null) {
+            hunkLines = new LineChangeStore(originalLineNumber, revisedLineNumber);
+        } else {
+            hunkLines = new LineChangeStore(pool, originalLineNumber, revisedLineNumber);
+        }
         // starting at i = 1 to skipe the line number and hunk size information
+        LineChange.Type previous = null;
         for (int i = 1; i < originalHunkLines.size(); ++i) {
             String line = originalHunkLines.get(i);
-            LineChange.Type lineType = getType(line);
-            if (lineType == LineChange.Type.INSERTION) {
-                hunkLines.add(new LineChange(line.substring(1), -1, currentRevisedLineNum, getType(line)));
-                currentRevisedLineNum++;
-            } else if (lineType == LineChange.Type.DELETION) {
-                hunkLines.add(new LineChange(line.substring(1), currentOriginalLineNum, -1, getType(line)));
-                currentOriginalLineNum++;
+            // a "\ No newline at end of file" marker is not a line of the file
+            if (line.startsWith("\\")) {
+                markNoNewline(previous);
             } else {
-                hunkLines.add(new LineChange(line.substring(1), currentOriginalLineNum, currentRevisedLineNum, getType(line)));
-                currentOriginalLineNum++;
-                currentRevisedLineNum++;
+                previous = getType(line);
+                hunkLines.append(previous, line, 1, line.length());
             }
         }
+        hunkLines.trimToSize();
     }
     
+    /**
+     * Constructs a new UnifiedHunk with the specified context information and
+     * no lines. The content of the lines that will be appended to the
+     * hunk is held encoded in the specified buffer.
+     *
+     * @param contextInfo is the line of hunk context information that
+     *        precedes the lines of this hunk
+     * @param buffer is the buffer that holds the encoded content of the lines
+     * @param charset is the charset that the content is encoded with
+     */
+    UnifiedHunk(String contextInfo, ByteBuffer buffer, Charset charset) {
+        setContextInfo(contextInfo);
+        hunkLines = new LineChangeStore(buffer, charset, originalLineNumber, revisedLineNumber);
+    }
+
+    /**
+     * Constructs a new UnifiedHunk with the specified line numbers, sizes and
+     * filename information and no lines, without parsing a line of context
+     * information. The content of the lines that will be appended to the
+     * hunk is held encoded in the specified buffer.
+     *
+     * @param originalLineNumber is where the hunk starts in the original file
+     * @param originalHunkSize is the size of the hunk in the original file
+     * @param revisedLineNumber is where the hunk starts in the revised file
+     * @param revisedHunkSize is the size of the hunk in the revised file
+     * @param filenameInfo is the context information that follows the line
+     *        numbers and sizes of the hunk
+     * @param buffer is the buffer that holds the encoded content of the lines
+     * @param charset is the charset that the content is encoded with
+     */
+    UnifiedHunk(int originalLineNumber, int originalHunkSize, int revisedLineNumber, int revisedHunkSize,
+                String filenameInfo, ByteBuffer buffer, Charset charset) {
+        this.originalLineNumber = originalLineNumber;
+        this.originalHunkSize = originalHunkSize;
+        this.revisedLineNumber = revisedLineNumber;
+        this.revisedHunkSize = revisedHunkSize;
+        this.filenameInfo = filenameInfo;
+        hunkLines = new LineChangeStore(buffer, charset, originalLineNumber, revisedLineNumber);
+    }
+
+    /**
+     * Returns the store that holds the lines of this UnifiedHunk, so that
+     * lines can be appended to it while the hunk is read.
+     *
+     * @return the LineChangeStore of this UnifiedHunk
+     */
+    LineChangeStore getLineStore() {
+        return hunkLines;
+    }
+
     /**
      * Constructs a UnifiedHunk that is a copy of the specified UnifiedHunk.
      * 
@@ -73,13 +167,43 @@ public class UnifiedHunk {
     public UnifiedHunk(UnifiedHunk hunk) {
         originalLineNumber = hunk.originalLineNumber;
         originalHunkSize = hunk.originalHunkSize;
-        revisedLineNumber = hunk.revisedLineNumber;
+        revisedLineNumber = hunk.getRevisedLineNumber();
         revisedHunkSize = hunk.revisedHunkSize;
-        hunkLines = new ArrayList<LineChange>();
-        hunkLines.addAll(hunk.hunkLines);
+        hunkLines = new LineChangeStore(hunk.hunkLines);
         filenameInfo = hunk.filenameInfo;
+        originalNoNewline = hunk.originalNoNewline;
+        revisedNoNewline = hunk.revisedNoNewline;
     }
     
+    /**
+     * Returns a new UnifiedHunk that undoes this UnifiedHunk: its insertions
+     * are deletions and its deletions are insertions, and its original and
+     * revised line numbers and sizes are swapped. Lines that have been removed
+     * from this hunk are left out of the reverse. The content of the lines is
+     * shared with this hunk, and the reverse is built in one pass over its
+     * lines.
+     *
+     * @return the reverse of this UnifiedHunk
+     */
+    public UnifiedHunk reverse() {
+        UnifiedHunk reverse = new UnifiedHunk();
+        reverse.originalLineNumber = getRevisedLineNumber();
+        reverse.originalHunkSize = revisedHunkSize;
+        reverse.revisedLineNumber = originalLineNumber;
+        reverse.revisedHunkSize = originalHunkSize;
+        reverse.filenameInfo = filenameInfo;
+        reverse.originalNoNewline = revisedNoNewline;
+        reverse.revisedNoNewline = originalNoNewline;
+        reverse.hunkLines = hunkLines.reverse(reverse.originalLineNumber, reverse.revisedLineNumber);
+        return reverse;
+    }
+
+    /**
+     * Constructs a UnifiedHunk whose fields are all set by the caller.
+     */
+    private UnifiedHunk() {
+    }
+
     /**
      * Sets the context information of this UnifiedHunk.
      *
@@ -107,13 +231,126 @@ public class UnifiedHunk {
      */
     public String getContextInfo() {
         String contextInfo = "@@ -" + originalLineNumber + ',' + originalHunkSize +
-                " +" + revisedLineNumber + ',' + revisedHunkSize + " @@";
+                " +" + getRevisedLineNumber() + ',' + revisedHunkSize + " @@";
         if (!filenameInfo.isEmpty()) {
             contextInfo += " " + filenameInfo;
         }
         return contextInfo;
     }
+
+    /**
+     * Returns the context information that follows the line numbers and sizes
+     * in the line of context information of this UnifiedHunk.
+     *
+     * @return the filename information of this UnifiedHunk, empty if there is
+     *         none
+     */
+    String getFilenameInfo() {
+        return filenameInfo;
+    }
     
+    /**
+     * Returns true if the last line of this UnifiedHunk in the original file
+     * is the last line of the original file and does not end with a newline.
+     *
+     * @return true if the original file ends without a newline in this hunk
+     */
+    public boolean isOriginalNoNewline() {
+        return originalNoNewline;
+    }
+
+    /**
+     * Returns true if the last line of this UnifiedHunk in the revised file
+     * is the last line of the revised file and does not end with a newline.
+     *
+     * @return true if the revised file ends without a newline in this hunk
+     */
+    public boolean isRevisedNoNewline() {
+        return revisedNoNewline;
+    }
+
+    /**
+     * Records that the file, or the files, that a line of the specified type
+     * belongs to end without a newline at the last such line of this hunk, as
+     * a "\\ No newline at end of file" marker after the line does.
+     *
+     * @param type the type of the line before the marker, null if there is
+     *             none
+     */
+    void markNoNewline(LineChange.Type type) {
+        if (type != null && type != LineChange.Type.INSERTION) {
+            originalNoNewline = true;
+        }
+        if (type != null && type != LineChange.Type.DELETION) {
+            revisedNoNewline = true;
+        }
+    }
+
+    /**
+     * Sets whether the original and the revised file end without a newline
+     * at the last line of this hunk of each side.
+     *
+     * @param originalNoNewline true if the original file ends without a
+     *                          newline in this hunk
+     * @param revisedNoNewline true if the revised file ends without a newline
+     *                         in this hunk
+     */
+    void setNoNewline(boolean originalNoNewline, boolean revisedNoNewline) {
+        this.originalNoNewline = originalNoNewline;
+        this.revisedNoNewline = revisedNoNewline;
+    }
+
+    /**
+     * Returns the index of the line of this UnifiedHunk that is followed by a
+     * "\\ No newline at end of file" marker after the line at the specified
+     * index. See {@link #noNewlineMarkerAfter(IntFunction, int, int, boolean, boolean)}.
+     *
+     * @param after the index of a line after which the marker is looked for,
+     *              or -1 to find the first marker
+     * @return the index in {@link #getHunkLines()} of the line that the next
+     *         marker follows, or -1 if there is none
+     */
+    int noNewlineMarkerAfter(int after) {
+        return noNewlineMarkerAfter(i -> hunkLines.isRemoved(i) ? null : hunkLines.getType(i), hunkLines.size(),
+                after, originalNoNewline, revisedNoNewline);
+    }
+
+    /**
+     * Returns the index of the line of a hunk that is followed by a
+     * "\\ No newline at end of file" marker after the line at the specified
+     * index. A marker follows the last line of each side that ends without a
+     * newline, so there are two markers if the sides end at different lines
+     * and neither line has been removed.
+     *
+     * @param types the type of the line at each index, null for a removed line
+     * @param size the number of lines, including removed lines
+     * @param after the index of a line after which the marker is looked for,
+     *              or -1 to find the first marker
+     * @param originalNoNewline true if the original file ends without a newline
+     * @param revisedNoNewline true if the revised file ends without a newline
+     * @return the index of the line that the next marker follows, or -1 if
+     *         there is none
+     */
+    static int noNewlineMarkerAfter(IntFunction<LineChange.Type> types, int size, int after,
+                                    boolean originalNoNewline, boolean revisedNoNewline) {
+        int lastOriginal = -1;
+        int lastRevised = -1;
+        for (int i = size - 1; i > after && (lastOriginal == -1 || lastRevised == -1); --i) {
+            LineChange.Type type = types.apply(i);
+            if (lastOriginal == -1 && type != null && type != LineChange.Type.INSERTION) {
+                lastOriginal = i;
+            }
+            if (lastRevised == -1 && type != null && type != LineChange.Type.DELETION) {
+                lastRevised = i;
+            }
+        }
+        int next = originalNoNewline ? lastOriginal : -1;
+        if (revisedNoNewline && lastRevised != -1 && (next == -1 || lastRevised < next)) {
+            next = lastRevised;
+        }
+        return next;
+    }
+
     /**
      * Gets the modified lines of this UnifiedHunk. Modified lines are defined to be
      * the lines of the hunk between the context lines found at the top and
@@ -134,8 +371,18 @@ public class UnifiedHunk {
     public List<String> hunkToLines() {
         List<String> hunkLines = new ArrayList<String>();
         hunkLines.add(getContextInfo());
-        for (LineChange change : getHunkLines()) {
-            hunkLines.add(transformIntoHunkLine(change));
+        int marker = noNewlineMarkerAfter(-1);
+        List<LineChange> changes = getHunkLines();
+        for (int i = 0; i < changes.size(); ++i) {
+            LineChange change = changes.get(i);
+            // removed insertions are left as null lines
+            if (change != null) {
+                hunkLines.add(transformIntoHunkLine(change));
+            }
+            if (i == marker) {
+                hunkLines.add(NO_NEWLINE_MARKER);
+                marker = noNewlineMarkerAfter(i);
+            }
         }
         return hunkLines;
     }
@@ -156,15 +403,19 @@ public class UnifiedHunk {
             throw new IllegalArgumentException("Line number is out of bounds");
         }
         LineChange change = getHunkLines().get(lineNumber);
+        if (change == null) {
+            // the line has already been removed
+            return 0;
+        }
         if (change.getType() == LineChange.Type.INSERTION) {
             hunkLines.set(lineNumber, null);
-            --revisedHunkSize;
+            changeRevisedHunkSize(-1);
             return 1;
         }
         if (change.getType() == LineChange.Type.DELETION) {
             // essentially turns the minus line into a context line
             change.setType(LineChange.Type.CONTEXT);
-            ++revisedHunkSize;
+            changeRevisedHunkSize(1);
             return -1;
         }
         return 0;
@@ -189,9 +440,47 @@ public class UnifiedHunk {
      * @return the revised lined number of this UnifiedHunk
      */
     public int getRevisedLineNumber() {
-        return revisedLineNumber;
+        if (offsets == null) {
+            return revisedLineNumber;
+        }
+        return revisedLineNumber + offsets.offset(hunkIndex);
     }
     
+    /**
+     * Returns the zero-based index in the original file of the first line of
+     * this UnifiedHunk. A hunk that removes no lines is numbered by the line
+     * before it, so its original line number is already the index of the
+     * line that it inserts before.
+     *
+     * @return the index of the first line of this hunk in the original file
+     */
+    public int getOriginalStart() {
+        return originalHunkSize == 0 ? originalLineNumber : originalLineNumber - 1;
+    }
+
+    /**
+     * Returns the zero-based index in the revised file of the first line of
+     * this UnifiedHunk, numbered as {@link #getOriginalStart()} is.
+     *
+     * @return the index of the first line of this hunk in the revised file
+     */
+    public int getRevisedStart() {
+        return revisedHunkSize == 0 ? getRevisedLineNumber() : getRevisedLineNumber() - 1;
+    }
+
+    /**
+     * Returns the line number of a range of lines in the line of context
+     * information of a hunk, the inverse of {@link #getOriginalStart()}.
+     *
+     * @param start the zero-based index of the first line of the range
+     * @param size the number of lines in the range
+     * @return the one-based line number of the range, or of the line before
+     *         it if it is empty
+     */
+    public static int lineNumber(int start, int size) {
+        return size == 0 ? start : start + 1;
+    }
+
     /**
      * Returns the size of the original hunk, that is, the size of this hunk
      * in the original file.
@@ -220,6 +509,85 @@ public class UnifiedHunk {
      */
     public void modifyRevisedLineNumber(int change) {
         revisedLineNumber += change;
+        if (journal != null) {
+            journal.revisedLineNumberChanged(this, change);
+        }
+    }
+
+    /**
+     * Changes the size of this UnifiedHunk in the revised file by a given
+     * amount.
+     *
+     * @param change is the amount that the revised hunk size will be changed
+     */
+    void changeRevisedHunkSize(int change) {
+        revisedHunkSize += change;
+        if (journal != null) {
+            journal.revisedHunkSizeChanged(this, change);
+        }
+    }
+
+    /**
+     * Records every later edit of this UnifiedHunk and of the types of its
+     * lines in the specified journal.
+     *
+     * @param journal the EditJournal of the patch that contains this hunk
+     */
+    void setJournal(EditJournal journal) {
+        this.journal = journal;
+        hunkLines.setTypeLog(lineLog);
+    }
+
+    /**
+     * Makes this UnifiedHunk part of the specified diff. Its revised line
+     * number then includes the shift recorded for it in the specified offsets
+     * of the diff, and the diff drops its change index whenever a line of
+     * this hunk becomes a change that the index may be missing.
+     *
+     * @param diff the diff that contains this hunk
+     * @param offsets the shifts of the revised line numbers of the diff
+     * @param hunkIndex the index of this hunk in its diff
+     */
+    void setDiff(SingleFileUnifiedDiff diff, LineNumberOffsets offsets, int hunkIndex) {
+        this.diff = diff;
+        this.offsets = offsets;
+        this.hunkIndex = hunkIndex;
+        hunkLines.setTypeLog(lineLog);
+    }
+
+    /**
+     * Drops the lines that have been removed from this UnifiedHunk, so that
+     * the indices of its lines are the indices of the lines that remain.
+     */
+    void compact() {
+        hunkLines.compact();
+    }
+
+    /**
+     * Returns the lines of this UnifiedHunk that have not been removed.
+     *
+     * @return a new List of the non-null lines of this UnifiedHunk
+     */
+    private List<LineChange> liveLines() {
+        List<LineChange> lines = new ArrayList<LineChange>(hunkLines.liveSize());
+        for (LineChange change : hunkLines) {
+            if (change != null) {
+                lines.add(change);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns true if the line at the specified index of this UnifiedHunk has
+     * not been removed and is equal to the specified change.
+     *
+     * @param lineIndex the zero-based index of a line in {@link #getHunkLines()}
+     * @param change the change to compare with
+     * @return true if the line at lineIndex is equal to change
+     */
+    public boolean hasLine(int lineIndex, LineChange change) {
+        return lineIndex >= 0 && lineIndex < hunkLines.size() && hunkLines.lineEquals(lineIndex, change);
     }
 
     /**
@@ -268,28 +636,59 @@ public class UnifiedHunk {
         }
     }
 
+    /**
+     * A LineLog passes the changes to the lines of a UnifiedHunk on to the
+     * journal of the hunk, and drops the change indexes of its diff when a
+     * line becomes an insertion or a deletion, or lines are replaced or moved.
+     * Lines that are removed or become context lines need no new index, since
+     * every indexed position is checked before it is used.
+     */
+    private class LineLog implements LineChangeStore.TypeLog {
+        @Override
+        public void typeChanged(LineChangeStore store, int index, LineChange.Type previous, LineChange.Type type) {
+            if (journal != null) {
+                journal.typeChanged(store, index, previous, type);
+            }
+            if (diff != null && type != null && type != LineChange.Type.CONTEXT) {
+                diff.invalidateChangeIndex();
+            }
+        }
+
+        @Override
+        public void linesEdited(LineChangeStore store) {
+            if (journal != null) {
+                journal.linesEdited(store);
+            }
+            if (diff != null) {
+                diff.invalidateChangeIndex();
+            }
+        }
+    }
+
     @Override
     public boolean equals (Object obj) {
         if (this == obj) return true;
         if (!(obj instanceof UnifiedHunk)) return false;
         
         UnifiedHunk other = (UnifiedHunk) obj;
-        return hunkLines.equals(other.hunkLines) &&
+        return liveLines().equals(other.liveLines()) &&
                 originalLineNumber == other.originalLineNumber &&
                 originalHunkSize == other.originalHunkSize &&
-                revisedLineNumber == other.revisedLineNumber &&
+                getRevisedLineNumber() == other.getRevisedLineNumber() &&
                 revisedHunkSize == other.revisedHunkSize &&
+                originalNoNewline == other.originalNoNewline &&
+                revisedNoNewline == other.revisedNoNewline &&
                 filenameInfo.equals(other.filenameInfo);
     }
     
     @Override
     public int hashCode() {
         int result = 17;
-        result = 31 * result + hunkLines.hashCode();
+        result = 31 * result + liveLines().hashCode();
         result = 31 * result + originalLineNumber;
         result = 31 * result + originalHunkSize;
         result = 31 * result + revisedHunkSize;
-        result = 31 * result + revisedLineNumber;
+        result = 31 * result + getRevisedLineNumber();
         result = 31 * result + revisedHunkSize;
         result = 31 * result + filenameInfo.hashCode();
         return result;
@@ -0,0 +1,331 @@
+package edu.washington.cs.dericp.diffutils.patch;
+
+import edu.washington.cs.dericp.diffutils.Utils;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A HunkIndex is an index of the ranges of the original files that the
+ * hunks of a {@link MultiFileUnifiedDiff} span, which finds the hunks that
+ * touch a range of lines, and the hunks of two patches that conflict, without
+ * scanning every hunk.</p>
+ *
+ * <p>The range of a hunk is taken from {@link UnifiedHunk#getOriginalLineNumber()}
+ * and {@link UnifiedHunk#getOriginalHunkSize()}, and includes its context
+ * lines. A hunk that spans no original lines, such as one that only inserts
+ * lines into an empty file, occupies the position between two lines, and
+ * touches the ranges that contain or end at that position.</p>
+ *
+ * <p>The ranges of each file are held in an interval tree: they are sorted by
+ * their first line, and each subtree of the implicit balanced tree over the
+ * sorted ranges records the greatest end of its ranges, so that a query only
+ * descends into the subtrees that can hold a touching range. Finding the k
+ * hunks of a file with n hunks that touch a range takes O(min(n, (k + 1) log n))
+ * time in the worst case, since each reported hunk may cost a path of the tree,
+ * even when the hunks of the file overlap, as the hunks of several patches to
+ * one file do.</p>
+ *
+ * <p>A HunkIndex is a snapshot of the patch that it was built from. Hunks
+ * that are removed from the patch afterwards are still found, so the index
+ * should be rebuilt once the patch changes.</p>
+ */
+public class HunkIndex {
+    // the ranges of the hunks of each file, by the path of the original file
+    // without its a/ prefix
+    private final Map<String, FileRanges> files = new HashMap<String, FileRanges>();
+
+    /**
+     * Constructs the HunkIndex of the specified patch.
+     *
+     * @param patch the patch whose hunks are indexed
+     */
+    public HunkIndex(MultiFileUnifiedDiff patch) {
+        Map<String, List<Entry>> entries = new HashMap<String, List<Entry>>();
+        for (int i = 0; i < patch.numDiffs(); ++i) {
+            SingleFileUnifiedDiff diff = patch.getDiff(i);
+            if (diff == null) {
+                continue;
+            }
+            String path = originalPath(diff);
+            List<Entry> fileEntries = entries.get(path);
+            if (fileEntries == null) {
+                fileEntries = new ArrayList<Entry>();
+                entries.put(path, fileEntries);
+            }
+            List<UnifiedHunk> hunks = diff.getHunks();
+            for (int j = 0; j < hunks.size(); ++j) {
+                if (hunks.get(j) != null) {
+                    fileEntries.add(new Entry(path, i, j, hunks.get(j)));
+                }
+            }
+        }
+        for (Map.Entry<String, List<Entry>> file : entries.entrySet()) {
+            files.put(file.getKey(), new FileRanges(file.getValue()));
+        }
+    }
+
+    /**
+     * Returns the hunks of the specified file whose original ranges touch the
+     * specified range of lines.
+     *
+     * @param path the path of the original file, with or without an a/ prefix
+     * @param from the one-based number of the first line of the range
+     * @param to the one-based number of the line after the range, equal to
+     *           from for the position before line from
+     * @return the hunks that touch lines [from, to), in the order of their
+     *         first lines
+     */
+    public List<Entry> overlapping(String path, int from, int to) {
+        if (to < from) {
+            throw new IllegalArgumentException("Range ends before it starts");
+        }
+        FileRanges ranges = files.get(Utils.stripPrefix(path));
+        if (ranges == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<Entry>();
+        ranges.query(from - 1, to - 1, result);
+        return result;
+    }
+
+    /**
+     * Returns the pairs of hunks of this index and the specified index whose
+     * original ranges touch, such as the hunks of two patches to the same
+     * base that cannot both be applied without a merge.
+     *
+     * @param other the index of the other patch
+     * @return the conflicting pairs of hunks, grouped by file
+     */
+    public List<Conflict> conflicts(HunkIndex other) {
+        List<Conflict> conflicts = new ArrayList<Conflict>();
+        List<Entry> touching = new ArrayList<Entry>();
+        for (Map.Entry<String, FileRanges> file : files.entrySet()) {
+            FileRanges otherRanges = other.files.get(file.getKey());
+            if (otherRanges == null) {
+                continue;
+            }
+            FileRanges ranges = file.getValue();
+            for (int i = 0; i < ranges.entries.length; ++i) {
+                touching.clear();
+                otherRanges.query(ranges.starts[i], ranges.ends[i], touching);
+                for (Entry entry : touching) {
+                    conflicts.add(new Conflict(ranges.entries[i], entry));
+                }
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * Returns the path of the original file of the specified diff, or of its
+     * revised file if it is created by the diff.
+     */
+    private static String originalPath(SingleFileUnifiedDiff diff) {
+        String path = Utils.diffPath(diff.getOriginalDiffPath());
+        if (Utils.isDevNull(path)) {
+            path = Utils.diffPath(diff.getRevisedDiffPath());
+        }
+        return Utils.stripPrefix(path);
+    }
+
+    /**
+     * Returns true if the ranges [s1, e1) and [s2, e2) touch: they share a
+     * line, or one of them is empty and lies within or at an end of the
+     * other.
+     */
+    private static boolean touches(int s1, int e1, int s2, int e2) {
+        if (s1 == e1 || s2 == e2) {
+            return s1 <= e2 && s2 <= e1;
+        }
+        return s1 < e2 && s2 < e1;
+    }
+
+    /**
+     * A FileRanges is the interval tree of the ranges of the hunks of one
+     * file.
+     */
+    private static class FileRanges {
+        // the hunks of the file and their zero-based, half-open ranges of
+        // original lines, sorted by start
+        private final Entry[] entries;
+        private final int[] starts;
+        private final int[] ends;
+        // maxEnds[mid] is the greatest end of the ranges of the subtree whose
+        // root is mid, where the subtree of [lo, hi) has its root at the
+        // middle of lo and hi
+        private final int[] maxEnds;
+
+        /**
+         * Constructs the interval tree of the specified hunks.
+         *
+         * @param fileEntries the hunks of one file
+         */
+        FileRanges(List<Entry> fileEntries) {
+            entries = fileEntries.toArray(new Entry[fileEntries.size()]);
+            Arrays.sort(entries, (a, b) -> Integer.compare(a.start, b.start));
+            starts = new int[entries.length];
+            ends = new int[entries.length];
+            for (int i = 0; i < entries.length; ++i) {
+                starts[i] = entries[i].start;
+                ends[i] = entries[i].end;
+            }
+            maxEnds = new int[entries.length];
+            build(0, entries.length);
+        }
+
+        /**
+         * Records the greatest end of each subtree of [lo, hi).
+         *
+         * @return the greatest end of the ranges in [lo, hi)
+         */
+        private int build(int lo, int hi) {
+            if (lo >= hi) {
+                return Integer.MIN_VALUE;
+            }
+            int mid = (lo + hi) >>> 1;
+            maxEnds[mid] = Math.max(ends[mid], Math.max(build(lo, mid), build(mid + 1, hi)));
+            return maxEnds[mid];
+        }
+
+        /**
+         * Adds the hunks whose ranges touch [from, to) to the specified list,
+         * in the order of their starts.
+         */
+        void query(int from, int to, List<Entry> result) {
+            query(0, entries.length, from, to, result);
+        }
+
+        private void query(int lo, int hi, int from, int to, List<Entry> result) {
+            if (lo >= hi) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] < from) {
+                // every range of the subtree ends before from
+                return;
+            }
+            query(lo, mid, from, to, result);
+            if (starts[mid] > to) {
+                // every range of the right subtree starts after to
+                return;
+            }
+            if (touches(starts[mid], ends[mid], from, to)) {
+                result.add(entries[mid]);
+            }
+            query(mid + 1, hi, from, to, result);
+        }
+    }
+
+    /**
+     * An Entry is a hunk of the indexed patch and where it is.
+     */
+    public static class Entry {
+        private final String path;
+        private final int diffIndex;
+        private final int hunkIndex;
+        private final UnifiedHunk hunk;
+        // the zero-based, half-open range of original lines of the hunk
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructs the Entry of the specified hunk.
+         *
+         * @param path the path of the file of the hunk
+         * @param diffIndex the index of the diff of the hunk in the patch
+         * @param hunkIndex the index of the hunk in its diff
+         * @param hunk the hunk
+         */
+        Entry(String path, int diffIndex, int hunkIndex, UnifiedHunk hunk) {
+            this.path = path;
+            this.diffIndex = diffIndex;
+            this.hunkIndex = hunkIndex;
+            this.hunk = hunk;
+            start = hunk.getOriginalStart();
+            end = start + hunk.getOriginalHunkSize();
+        }
+
+        /**
+         * Returns the path of the original file of the hunk, without its a/
+         * prefix.
+         *
+         * @return the path of the file of the hunk
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the index of the diff of the hunk in the indexed patch.
+         *
+         * @return the diff index of the hunk
+         */
+        public int getDiffIndex() {
+            return diffIndex;
+        }
+
+        /**
+         * Returns the index of the hunk in its diff.
+         *
+         * @return the hunk index of the hunk
+         */
+        public int getHunkIndex() {
+            return hunkIndex;
+        }
+
+        /**
+         * Returns the hunk.
+         *
+         * @return the indexed hunk
+         */
+        public UnifiedHunk getHunk() {
+            return hunk;
+        }
+    }
+
+    /**
+     * A Conflict is a pair of hunks of two patches whose original ranges
+     * touch.
+     */
+    public static class Conflict {
+        private final Entry first;
+        private final Entry second;
+
+        /**
+         * Constructs a new Conflict.
+         *
+         * @param first the hunk of the index that conflicts were looked for in
+         * @param second the hunk of the other index
+         */
+        Conflict(Entry first, Entry second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Returns the hunk of the index whose conflicts were looked for.
+         *
+         * @return the hunk of the first patch
+         */
+        public Entry getFirst() {
+            return first;
+        }
+
+        /**
+         * Returns the hunk of the other index.
+         *
+         * @return the hunk of the second patch
+         */
+        public Entry getSecond() {
+            return second;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package edu.washington.cs.dericp.diffutils.patch;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A HunkLocator finds where a {@link UnifiedHunk} applies in the lines of a
+ * file when the file or the hunk has drifted from the line numbers recorded in
+ * the hunk, as patch does with its offset and fuzz.</p>
+ *
+ * <p>The hunk is first looked for at its expected position, and then at
+ * increasing distances before and after it, up to a maximum offset. If the
+ * context and deletions of the hunk match nowhere, up to fuzz lines of leading
+ * and trailing context are ignored and the search is repeated.</p>
+ *
+ * <p>The lines of the file are hashed once when the HunkLocator is
+ * constructed, into prefix sums of a polynomial hash, so that the hash of any
+ * window of lines is found in constant time. A candidate position is only
+ * compared line by line when the hash of the window at that position equals
+ * the hash of the lines the hunk expects, so searching a large, drifted file
+ * costs one hash comparison per position rather than one string comparison
+ * per line.</p>
+ */
+public class HunkLocator {
+    // the base of the polynomial hash of a window of lines
+    private static final long BASE = 0x9E3779B97F4A7C15L;
+    private final List<String> lines;
+    // prefixHashes[i] is the hash of lines [0, i)
+    private final long[] prefixHashes;
+    // powers[i] is BASE to the power of i
+    private final long[] powers;
+    // the number of context lines that may be ignored at each end of a hunk
+    private final int fuzz;
+    // the greatest distance from its expected position that a hunk is found at
+    private final int maxOffset;
+
+    /**
+     * Constructs a HunkLocator that finds hunks in the specified lines.
+     *
+     * @param lines the lines of the file that hunks are applied to
+     * @param fuzz the number of context lines that may be ignored at the
+     *             start and at the end of a hunk
+     * @param maxOffset the greatest number of lines that a hunk may be found
+     *                  away from its expected position
+     */
+    public HunkLocator(List<String> lines, int fuzz, int maxOffset) {
+        if (fuzz < 0 || maxOffset < 0) {
+            throw new IllegalArgumentException("Fuzz and maximum offset must not be negative");
+        }
+        this.lines = lines;
+        this.fuzz = fuzz;
+        this.maxOffset = maxOffset;
+        prefixHashes = new long[lines.size() + 1];
+        powers = new long[lines.size() + 1];
+        powers[0] = 1;
+        for (int i = 0; i < lines.size(); ++i) {
+            prefixHashes[i + 1] = prefixHashes[i] * BASE + lineHash(lines.get(i));
+            powers[i + 1] = powers[i] * BASE;
+        }
+    }
+
+    /**
+     * Finds where the specified hunk applies, no earlier than the specified
+     * line.
+     *
+     * @param hunk the hunk to be located
+     * @param expected the zero-based index of the line where the first
+     *                 context or deleted line of hunk is expected to be
+     * @param minStart the zero-based index of the first line that the hunk
+     *                 may match, such as the end of the previous hunk
+     * @return where hunk applies, null if it does not apply within the
+     *         maximum offset and fuzz
+     */
+    public Match locate(UnifiedHunk hunk, int expected, int minStart) {
+        // the content of the context and deleted lines, and which of them
+        // are context lines
+        List<String> expectedLines = new ArrayList<String>();
+        List<Boolean> isContext = new ArrayList<Boolean>();
+        for (LineChange change : hunk.getHunkLines()) {
+            if (change != null && change.getType() != LineChange.Type.INSERTION) {
+                expectedLines.add(change.getContent());
+                isContext.add(change.getType() == LineChange.Type.CONTEXT);
+            }
+        }
+        long[] hashes = new long[expectedLines.size()];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = lineHash(expectedLines.get(i));
+        }
+
+        for (int f = 0; f <= fuzz; ++f) {
+            // only context lines can be ignored
+            int leading = 0;
+            while (leading < f && leading < isContext.size() && isContext.get(leading)) {
+                ++leading;
+            }
+            int trailing = 0;
+            while (trailing < f && trailing < isContext.size() - leading
+                    && isContext.get(isContext.size() - 1 - trailing)) {
+                ++trailing;
+            }
+            if (f > 0 && leading == 0 && trailing == 0) {
+                // fuzz does not change what is looked for
+                continue;
+            }
+            int length = expectedLines.size() - leading - trailing;
+            long hash = 0;
+            for (int i = leading; i < leading + length; ++i) {
+                hash = hash * BASE + hashes[i];
+            }
+            int start = find(expectedLines, leading, length, hash, expected + leading, minStart);
+            if (start != -1) {
+                return new Match(start - leading, start - leading - expected, leading, trailing);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the position nearest to the specified position where the
+     * specified range of expected lines occurs in the file.
+     *
+     * @param expectedLines the lines that are looked for
+     * @param from the index of the first line of the range
+     * @param length the number of lines in the range
+     * @param hash the hash of the range
+     * @param position where the range is expected to start
+     * @param minStart the first line that the range may start at
+     * @return the index of the line where the range starts, -1 if it does
+     *         not occur within the maximum offset
+     */
+    private int find(List<String> expectedLines, int from, int length, long hash, int position, int minStart) {
+        int last = lines.size() - length;
+        for (long offset = 0; offset <= maxOffset; ++offset) {
+            long before = position - offset;
+            long after = position + offset;
+            if (before < minStart && after > last) {
+                break;
+            }
+            if (before >= minStart && before <= last && matches(expectedLines, from, length, hash, (int) before)) {
+                return (int) before;
+            }
+            if (offset > 0 && after >= minStart && after <= last
+                    && matches(expectedLines, from, length, hash, (int) after)) {
+                return (int) after;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the specified range of expected lines occurs in the
+     * file at the specified position.
+     *
+     * @param expectedLines the lines that are looked for
+     * @param from the index of the first line of the range
+     * @param length the number of lines in the range
+     * @param hash the hash of the range
+     * @param start the index of the line of the file to compare with
+     * @return true if the lines of the file starting at start equal the range
+     */
+    private boolean matches(List<String> expectedLines, int from, int length, long hash, int start) {
+        if (prefixHashes[start + length] - prefixHashes[start] * powers[length] != hash) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (!lines.get(start + i).equals(expectedLines.get(from + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the hash of a line, with the bits of its String hash spread
+     * over a long.
+     *
+     * @param line the line to be hashed
+     * @return the hash of line
+     */
+    private static long lineHash(String line) {
+        long h = line.hashCode() * 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * A Match is the position where a hunk applies.
+     */
+    public static class Match {
+        private final int start;
+        private final int offset;
+        private final int leadingFuzz;
+        private final int trailingFuzz;
+
+        /**
+         * Constructs a new Match.
+         *
+         * @param start the index of the line that the first context or deleted
+         *              line of the hunk corresponds to
+         * @param offset the distance of start from the expected position
+         * @param leadingFuzz the number of leading context lines ignored
+         * @param trailingFuzz the number of trailing context lines ignored
+         */
+        Match(int start, int offset, int leadingFuzz, int trailingFuzz) {
+            this.start = start;
+            this.offset = offset;
+            this.leadingFuzz = leadingFuzz;
+            this.trailingFuzz = trailingFuzz;
+        }
+
+        /**
+         * Returns the zero-based index of the line of the file that the first
+         * context or deleted line of the hunk corresponds to. If leading
+         * context lines were ignored, this line was not compared, and may be
+         * before the start of the file.
+         *
+         * @return the position of the hunk in the file
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the number of lines between the expected position of the
+         * hunk and where it was found, negative if it was found earlier.
+         *
+         * @return the offset of the hunk
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the number of leading context lines of the hunk that were
+         * ignored.
+         *
+         * @return the leading fuzz of the match
+         */
+        public int getLeadingFuzz() {
+            return leadingFuzz;
+        }
+
+        /**
+         * Returns the number of trailing context lines of the hunk that were
+         * ignored.
+         *
+         * @return the trailing fuzz of the match
+         */
+        public int getTrailingFuzz() {
+            return trailingFuzz;
+        }
+    }
+}
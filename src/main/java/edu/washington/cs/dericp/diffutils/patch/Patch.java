@@ -2,7 +2,10 @@ package edu.washington.cs.dericp.diffutils.patch;
 
 import edu.washington.cs.dericp.diffutils.change.LineChange;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * <p>A Patch is a collection of changes to one or more files.</p>
@@ -11,7 +14,9 @@ import java.util.List;
  * represents.</p>
  *
  * <p>A Patch provides a method for the removal of a change with {@link #removeChange(LineChange)}.
- * This is currently the only way of correctly modifying a Patch.</p>
+ * This is currently the only way of correctly modifying a Patch. Many changes can
+ * be removed at once with {@link #removeChanges(Collection)} and
+ * {@link #retainChanges(Predicate)}.</p>
  *
  * <p>A Patch can be written a to a file or returned as a List of Strings,
  * one String per line of the Patch.</p>
@@ -42,11 +47,55 @@ public interface Patch {
      */
     void removeChange(LineChange change);
 
+    /**
+     * Removes every change in the specified collection from this Patch. This
+     * is equivalent to calling {@link #removeChange(LineChange)} with each
+     * change, which is what the default implementation does. Implementations
+     * may remove the changes in a single pass and update the line numbers of
+     * this Patch only once.
+     *
+     * @param changes the changes to be removed
+     */
+    default void removeChanges(Collection<? extends LineChange> changes) {
+        for (LineChange change : changes) {
+            removeChange(change);
+        }
+    }
+
+    /**
+     * Removes every change from this Patch that does not satisfy the
+     * specified predicate. The predicate is only tested with changes, never
+     * with context lines. The default implementation calls
+     * {@link #removeChange(LineChange)} with each change that fails the
+     * predicate.
+     *
+     * @param filter the predicate that each change to be kept satisfies
+     */
+    default void retainChanges(Predicate<? super LineChange> filter) {
+        for (LineChange change : new ArrayList<LineChange>(getChanges())) {
+            if (!filter.test(change)) {
+                removeChange(change);
+            }
+        }
+    }
+
+    /**
+     * Drops whatever has been removed from this Patch from its
+     * representation, so that traversals of this Patch only pay for the
+     * changes that remain. The lines of this Patch are unchanged, but the
+     * indices and counts that were left in place by earlier removals are
+     * renumbered. The default implementation does nothing, for Patches that
+     * do not leave removed changes in place.
+     */
+    default void compact() {
+    }
+
     /**
      * Writes this Patch to a file.
      *
      * @param pathname the relative or absolute pathname of the file where
      *                 this Patch will be written
+     * @throws java.io.UncheckedIOException if this Patch cannot be written
      */
     void writePatch(String pathname);
 }
@@ -0,0 +1,657 @@
+package edu.washington.cs.dericp.diffutils.patch;
+
+import edu.washington.cs.dericp.diffutils.Utils;
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>A PatchApplier applies the single-file unified diffs of a
+ * {@link MultiFileUnifiedDiff} to the files of a directory tree, in process,
+ * as <code>patch -p1</code> would.</p>
+ *
+ * <p>Each single-file unified diff is applied to the file named by its original
+ * diff path, resolved against the root directory after the leading path
+ * components are stripped. A diff whose original path is /dev/null creates the
+ * file named by its revised path, and a diff whose revised path is /dev/null
+ * deletes its file. Diffs that only change the mode of a file, and binary
+ * diffs, have no hunks to apply and are skipped. The context and deletions of
+ * each hunk must match the file, but a hunk is found with a {@link HunkLocator} even if it has drifted
+ * from its original line number by up to a maximum offset, and up to fuzz lines
+ * of its leading and trailing context may be ignored. The hunks of a diff are
+ * applied in one pass over the lines of the file.</p>
+ *
+ * <p>A file is decoded strictly with the charset of the PatchApplier, and a
+ * file that is not valid in that charset is not patched. Each line keeps the
+ * "\n" or "\r\n" that it ends with, so the lines that no hunk changes are
+ * written back exactly as they were read, and an inserted line takes the
+ * terminator of the line before it. A "\\ No newline at end of file" marker
+ * in the last hunk of a diff takes the terminator of the last line away, or
+ * gives it one.</p>
+ *
+ * <p>A file is only written once every hunk of its diffs applies, through a
+ * temporary file in the same directory that is then renamed over it, so a file
+ * is never left partially patched. A failure to patch one file does not
+ * prevent the other files from being patched, and the outcome for each file is
+ * reported as a {@link Result}. A PatchApplier can also do a dry run, which
+ * reports what would happen without writing anything.</p>
+ *
+ * <p>Since different files are independent, a PatchApplier constructed with an
+ * ExecutorService patches them in parallel on it. The diffs of one file are
+ * always applied in order by a single task.</p>
+ */
+public class PatchApplier {
+    // the root of the directory tree that patches are applied to
+    private final Path root;
+    // the executor that files are patched on, null if they are patched on the
+    // calling thread
+    private final ExecutorService executor;
+    // the number of leading components stripped from the diff paths
+    private int strip = 1;
+    // true if the files should not be written
+    private boolean dryRun;
+    // the charset that files are read and written with
+    private Charset charset = Charset.defaultCharset();
+    // the number of context lines that may be ignored at each end of a hunk
+    private int fuzz = 2;
+    // the greatest distance from its expected position that a hunk is applied at
+    private int maxOffset = Integer.MAX_VALUE;
+
+    /**
+     * Constructs a PatchApplier that applies patches to the directory tree at
+     * the specified root, one file at a time on the calling thread.
+     *
+     * @param root the root directory that diff paths are resolved against
+     */
+    public PatchApplier(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * Constructs a PatchApplier that applies patches to the directory tree at
+     * the specified root, patching files in parallel on the specified
+     * executor.
+     *
+     * @param root the root directory that diff paths are resolved against
+     * @param executor the ExecutorService that files are patched on, or null
+     *                 if they should be patched on the calling thread
+     */
+    public PatchApplier(Path root, ExecutorService executor) {
+        this.root = root.toAbsolutePath().normalize();
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the number of leading path components that are stripped from the
+     * diff paths, as with the -p option of patch. The default is 1, which
+     * strips the "a/" and "b/" prefixes of git diffs.
+     *
+     * @param strip the number of leading components to strip
+     */
+    public void setStrip(int strip) {
+        if (strip < 0) {
+            throw new IllegalArgumentException("Strip is negative");
+        }
+        this.strip = strip;
+    }
+
+    /**
+     * Sets whether this PatchApplier only checks that patches apply, without
+     * writing, creating or deleting any file.
+     *
+     * @param dryRun true if no file should be modified
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Sets the number of leading and trailing context lines of a hunk that may
+     * be ignored when the hunk does not apply with all of its context, as
+     * with the --fuzz option of patch. The default is 2.
+     *
+     * @param fuzz the number of context lines that may be ignored at each
+     *             end of a hunk
+     */
+    public void setFuzz(int fuzz) {
+        if (fuzz < 0) {
+            throw new IllegalArgumentException("Fuzz is negative");
+        }
+        this.fuzz = fuzz;
+    }
+
+    /**
+     * Sets the greatest number of lines that a hunk may be applied away from
+     * its expected position. The default is unlimited.
+     *
+     * @param maxOffset the maximum offset of a hunk
+     */
+    public void setMaxOffset(int maxOffset) {
+        if (maxOffset < 0) {
+            throw new IllegalArgumentException("Maximum offset is negative");
+        }
+        this.maxOffset = maxOffset;
+    }
+
+    /**
+     * Sets the charset that the patched files are read and written with. The
+     * default is the default charset, as
+     * {@link edu.washington.cs.dericp.diffutils.Utils#readFile(String)} uses.
+     *
+     * @param charset the charset of the patched files
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Applies every single-file unified diff of the specified patch to its
+     * file, and returns the outcome for each file.
+     *
+     * @param patch the MultiFileUnifiedDiff to be applied
+     * @return one Result per patched file, in the order that the files first
+     *         appear in the patch
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              waiting for the files to be patched
+     */
+    public List<Result> apply(MultiFileUnifiedDiff patch) throws InterruptedException {
+        // the diffs of each file, so that they are applied in order by one task
+        Map<String, List<SingleFileUnifiedDiff>> fileDiffs = new LinkedHashMap<String, List<SingleFileUnifiedDiff>>();
+        for (int i = 0; i < patch.numDiffs(); ++i) {
+            SingleFileUnifiedDiff diff = patch.getDiff(i);
+            if (diff == null || (!hasPaths(diff) && !hasHunks(diff))) {
+                // a diff that only changes the mode of a file, or a binary
+                // diff, has nothing to apply to the lines of the file
+                continue;
+            }
+            String path = hasPaths(diff) ? targetPath(diff) : null;
+            List<SingleFileUnifiedDiff> diffs = fileDiffs.get(path);
+            if (diffs == null) {
+                diffs = new ArrayList<SingleFileUnifiedDiff>();
+                fileDiffs.put(path, diffs);
+            }
+            diffs.add(diff);
+        }
+
+        List<Result> results = new ArrayList<Result>(fileDiffs.size());
+        if (executor == null) {
+            for (Map.Entry<String, List<SingleFileUnifiedDiff>> entry : fileDiffs.entrySet()) {
+                results.add(applyFile(entry.getKey(), entry.getValue()));
+            }
+            return results;
+        }
+        List<Future<Result>> futures = new ArrayList<Future<Result>>(fileDiffs.size());
+        for (Map.Entry<String, List<SingleFileUnifiedDiff>> entry : fileDiffs.entrySet()) {
+            String path = entry.getKey();
+            List<SingleFileUnifiedDiff> diffs = entry.getValue();
+            futures.add(executor.submit(() -> applyFile(path, diffs)));
+        }
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // applyFile reports its own failures, so this is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Applies the specified diffs, in order, to the file at the specified
+     * path.
+     *
+     * @param pathname the path of the file before it is resolved against the
+     *                 root, null for the diffs that have hunks but no paths
+     * @param diffs the diffs of the file
+     * @return the outcome of patching the file
+     */
+    private Result applyFile(String pathname, List<SingleFileUnifiedDiff> diffs) {
+        if (pathname == null) {
+            return new Result(root, Status.FAILED, -1, "Diff has no file path");
+        }
+        Path path = root;
+        try {
+            path = root.resolve(pathname).normalize();
+            if (!path.startsWith(root)) {
+                return new Result(path, Status.FAILED, -1, "Path is outside of the root directory");
+            }
+            boolean exists = !isDevNull(diffs.get(0).getOriginalDiffPath());
+            boolean deleted = false;
+            FileLines lines;
+            if (exists) {
+                lines = readLines(path);
+            } else {
+                if (Files.exists(path)) {
+                    return new Result(path, Status.FAILED, -1, "File to be created already exists");
+                }
+                lines = new FileLines(0);
+            }
+
+            for (SingleFileUnifiedDiff diff : diffs) {
+                try {
+                    lines = applyDiff(lines, diff);
+                } catch (HunkFailure e) {
+                    UnifiedHunk hunk = diff.getHunk(e.hunkIndex);
+                    return new Result(path, Status.FAILED, e.hunkIndex,
+                            "Hunk " + e.hunkIndex + " does not apply at line " + hunk.getOriginalLineNumber());
+                }
+                deleted = isDevNull(diff.getRevisedDiffPath());
+            }
+
+            Status status = deleted ? Status.DELETED : exists ? Status.MODIFIED : Status.CREATED;
+            if (deleted && !lines.lines.isEmpty()) {
+                return new Result(path, Status.FAILED, -1, "File to be deleted is not empty once patched");
+            }
+            if (!dryRun) {
+                if (deleted) {
+                    Files.delete(path);
+                } else {
+                    writeAtomically(path, lines);
+                }
+            }
+            return new Result(path, status, -1, null);
+        } catch (IOException | RuntimeException e) {
+            // a bad path or a bad file fails its own file, not the others
+            return new Result(path, Status.FAILED, -1, e.toString());
+        }
+    }
+
+    /**
+     * Reads the lines of the specified file, each with the terminator that
+     * follows it.
+     *
+     * @param path the path of the file
+     * @return the lines of the file
+     * @throws IOException if the file cannot be read, or is not valid in the
+     *                     charset of this PatchApplier
+     */
+    private FileLines readLines(Path path) throws IOException {
+        String text = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(Files.readAllBytes(path)))
+                .toString();
+        FileLines file = new FileLines(0);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                file.add(text.substring(start), "");
+                break;
+            }
+            boolean crlf = end > start && text.charAt(end - 1) == '\r';
+            file.add(text.substring(start, crlf ? end - 1 : end), crlf ? "\r\n" : "\n");
+            start = end + 1;
+        }
+        return file;
+    }
+
+    /**
+     * Applies the hunks of a diff to the specified lines in one pass. Each
+     * hunk is looked for after the previous one, near its original line
+     * number shifted by the offset that the previous hunk was found at.
+     *
+     * @param file the lines of the file before the diff is applied
+     * @param diff the diff to apply
+     * @return the lines of the file once the diff is applied
+     * @throws HunkFailure if a hunk of the diff does not apply
+     */
+    private FileLines applyDiff(FileLines file, SingleFileUnifiedDiff diff) throws HunkFailure {
+        List<String> lines = file.lines;
+        HunkLocator locator = new HunkLocator(lines, fuzz, maxOffset);
+        FileLines patched = new FileLines(lines.size());
+        // the index of the first line that has not been copied to patched
+        int cursor = 0;
+        // the offset that the previous hunk was found at
+        int drift = 0;
+        // whether the last line ends with a newline, null if no hunk says
+        Boolean finalNewline = null;
+        for (int j = 0; j < diff.numHunks(); ++j) {
+            UnifiedHunk hunk = diff.getHunk(j);
+            if (hunk == null) {
+                continue;
+            }
+            int expected = hunk.getOriginalStart() + drift;
+            HunkLocator.Match match = locator.locate(hunk, expected, cursor);
+            if (match == null) {
+                throw new HunkFailure(j);
+            }
+            drift += match.getOffset();
+            if (hunk.isRevisedNoNewline() || hunk.isOriginalNoNewline()) {
+                finalNewline = !hunk.isRevisedNoNewline();
+            }
+
+            List<LineChange> hunkLines = hunk.getHunkLines();
+            int numExpected = 0;
+            for (LineChange change : hunkLines) {
+                if (change != null && change.getType() != LineChange.Type.INSERTION) {
+                    ++numExpected;
+                }
+            }
+            int position = match.getStart() + match.getLeadingFuzz();
+            patched.copy(file, cursor, position);
+            // the index of the next context or deleted line of the hunk
+            int e = 0;
+            for (LineChange change : hunkLines) {
+                if (change == null) {
+                    continue;
+                }
+                if (change.getType() == LineChange.Type.INSERTION) {
+                    patched.add(change.getContent(), patched.insertedTerminator(file));
+                } else {
+                    // ignored context lines correspond to no line of the file
+                    if (e >= match.getLeadingFuzz() && e < numExpected - match.getTrailingFuzz()) {
+                        if (change.getType() == LineChange.Type.CONTEXT) {
+                            patched.copy(file, position, position + 1);
+                        }
+                        ++position;
+                    }
+                    ++e;
+                }
+            }
+            cursor = position;
+        }
+        patched.copy(file, cursor, lines.size());
+        patched.terminateAllButLast(file);
+        if (finalNewline != null) {
+            patched.terminateLast(finalNewline, file);
+        }
+        return patched;
+    }
+
+    /**
+     * Writes the specified lines to a temporary file next to the specified
+     * path and renames it over the path, atomically if the file system
+     * supports it.
+     *
+     * @param path the path of the file to be written
+     * @param file the lines of the file
+     * @throws IOException if the file cannot be written
+     */
+    private void writeAtomically(Path path, FileLines file) throws IOException {
+        Path parent = path.getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, "." + path.getFileName(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, charset)) {
+                for (int i = 0; i < file.lines.size(); ++i) {
+                    writer.write(file.lines.get(i));
+                    writer.write(file.terminators.get(i));
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Returns the path of the file that the specified diff applies to, with
+     * the leading components stripped.
+     *
+     * @param diff the diff whose target is returned
+     * @return the relative path of the target file of diff
+     */
+    private String targetPath(SingleFileUnifiedDiff diff) {
+        String original = Utils.diffPath(diff.getOriginalDiffPath());
+        String pathname = Utils.isDevNull(original) ? Utils.diffPath(diff.getRevisedDiffPath()) : original;
+        String[] components = pathname.split("/+");
+        StringBuilder stripped = new StringBuilder();
+        for (int i = Math.min(strip, components.length - 1); i < components.length; ++i) {
+            if (stripped.length() > 0) {
+                stripped.append('/');
+            }
+            stripped.append(components[i]);
+        }
+        return stripped.toString();
+    }
+
+    /**
+     * Returns true if the specified diff has both a "---" and a "+++" line.
+     *
+     * @param diff a diff of the patch
+     * @return true if the diff names its original and revised files
+     */
+    private static boolean hasPaths(SingleFileUnifiedDiff diff) {
+        return diff.getOriginalDiffPath() != null && diff.getRevisedDiffPath() != null;
+    }
+
+    /**
+     * Returns true if the specified diff has a hunk that has not been removed.
+     *
+     * @param diff a diff of the patch
+     * @return true if the diff changes the lines of its file
+     */
+    private static boolean hasHunks(SingleFileUnifiedDiff diff) {
+        for (int j = 0; j < diff.numHunks(); ++j) {
+            if (diff.getHunk(j) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the specified line of a diff names /dev/null.
+     *
+     * @param diffPathLine a "---" or "+++" line of a diff
+     * @return true if the line names a file that does not exist
+     */
+    private static boolean isDevNull(String diffPathLine) {
+        return Utils.isDevNull(Utils.diffPath(diffPathLine));
+    }
+
+    /**
+     * The lines of a file, each with the "\n" or "\r\n" that follows it in
+     * the file.
+     */
+    private static class FileLines {
+        // the lines, without their terminators
+        final List<String> lines;
+        // the terminator of each line, "" for a last line without one
+        final List<String> terminators;
+
+        /**
+         * Constructs a FileLines with no lines.
+         *
+         * @param capacity the number of lines that it is expected to hold
+         */
+        FileLines(int capacity) {
+            lines = new ArrayList<String>(capacity);
+            terminators = new ArrayList<String>(capacity);
+        }
+
+        /**
+         * Appends a line and its terminator.
+         */
+        void add(String line, String terminator) {
+            lines.add(line);
+            terminators.add(terminator);
+        }
+
+        /**
+         * Appends the lines [from, to) of the specified file with their
+         * terminators.
+         */
+        void copy(FileLines file, int from, int to) {
+            lines.addAll(file.lines.subList(from, to));
+            terminators.addAll(file.terminators.subList(from, to));
+        }
+
+        /**
+         * Returns the terminator of a line inserted after the last line of
+         * this FileLines, which is the terminator of that line if it has one.
+         *
+         * @param file the FileLines that this is patched from
+         */
+        String insertedTerminator(FileLines file) {
+            int last = terminators.size() - 1;
+            return last >= 0 && !terminators.get(last).isEmpty() ? terminators.get(last) : file.firstTerminator();
+        }
+
+        /**
+         * Gives a terminator to each line without one that is no longer the
+         * last line, since lines were inserted after it.
+         *
+         * @param file the FileLines that this is patched from
+         */
+        void terminateAllButLast(FileLines file) {
+            for (int i = 0; i < lines.size() - 1; ++i) {
+                if (terminators.get(i).isEmpty()) {
+                    terminators.set(i, i > 0 ? terminators.get(i - 1) : file.firstTerminator());
+                }
+            }
+        }
+
+        /**
+         * Gives the last line the terminator of the line before it, or takes
+         * its terminator away, as a "\\ No newline at end of file" marker of
+         * the diff says.
+         *
+         * @param terminated true if the last line ends with a newline
+         * @param file the FileLines that this is patched from
+         */
+        void terminateLast(boolean terminated, FileLines file) {
+            int last = lines.size() - 1;
+            if (last < 0) {
+                return;
+            }
+            if (!terminated) {
+                terminators.set(last, "");
+            } else if (terminators.get(last).isEmpty()) {
+                terminators.set(last, last > 0 ? terminators.get(last - 1) : file.firstTerminator());
+            }
+        }
+
+        /**
+         * Returns the first terminator of this FileLines, or "\n" if no line
+         * has one.
+         */
+        String firstTerminator() {
+            for (String terminator : terminators) {
+                if (!terminator.isEmpty()) {
+                    return terminator;
+                }
+            }
+            return "\n";
+        }
+    }
+
+    /**
+     * A HunkFailure is thrown when a hunk of a diff does not apply.
+     */
+    private static class HunkFailure extends Exception {
+        private static final long serialVersionUID = 1L;
+        // the index of the hunk in its diff
+        final int hunkIndex;
+
+        /**
+         * Constructs a new HunkFailure.
+         *
+         * @param hunkIndex the index of the hunk that does not apply
+         */
+        HunkFailure(int hunkIndex) {
+            super(null, null, false, false);
+            this.hunkIndex = hunkIndex;
+        }
+    }
+
+    /**
+     * The outcome of patching a file.
+     */
+    public enum Status {
+        MODIFIED, CREATED, DELETED, FAILED
+    }
+
+    /**
+     * A Result is the outcome of applying the diffs of a patch to one file.
+     */
+    public static class Result {
+        private final Path path;
+        private final Status status;
+        private final int failedHunk;
+        private final String message;
+
+        /**
+         * Constructs a new Result.
+         *
+         * @param path the absolute path of the file
+         * @param status the outcome of patching the file
+         * @param failedHunk the index of the hunk that did not apply, -1 if
+         *                   there is none
+         * @param message the reason the file could not be patched, null if it
+         *                was patched
+         */
+        Result(Path path, Status status, int failedHunk, String message) {
+            this.path = path;
+            this.status = status;
+            this.failedHunk = failedHunk;
+            this.message = message;
+        }
+
+        /**
+         * Returns the absolute path of the file.
+         *
+         * @return the path of the patched file
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the outcome of patching the file. In a dry run, this is the
+         * outcome that applying the patch would have.
+         *
+         * @return the Status of the file
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the index within its diff of the hunk that did not apply.
+         *
+         * @return the index of the failed hunk, -1 if no hunk failed
+         */
+        public int getFailedHunk() {
+            return failedHunk;
+        }
+
+        /**
+         * Returns the reason the file could not be patched.
+         *
+         * @return a description of the failure, null if the file was patched
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + path + (message == null ? "" : ": " + message);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package edu.washington.cs.dericp.diffutils.patch;
+
+import edu.washington.cs.dericp.diffutils.Utils;
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>PatchComposer composes two patches that are applied one after the other
+ * into one patch that has the same effect, without the files that they are
+ * applied to.</p>
+ *
+ * <p>If the first patch turns a base version of the files into an
+ * intermediate version, and the second patch turns the intermediate version
+ * into a final version, the composed patch turns the base version into the
+ * final version. The hunks of both patches are placed by their line numbers
+ * in the intermediate version, which is the revised side of the first patch
+ * and the original side of the second. Hunks that overlap or touch there are
+ * merged line by line into one hunk, and every other hunk is carried over
+ * with its line numbers shifted by the hunks of the other patch before it.
+ * Lines that the first patch deletes and the second inserts again at the same
+ * place become context lines, and a merged hunk that changes nothing is left
+ * out. Composing takes one pass over the hunks of both patches.</p>
+ *
+ * <p>PatchComposer is a collection of static methods and does not represent
+ * anything.</p>
+ */
+public class PatchComposer {
+    /**
+     * This private constructor prevents clients from instantiating
+     * PatchComposer.
+     */
+    private PatchComposer() {
+
+    }
+
+    /**
+     * Composes the specified patches. The diffs of the composed patch are in
+     * the order of the diffs of the first patch, followed by the diffs of the
+     * second patch of files that the first patch does not change. A file whose
+     * changes cancel out has no diff in the composed patch.
+     *
+     * @param first the patch that turns the base version into the
+     *              intermediate version
+     * @param second the patch that turns the intermediate version into the
+     *               final version
+     * @return a new patch that turns the base version into the final version
+     * @throws IllegalArgumentException if a patch changes the same file more
+     *                                  than once, or if the second patch does
+     *                                  not apply to the intermediate version
+     */
+    public static MultiFileUnifiedDiff compose(MultiFileUnifiedDiff first, MultiFileUnifiedDiff second) {
+        // the diffs of the second patch by the name of their file in the
+        // intermediate version
+        Map<String, SingleFileUnifiedDiff> secondDiffs = new LinkedHashMap<String, SingleFileUnifiedDiff>();
+        for (SingleFileUnifiedDiff diff : second.getDiffs()) {
+            if (diff != null && secondDiffs.put(intermediateName(diff, false), diff) != null) {
+                throw new IllegalArgumentException("The second patch changes "
+                        + intermediateName(diff, false) + " more than once");
+            }
+        }
+
+        List<SingleFileUnifiedDiff> composed = new ArrayList<SingleFileUnifiedDiff>();
+        Set<String> firstNames = new HashSet<String>();
+        for (SingleFileUnifiedDiff diff : first.getDiffs()) {
+            if (diff == null) {
+                continue;
+            }
+            String name = intermediateName(diff, true);
+            if (!firstNames.add(name)) {
+                throw new IllegalArgumentException("The first patch changes " + name + " more than once");
+            }
+            SingleFileUnifiedDiff secondDiff = secondDiffs.remove(name);
+            if (secondDiff == null) {
+                composed.add(new SingleFileUnifiedDiff(diff));
+            } else {
+                SingleFileUnifiedDiff composedDiff = compose(diff, secondDiff);
+                // a file that is created or deleted keeps its diff even if the
+                // file is empty
+                if (composedDiff.numHunks() > 0 || Utils.isDevNull(Utils.diffPath(composedDiff.getOriginalDiffPath()))
+                        != Utils.isDevNull(Utils.diffPath(composedDiff.getRevisedDiffPath()))) {
+                    composed.add(composedDiff);
+                }
+            }
+        }
+        for (SingleFileUnifiedDiff diff : secondDiffs.values()) {
+            composed.add(new SingleFileUnifiedDiff(diff));
+        }
+        return new MultiFileUnifiedDiff(composed.iterator());
+    }
+
+    /**
+     * Composes the specified diffs of one file. The composed diff has the
+     * original path of the first diff and the revised path of the second.
+     *
+     * @param first the diff that turns the base version of the file into the
+     *              intermediate version
+     * @param second the diff that turns the intermediate version of the file
+     *               into the final version
+     * @return a new diff that turns the base version into the final version,
+     *         with no hunks if the changes of the diffs cancel out
+     * @throws IllegalArgumentException if the second diff does not apply to
+     *                                  the intermediate version
+     */
+    public static SingleFileUnifiedDiff compose(SingleFileUnifiedDiff first, SingleFileUnifiedDiff second) {
+        String originalPath = Utils.diffPath(first.getOriginalDiffPath());
+        String revisedPath = Utils.diffPath(second.getRevisedDiffPath());
+        List<String> diffLines = new ArrayList<String>();
+        diffLines.add("diff --git "
+                + (Utils.isDevNull(originalPath) ? "a/" + Utils.stripPrefix(revisedPath) : originalPath) + ' '
+                + (Utils.isDevNull(revisedPath) ? "b/" + Utils.stripPrefix(originalPath) : revisedPath));
+        diffLines.add(first.getOriginalDiffPath());
+        diffLines.add(second.getRevisedDiffPath());
+        diffLines.addAll(composeHunks(first.getHunks(), second.getHunks()));
+        return new SingleFileUnifiedDiff(diffLines);
+    }
+
+    /**
+     * Returns the lines of the hunks that have the same effect as the
+     * specified hunks of the first diff followed by the specified hunks of
+     * the second diff.
+     *
+     * @param first the hunks of the first diff, in order, null for a removed
+     *              hunk
+     * @param second the hunks of the second diff, in order, null for a removed
+     *               hunk
+     * @return the lines of the composed hunks, each starting with its
+     *         context information
+     */
+    private static List<String> composeHunks(List<UnifiedHunk> first, List<UnifiedHunk> second) {
+        List<String> lines = new ArrayList<String>();
+        Iterator<UnifiedHunk> firstIter = liveHunks(first).iterator();
+        Iterator<UnifiedHunk> secondIter = liveHunks(second).iterator();
+        UnifiedHunk nextFirst = firstIter.hasNext() ? firstIter.next() : null;
+        UnifiedHunk nextSecond = secondIter.hasNext() ? secondIter.next() : null;
+        // the growth of the file caused by the hunks of each diff that are
+        // before the current cluster
+        int firstDelta = 0;
+        int secondDelta = 0;
+        while (nextFirst != null || nextSecond != null) {
+            // the hunks that overlap or touch in the intermediate version, and
+            // the range [start, end) of the intermediate version that they span
+            List<UnifiedHunk> firstCluster = new ArrayList<UnifiedHunk>();
+            List<UnifiedHunk> secondCluster = new ArrayList<UnifiedHunk>();
+            boolean firstIsNext = nextSecond == null
+                    || (nextFirst != null
+                        && intermediateStart(nextFirst, true) <= intermediateStart(nextSecond, false));
+            int start = firstIsNext ? intermediateStart(nextFirst, true) : intermediateStart(nextSecond, false);
+            int end = start;
+            while (true) {
+                if (nextFirst != null && intermediateStart(nextFirst, true) <= end) {
+                    end = Math.max(end, intermediateStart(nextFirst, true) + nextFirst.getRevisedHunkSize());
+                    firstCluster.add(nextFirst);
+                    nextFirst = firstIter.hasNext() ? firstIter.next() : null;
+                } else if (nextSecond != null && intermediateStart(nextSecond, false) <= end) {
+                    end = Math.max(end, intermediateStart(nextSecond, false) + nextSecond.getOriginalHunkSize());
+                    secondCluster.add(nextSecond);
+                    nextSecond = secondIter.hasNext() ? secondIter.next() : null;
+                } else {
+                    break;
+                }
+            }
+
+            composeCluster(firstCluster, secondCluster, start, end, start - firstDelta, start + secondDelta, lines);
+            for (UnifiedHunk hunk : firstCluster) {
+                firstDelta += hunk.getRevisedHunkSize() - hunk.getOriginalHunkSize();
+            }
+            for (UnifiedHunk hunk : secondCluster) {
+                secondDelta += hunk.getRevisedHunkSize() - hunk.getOriginalHunkSize();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Merges the specified cluster of hunks into one hunk and appends its
+     * lines, unless the changes of the hunks cancel out.
+     *
+     * @param firstHunks the hunks of the first diff in the cluster
+     * @param secondHunks the hunks of the second diff in the cluster
+     * @param start the zero-based index of the first line of the intermediate
+     *              version spanned by the cluster
+     * @param end one past the last line of the intermediate version spanned
+     *            by the cluster
+     * @param originalStart the zero-based index of the line of the base
+     *                      version that corresponds to start
+     * @param revisedStart the zero-based index of the line of the final
+     *                     version that corresponds to start
+     * @param lines the lines that the merged hunk is appended to
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void composeCluster(List<UnifiedHunk> firstHunks, List<UnifiedHunk> secondHunks,
+                                       int start, int end, int originalStart, int revisedStart,
+                                       List<String> lines) {
+        int size = end - start;
+        // the lines of the intermediate version, which of them the first diff
+        // inserts and the second diff deletes, and the lines that the first
+        // diff deletes and the second diff inserts before each of them
+        String[] intermediate = new String[size];
+        boolean[] inserted = new boolean[size];
+        boolean[] deleted = new boolean[size];
+        List<String>[] deletedBefore = new List[size + 1];
+        List<String>[] insertedBefore = new List[size + 1];
+
+        for (UnifiedHunk hunk : firstHunks) {
+            int p = intermediateStart(hunk, true) - start;
+            for (LineChange change : hunk.getHunkLines()) {
+                if (change == null) {
+                    continue;
+                }
+                if (change.getType() == LineChange.Type.DELETION) {
+                    deletedBefore[p] = add(deletedBefore[p], change.getContent());
+                } else {
+                    setLine(intermediate, p, change.getContent());
+                    inserted[p] = change.getType() == LineChange.Type.INSERTION;
+                    ++p;
+                }
+            }
+        }
+        for (UnifiedHunk hunk : secondHunks) {
+            int p = intermediateStart(hunk, false) - start;
+            for (LineChange change : hunk.getHunkLines()) {
+                if (change == null) {
+                    continue;
+                }
+                if (change.getType() == LineChange.Type.INSERTION) {
+                    insertedBefore[p] = add(insertedBefore[p], change.getContent());
+                } else {
+                    setLine(intermediate, p, change.getContent());
+                    deleted[p] = change.getType() == LineChange.Type.DELETION;
+                    ++p;
+                }
+            }
+        }
+
+        List<String> hunkLines = new ArrayList<String>();
+        int originalSize = 0;
+        int revisedSize = 0;
+        boolean changed = false;
+        for (int p = 0; p <= size; ++p) {
+            List<String> deletions = deletedBefore[p] == null ? Collections.<String>emptyList() : deletedBefore[p];
+            List<String> insertions = insertedBefore[p] == null ? Collections.<String>emptyList() : insertedBefore[p];
+            // lines that the first diff deletes and the second diff inserts
+            // again at the same place are context lines of the composed hunk
+            int prefix = 0;
+            while (prefix < deletions.size() && prefix < insertions.size()
+                    && deletions.get(prefix).equals(insertions.get(prefix))) {
+                ++prefix;
+            }
+            int suffix = 0;
+            while (suffix < deletions.size() - prefix && suffix < insertions.size() - prefix
+                    && deletions.get(deletions.size() - 1 - suffix)
+                            .equals(insertions.get(insertions.size() - 1 - suffix))) {
+                ++suffix;
+            }
+            for (String content : deletions.subList(0, prefix)) {
+                hunkLines.add(' ' + content);
+            }
+            for (String content : deletions.subList(prefix, deletions.size() - suffix)) {
+                hunkLines.add('-' + content);
+                changed = true;
+            }
+            for (String content : insertions.subList(prefix, insertions.size() - suffix)) {
+                hunkLines.add('+' + content);
+                changed = true;
+            }
+            for (String content : deletions.subList(deletions.size() - suffix, deletions.size())) {
+                hunkLines.add(' ' + content);
+            }
+            originalSize += deletions.size();
+            revisedSize += insertions.size();
+            if (p == size || (inserted[p] && deleted[p])) {
+                // a line that only the intermediate version has
+                continue;
+            }
+            if (intermediate[p] == null) {
+                throw new IllegalStateException("Line " + (start + p + 1) + " is not covered by the hunks");
+            }
+            if (inserted[p]) {
+                hunkLines.add('+' + intermediate[p]);
+                ++revisedSize;
+                changed = true;
+            } else if (deleted[p]) {
+                hunkLines.add('-' + intermediate[p]);
+                ++originalSize;
+                changed = true;
+            } else {
+                hunkLines.add(' ' + intermediate[p]);
+                ++originalSize;
+                ++revisedSize;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        lines.add("@@ -" + UnifiedHunk.lineNumber(originalStart, originalSize) + ',' + originalSize
+                + " +" + UnifiedHunk.lineNumber(revisedStart, revisedSize) + ',' + revisedSize + " @@");
+        lines.addAll(hunkLines);
+    }
+
+    /**
+     * Sets the line of the intermediate version at the specified index,
+     * checking that both diffs agree on its content.
+     *
+     * @param intermediate the lines of the intermediate version in a cluster
+     * @param p the index of the line in the cluster
+     * @param content the content of the line
+     * @throws IllegalArgumentException if the line has a different content
+     */
+    private static void setLine(String[] intermediate, int p, String content) {
+        if (intermediate[p] != null && !intermediate[p].equals(content)) {
+            throw new IllegalArgumentException("The second patch does not apply to the result of the first: \""
+                    + content + "\" does not match \"" + intermediate[p] + '"');
+        }
+        intermediate[p] = content;
+    }
+
+    /**
+     * Adds the specified content to the specified list, creating it if it is
+     * null.
+     *
+     * @return the list that content was added to
+     */
+    private static List<String> add(List<String> list, String content) {
+        if (list == null) {
+            list = new ArrayList<String>(2);
+        }
+        list.add(content);
+        return list;
+    }
+
+    /**
+     * Returns the zero-based index of the first line of the intermediate
+     * version that the specified hunk spans.
+     *
+     * @param hunk a hunk of the first or second diff
+     * @param isFirst true if hunk is a hunk of the first diff, whose revised
+     *                side is the intermediate version
+     * @return the index of the first line of hunk in the intermediate version
+     */
+    private static int intermediateStart(UnifiedHunk hunk, boolean isFirst) {
+        return isFirst ? hunk.getRevisedStart() : hunk.getOriginalStart();
+    }
+
+    /**
+     * Returns the hunks of the specified list that have not been removed.
+     */
+    private static List<UnifiedHunk> liveHunks(List<UnifiedHunk> hunks) {
+        List<UnifiedHunk> live = new ArrayList<UnifiedHunk>(hunks.size());
+        for (UnifiedHunk hunk : hunks) {
+            if (hunk != null) {
+                live.add(hunk);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Returns the name of the file of the specified diff in the intermediate
+     * version, or its name in the other version if the file does not exist
+     * in the intermediate version.
+     *
+     * @param diff a diff of the first or second patch
+     * @param isFirst true if diff is a diff of the first patch
+     * @return the path of the file without its a/ or b/ prefix
+     */
+    private static String intermediateName(SingleFileUnifiedDiff diff, boolean isFirst) {
+        String intermediate = Utils.diffPath(isFirst ? diff.getRevisedDiffPath() : diff.getOriginalDiffPath());
+        String other = Utils.diffPath(isFirst ? diff.getOriginalDiffPath() : diff.getRevisedDiffPath());
+        return Utils.stripPrefix(Utils.isDevNull(intermediate) ? other : intermediate);
+    }
+}
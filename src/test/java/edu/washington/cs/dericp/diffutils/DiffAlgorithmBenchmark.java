@@ -0,0 +1,146 @@
+package edu.washington.cs.dericp.diffutils;
+
+import edu.washington.cs.dericp.diffutils.algorithm.DiffAlgorithm;
+import edu.washington.cs.dericp.diffutils.algorithm.HistogramDiff;
+import edu.washington.cs.dericp.diffutils.algorithm.MyersDiff;
+import edu.washington.cs.dericp.diffutils.algorithm.PatienceDiff;
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times each DiffAlgorithm on the files of the test patches and on large
+ * synthetic files, and prints the time taken and the number of hunks and
+ * changed lines produced. Run it with the test classes on the classpath, from
+ * the root of the project.
+ */
+public class DiffAlgorithmBenchmark {
+    private static final String[] TEST_DIFFS = {"TestDiff1.test", "TestDiff2.test", "TestDiff3.test"};
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        DiffAlgorithm[] algorithms = {new MyersDiff(), new PatienceDiff(), new HistogramDiff()};
+
+        for (String testDiff : TEST_DIFFS) {
+            // the original and revised content of the files of the patch, as
+            // far as its hunks show it
+            List<String> original = new ArrayList<String>();
+            List<String> revised = new ArrayList<String>();
+            MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(DiffAlgorithmTests.TEST_DIR + testDiff);
+            for (SingleFileUnifiedDiff diff : patch.getDiffs()) {
+                for (UnifiedHunk hunk : diff.getHunks()) {
+                    for (LineChange change : hunk.getHunkLines()) {
+                        if (change.getType() != LineChange.Type.INSERTION) {
+                            original.add(change.getContent());
+                        }
+                        if (change.getType() != LineChange.Type.DELETION) {
+                            revised.add(change.getContent());
+                        }
+                    }
+                }
+            }
+            run(testDiff, algorithms, original, revised);
+        }
+
+        Random random = new Random(42);
+        List<String> source = sourceLines(random, 100000);
+        run("100000 lines, 500 edits", algorithms, source, edit(random, source, 500));
+        run("100000 lines, 20 moved blocks", algorithms, source, moveBlocks(random, source, 20));
+        List<String> repetitive = new ArrayList<String>();
+        for (int i = 0; i < 20000; ++i) {
+            repetitive.add(i % 10 == 0 ? "" : "}");
+        }
+        run("20000 repetitive lines, 200 edits", algorithms, repetitive, edit(random, repetitive, 200));
+    }
+
+    /**
+     * Times each algorithm on the specified lines and prints the results.
+     */
+    private static void run(String name, DiffAlgorithm[] algorithms, List<String> original, List<String> revised) {
+        System.out.println(name + " (" + original.size() + " -> " + revised.size() + " lines)");
+        for (DiffAlgorithm algorithm : algorithms) {
+            List<UnifiedHunk> hunks = null;
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                hunks = algorithm.diffHunks(original, revised);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; ++i) {
+                hunks = algorithm.diffHunks(original, revised);
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / RUNS;
+            int changes = 0;
+            for (UnifiedHunk hunk : hunks) {
+                for (LineChange change : hunk.getHunkLines()) {
+                    if (change.getType() != LineChange.Type.CONTEXT) {
+                        ++changes;
+                    }
+                }
+            }
+            System.out.printf("  %-14s %10.2f ms %7d hunks %8d changed lines%n",
+                    algorithm.getClass().getSimpleName(), millis, hunks.size(), changes);
+        }
+    }
+
+    /**
+     * Returns lines resembling source code, with many repeated lines.
+     */
+    private static List<String> sourceLines(Random random, int size) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < size; ++i) {
+            int kind = random.nextInt(10);
+            if (kind < 2) {
+                lines.add("}");
+            } else if (kind < 3) {
+                lines.add("");
+            } else {
+                lines.add("    statement" + random.nextInt(size) + "();");
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a copy of lines with the specified number of lines inserted,
+     * deleted or replaced at random.
+     */
+    private static List<String> edit(Random random, List<String> lines, int edits) {
+        List<String> edited = new ArrayList<String>(lines);
+        for (int i = 0; i < edits; ++i) {
+            int index = random.nextInt(edited.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited.add(index, "    inserted" + i + "();");
+                    break;
+                case 1:
+                    edited.remove(index);
+                    break;
+                default:
+                    edited.set(index, "    replaced" + i + "();");
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * Returns a copy of lines with the specified number of blocks of lines
+     * moved elsewhere.
+     */
+    private static List<String> moveBlocks(Random random, List<String> lines, int moves) {
+        List<String> moved = new ArrayList<String>(lines);
+        for (int i = 0; i < moves; ++i) {
+            int length = 1 + random.nextInt(50);
+            int from = random.nextInt(moved.size() - length);
+            List<String> block = new ArrayList<String>(moved.subList(from, from + length));
+            moved.subList(from, from + length).clear();
+            moved.addAll(random.nextInt(moved.size()), block);
+        }
+        return moved;
+    }
+}
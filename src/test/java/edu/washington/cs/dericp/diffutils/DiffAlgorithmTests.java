@@ -0,0 +1,219 @@
+package edu.washington.cs.dericp.diffutils;
+
+import static org.junit.Assert.*;
+
+import edu.washington.cs.dericp.diffutils.algorithm.DiffAlgorithm;
+import edu.washington.cs.dericp.diffutils.algorithm.DirectoryDiff;
+import edu.washington.cs.dericp.diffutils.algorithm.HistogramDiff;
+import edu.washington.cs.dericp.diffutils.algorithm.MyersDiff;
+import edu.washington.cs.dericp.diffutils.algorithm.PatienceDiff;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+import edu.washington.cs.dericp.diffutils.patch.PatchApplier;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+public class DiffAlgorithmTests {
+
+    public static final String TEST_DIR = "src/test/java/edu/washington/cs/dericp/diffutils/";
+    public static final String TEST_DIFF_1 = TEST_DIR + "TestDiff1.test";
+    public static final String TEST_DIFF_3 = TEST_DIR + "TestDiff3.test";
+
+    @Test
+    public void testMyersHunks() {
+        List<String> original = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k");
+        List<String> revised = Arrays.asList("a", "B", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l");
+        SingleFileUnifiedDiff diff = new MyersDiff(1).diff("file", original, "file", revised);
+        assertEquals(Arrays.asList(
+                "diff --git a/file b/file",
+                "--- a/file",
+                "+++ b/file",
+                "@@ -1,3 +1,3 @@",
+                " a",
+                "-b",
+                "+B",
+                " c",
+                "@@ -11,1 +11,2 @@",
+                " k",
+                "+l"), diff.diffToLines());
+
+        List<UnifiedHunk> hunks = new MyersDiff().diffHunks(original, revised);
+        assertEquals(2, hunks.size());
+        assertEquals("@@ -9,3 +9,4 @@", hunks.get(1).getContextInfo());
+        assertTrue(new MyersDiff().diffHunks(original, original).isEmpty());
+    }
+
+    @Test
+    public void testMyersAppliesToRevised() throws IOException {
+        // the lines of the test patches serve as files with shared lines
+        assertRoundTrip(new MyersDiff(), Utils.readFile(TEST_DIFF_1), Utils.readFile(TEST_DIFF_3));
+        assertRoundTrip(new MyersDiff(0), Utils.readFile(TEST_DIFF_3), Utils.readFile(TEST_DIFF_1));
+        assertRoundTrip(new MyersDiff(), new ArrayList<String>(), Arrays.asList("x", "y"));
+        assertRoundTrip(new MyersDiff(), Arrays.asList("x", "y"), new ArrayList<String>());
+
+        Random random = new Random(42);
+        for (int trial = 0; trial < 200; ++trial) {
+            assertRoundTrip(new MyersDiff(random.nextInt(4)), randomLines(random), randomLines(random));
+        }
+    }
+
+    @Test
+    public void testPatienceAndHistogramAppliesToRevised() throws IOException {
+        DiffAlgorithm[] algorithms = {new PatienceDiff(), new HistogramDiff(), new PatienceDiff(0),
+                new HistogramDiff(0)};
+        Random random = new Random(42);
+        for (DiffAlgorithm algorithm : algorithms) {
+            assertRoundTrip(algorithm, Utils.readFile(TEST_DIFF_1), Utils.readFile(TEST_DIFF_3));
+            assertRoundTrip(algorithm, Utils.readFile(TEST_DIFF_3), Utils.readFile(TEST_DIFF_1));
+            assertRoundTrip(algorithm, new ArrayList<String>(), Arrays.asList("x", "y"));
+            assertRoundTrip(algorithm, Arrays.asList("x", "y"), new ArrayList<String>());
+            assertTrue(algorithm.diffHunks(Arrays.asList("x", "y"), Arrays.asList("x", "y")).isEmpty());
+            for (int trial = 0; trial < 200; ++trial) {
+                assertRoundTrip(algorithm, randomLines(random), randomLines(random));
+            }
+        }
+    }
+
+    @Test
+    public void testPatienceAndHistogramKeepFunctions() {
+        // swapping f() and g() leaves lines that a shortest edit script may
+        // match across the two functions, but patience and histogram diff
+        // keep one function whole as the context of a single hunk
+        List<String> original = Arrays.asList("void f() {", "  a();", "}", "", "void g() {", "  b();", "}");
+        List<String> revised = Arrays.asList("void g() {", "  b();", "}", "", "void f() {", "  a();", "}");
+        for (DiffAlgorithm algorithm : new DiffAlgorithm[] {new PatienceDiff(), new HistogramDiff()}) {
+            List<UnifiedHunk> hunks = algorithm.diffHunks(original, revised);
+            assertEquals(1, hunks.size());
+            List<String> context = new ArrayList<String>();
+            for (String line : hunks.get(0).hunkToLines()) {
+                if (line.startsWith(" ")) {
+                    context.add(line.substring(1));
+                }
+            }
+            assertTrue(context.equals(original.subList(0, 3)) || context.equals(original.subList(4, 7)));
+        }
+    }
+
+    @Test
+    public void testDirectoryDiff() throws IOException, InterruptedException {
+        Path original = Files.createTempDirectory("DiffAlgorithmTests");
+        Path revised = Files.createTempDirectory("DiffAlgorithmTests");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Files.createDirectories(original.resolve("dir"));
+            Files.createDirectories(revised.resolve("dir"));
+            Files.write(original.resolve("same.txt"), Arrays.asList("a", "b"));
+            Files.write(revised.resolve("same.txt"), Arrays.asList("a", "b"));
+            Files.write(original.resolve("dir/changed.txt"), Arrays.asList("a", "b", "c"));
+            Files.write(revised.resolve("dir/changed.txt"), Arrays.asList("a", "B", "c"));
+            Files.write(original.resolve("deleted.txt"), Arrays.asList("x"));
+            Files.write(revised.resolve("created.txt"), Arrays.asList("y", "z"));
+            // the same size and time are trusted to mean the same contents
+            Files.write(original.resolve("stale.txt"), Arrays.asList("1"));
+            Files.write(revised.resolve("stale.txt"), Arrays.asList("2"));
+            FileTime time = FileTime.fromMillis(1000000000000L);
+            Files.setLastModifiedTime(original.resolve("stale.txt"), time);
+            Files.setLastModifiedTime(revised.resolve("stale.txt"), time);
+            Files.setLastModifiedTime(original.resolve("dir/changed.txt"), time);
+            Files.setLastModifiedTime(revised.resolve("dir/changed.txt"), FileTime.fromMillis(1000000001000L));
+
+            MultiFileUnifiedDiff patch = new DirectoryDiff(new MyersDiff(), executor).diff(original, revised);
+            List<String> paths = new ArrayList<String>();
+            for (SingleFileUnifiedDiff diff : patch.getDiffs()) {
+                paths.add(diff.getOriginalDiffPath() + ' ' + diff.getRevisedDiffPath());
+            }
+            assertEquals(Arrays.asList(
+                    "--- /dev/null +++ b/created.txt",
+                    "--- a/deleted.txt +++ /dev/null",
+                    "--- a/dir/changed.txt +++ b/dir/changed.txt"), paths);
+            assertEquals(patch, new DirectoryDiff(new MyersDiff()).diff(original, revised));
+
+            DirectoryDiff untrusting = new DirectoryDiff(new HistogramDiff());
+            untrusting.setTrustModifiedTimes(false);
+            patch = untrusting.diff(original, revised);
+            assertEquals(4, patch.numDiffs());
+            new PatchApplier(original).apply(patch);
+            assertTrue(new DirectoryDiff(new MyersDiff()).diff(original, revised).getDiffs().isEmpty());
+            assertEquals(Arrays.asList("y", "z"), Files.readAllLines(original.resolve("created.txt")));
+            assertFalse(Files.exists(original.resolve("deleted.txt")));
+
+            // files that only differ in their line terminators are only left
+            // out if line terminators are ignored
+            Files.write(original.resolve("crlf.txt"), "a\r\nb\r\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(revised.resolve("crlf.txt"), "a\nb\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(original.resolve("newline.txt"), "a\nb\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(revised.resolve("newline.txt"), "a\nb".getBytes(StandardCharsets.UTF_8));
+            DirectoryDiff strict = new DirectoryDiff(new MyersDiff());
+            patch = strict.diff(original, revised);
+            assertEquals(2, patch.numDiffs());
+            assertEquals("--- a/crlf.txt", patch.getDiff(0).getOriginalDiffPath());
+            assertEquals(Arrays.asList("@@ -1,2 +1,2 @@", "-a\r", "-b\r", "+a", "+b"),
+                    patch.getDiff(0).getHunk(0).hunkToLines());
+            assertEquals("--- a/newline.txt", patch.getDiff(1).getOriginalDiffPath());
+            assertEquals(0, patch.getDiff(1).numHunks());
+            strict.setIgnoreLineTerminators(true);
+            assertTrue(strict.diff(original, revised).getDiffs().isEmpty());
+
+            // binary files are not decoded, and their diffs have no hunks
+            Files.write(original.resolve("image.bin"), new byte[] {'P', 'N', 'G', 0, 1});
+            Files.write(revised.resolve("image.bin"), new byte[] {'P', 'N', 'G', 0, 2});
+            Files.write(revised.resolve("new.bin"), new byte[] {0});
+            Files.setLastModifiedTime(revised.resolve("image.bin"), time);
+            patch = strict.diff(original, revised);
+            assertEquals(Arrays.asList(
+                    "diff --git a/image.bin b/image.bin",
+                    "Binary files a/image.bin and b/image.bin differ",
+                    "diff --git a/new.bin b/new.bin",
+                    "Binary files /dev/null and b/new.bin differ"), patch.getPatchLines());
+            assertTrue(new PatchApplier(original).apply(patch).isEmpty());
+        } finally {
+            executor.shutdown();
+            delete(original);
+            delete(revised);
+        }
+    }
+
+    /**
+     * Deletes the directory tree at the specified root.
+     */
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Asserts that the diff of original and revised turns original into
+     * revised.
+     */
+    static void assertRoundTrip(DiffAlgorithm algorithm, List<String> original, List<String> revised) {
+        SingleFileUnifiedDiff diff = algorithm.diff("file", original, "file", revised);
+        assertEquals(revised, new ArrayList<String>(diff.apply(original)));
+    }
+
+    /**
+     * Returns up to 30 lines drawn from a small alphabet, so that lines repeat.
+     */
+    static List<String> randomLines(Random random) {
+        List<String> lines = new ArrayList<String>();
+        int size = random.nextInt(30);
+        for (int i = 0; i < size; ++i) {
+            lines.add(String.valueOf((char) ('a' + random.nextInt(5))));
+        }
+        return lines;
+    }
+}
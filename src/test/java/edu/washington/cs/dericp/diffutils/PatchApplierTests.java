@@ -0,0 +1,243 @@
+package edu.washington.cs.dericp.diffutils;
+
+import static org.junit.Assert.*;
+
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.patch.PatchApplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+public class PatchApplierTests {
+
+    private static final List<String> PATCH_LINES = Arrays.asList(
+            "diff --git a/one.txt b/one.txt",
+            "--- a/one.txt",
+            "+++ b/one.txt",
+            "@@ -1,3 +1,3 @@",
+            " a",
+            "-b",
+            "+B",
+            " c",
+            "diff --git a/dir/two.txt b/dir/two.txt",
+            "--- /dev/null",
+            "+++ b/dir/two.txt",
+            "@@ -0,0 +1,2 @@",
+            "+x",
+            "+y",
+            "diff --git a/three.txt b/three.txt",
+            "--- a/three.txt",
+            "+++ /dev/null",
+            "@@ -1,1 +0,0 @@",
+            "-gone");
+
+    private Path root;
+
+    @Before
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("PatchApplierTests");
+        Files.write(root.resolve("one.txt"), Arrays.asList("a", "b", "c"));
+        Files.write(root.resolve("three.txt"), Arrays.asList("gone"));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testApply() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<PatchApplier.Result> results =
+                    new PatchApplier(root, executor).apply(new MultiFileUnifiedDiff(PATCH_LINES));
+            assertEquals(PatchApplier.Status.MODIFIED, results.get(0).getStatus());
+            assertEquals(PatchApplier.Status.CREATED, results.get(1).getStatus());
+            assertEquals(PatchApplier.Status.DELETED, results.get(2).getStatus());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList("a", "B", "c"), Files.readAllLines(root.resolve("one.txt")));
+        assertEquals(Arrays.asList("x", "y"), Files.readAllLines(root.resolve("dir/two.txt")));
+        assertFalse(Files.exists(root.resolve("three.txt")));
+    }
+
+    @Test
+    public void testDryRunAndFailure() throws IOException, InterruptedException {
+        Files.write(root.resolve("one.txt"), Arrays.asList("a", "not b", "c"));
+        PatchApplier applier = new PatchApplier(root);
+        applier.setDryRun(true);
+        List<PatchApplier.Result> results = applier.apply(new MultiFileUnifiedDiff(PATCH_LINES));
+        assertEquals(PatchApplier.Status.FAILED, results.get(0).getStatus());
+        assertEquals(0, results.get(0).getFailedHunk());
+        assertEquals(PatchApplier.Status.CREATED, results.get(1).getStatus());
+        assertFalse(Files.exists(root.resolve("dir/two.txt")));
+        assertTrue(Files.exists(root.resolve("three.txt")));
+    }
+
+    @Test
+    public void testLaterHunksAfterSizeChange() throws IOException, InterruptedException {
+        List<String> patchLines = Arrays.asList(
+                "diff --git a/four.txt b/four.txt",
+                "--- a/four.txt",
+                "+++ b/four.txt",
+                "@@ -1,2 +1,3 @@",
+                " a",
+                "+new",
+                " b",
+                "@@ -6,3 +7,2 @@",
+                " f",
+                "-g",
+                " h");
+        Files.write(root.resolve("four.txt"), Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h"));
+        List<PatchApplier.Result> results = new PatchApplier(root).apply(new MultiFileUnifiedDiff(patchLines));
+        assertEquals(PatchApplier.Status.MODIFIED, results.get(0).getStatus());
+        assertEquals(Arrays.asList("a", "new", "b", "c", "d", "e", "f", "h"),
+                Files.readAllLines(root.resolve("four.txt")));
+    }
+
+    @Test
+    public void testModeOnlyDiff() throws IOException, InterruptedException {
+        List<String> patchLines = new ArrayList<String>(Arrays.asList(
+                "diff --git a/script b/script",
+                "old mode 100644",
+                "new mode 100755"));
+        patchLines.addAll(PATCH_LINES);
+        List<PatchApplier.Result> results = new PatchApplier(root).apply(new MultiFileUnifiedDiff(patchLines));
+        assertEquals(3, results.size());
+        assertEquals(PatchApplier.Status.MODIFIED, results.get(0).getStatus());
+        assertEquals(Arrays.asList("a", "B", "c"), Files.readAllLines(root.resolve("one.txt")));
+    }
+
+    @Test
+    public void testOffsetAndFuzz() throws IOException, InterruptedException {
+        List<String> patchLines = Arrays.asList(
+                "diff --git a/four.txt b/four.txt",
+                "--- a/four.txt",
+                "+++ b/four.txt",
+                "@@ -2,3 +2,3 @@",
+                " 1",
+                "-2",
+                "+two",
+                " 3",
+                "@@ -8,3 +8,4 @@",
+                " 7",
+                " 8",
+                "+eight",
+                " changed");
+        // two lines were added at the start of the file, and the last line
+        // of context of the second hunk has changed
+        Files.write(root.resolve("four.txt"), Arrays.asList("new", "new", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9"));
+        PatchApplier applier = new PatchApplier(root);
+        applier.setFuzz(0);
+        assertEquals(PatchApplier.Status.FAILED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        applier.setFuzz(1);
+        applier.setMaxOffset(1);
+        assertEquals(PatchApplier.Status.FAILED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        applier.setMaxOffset(2);
+        assertEquals(PatchApplier.Status.MODIFIED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        assertEquals(Arrays.asList("new", "new", "0", "1", "two", "3", "4", "5", "6", "7", "8", "eight", "9"),
+                Files.readAllLines(root.resolve("four.txt")));
+    }
+
+    @Test
+    public void testNoNewlineMarker() throws IOException, InterruptedException {
+        List<String> patchLines = Arrays.asList(
+                "diff --git a/five.txt b/five.txt",
+                "--- a/five.txt",
+                "+++ b/five.txt",
+                "@@ -1,2 +1,2 @@",
+                " one",
+                "-two",
+                "\\ No newline at end of file",
+                "+2");
+        Files.write(root.resolve("five.txt"), "one\ntwo".getBytes(StandardCharsets.UTF_8));
+        PatchApplier applier = new PatchApplier(root);
+        applier.setFuzz(0);
+        assertEquals(PatchApplier.Status.MODIFIED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        assertEquals("one\n2\n", new String(Files.readAllBytes(root.resolve("five.txt")), StandardCharsets.UTF_8));
+
+        // a patch that only adds the final newline, and its reverse
+        MultiFileUnifiedDiff addNewline = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/seven.txt b/seven.txt",
+                "--- a/seven.txt",
+                "+++ b/seven.txt",
+                "@@ -1,2 +1,2 @@",
+                " a",
+                "-b",
+                "\\ No newline at end of file",
+                "+b"));
+        assertEquals(Arrays.asList(" a", "-b", "\\ No newline at end of file", "+b"),
+                addNewline.getPatchLines().subList(4, 8));
+        Files.write(root.resolve("seven.txt"), "a\r\nb".getBytes(StandardCharsets.UTF_8));
+        assertEquals(PatchApplier.Status.MODIFIED, applier.apply(addNewline).get(0).getStatus());
+        assertEquals("a\r\nb\r\n", new String(Files.readAllBytes(root.resolve("seven.txt")), StandardCharsets.UTF_8));
+        assertEquals(PatchApplier.Status.MODIFIED, applier.apply(addNewline.reverse()).get(0).getStatus());
+        assertEquals("a\r\nb", new String(Files.readAllBytes(root.resolve("seven.txt")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testKeepsUntouchedBytes() throws IOException, InterruptedException {
+        List<String> patchLines = Arrays.asList(
+                "diff --git a/six.txt b/six.txt",
+                "--- a/six.txt",
+                "+++ b/six.txt",
+                "@@ -2,3 +2,3 @@",
+                " b",
+                "-c",
+                "+C",
+                " d\u00e9");
+        byte[] bytes = {'a', '\r', '\n', 'b', '\n', 'c', '\n', 'd', (byte) 0xE9, '\r', '\n'};
+        Files.write(root.resolve("six.txt"), bytes);
+
+        // the file is not valid UTF-8, so it is not patched
+        PatchApplier applier = new PatchApplier(root);
+        applier.setCharset(StandardCharsets.UTF_8);
+        assertEquals(PatchApplier.Status.FAILED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        assertArrayEquals(bytes, Files.readAllBytes(root.resolve("six.txt")));
+
+        // each line keeps its own terminator, and an inserted line takes the
+        // terminator of the line before it
+        applier.setCharset(StandardCharsets.ISO_8859_1);
+        assertEquals(PatchApplier.Status.MODIFIED, applier.apply(new MultiFileUnifiedDiff(patchLines)).get(0).getStatus());
+        assertArrayEquals(new byte[] {'a', '\r', '\n', 'b', '\n', 'C', '\n', 'd', (byte) 0xE9, '\r', '\n'},
+                Files.readAllBytes(root.resolve("six.txt")));
+    }
+
+    @Test
+    public void testBadPathFailsOnlyItsFile() throws IOException, InterruptedException {
+        List<String> patchLines = new ArrayList<String>(Arrays.asList(
+                "diff --git a/bad b/bad",
+                "--- a/b\u0000ad",
+                "+++ b/b\u0000ad",
+                "@@ -1,1 +1,1 @@",
+                "-x",
+                "+y"));
+        patchLines.addAll(PATCH_LINES);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<PatchApplier.Result> results =
+                    new PatchApplier(root, executor).apply(new MultiFileUnifiedDiff(patchLines));
+            assertEquals(4, results.size());
+            assertEquals(PatchApplier.Status.FAILED, results.get(0).getStatus());
+            assertEquals(PatchApplier.Status.MODIFIED, results.get(1).getStatus());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList("a", "B", "c"), Files.readAllLines(root.resolve("one.txt")));
+    }
+}
@@ -2,14 +2,22 @@ package edu.washington.cs.dericp.diffutils;
 
 import static org.junit.Assert.*;
 
+import edu.washington.cs.dericp.diffutils.algorithm.MyersDiff;
 import edu.washington.cs.dericp.diffutils.change.LineChange;
 import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
+import edu.washington.cs.dericp.diffutils.patch.HunkIndex;
 import edu.washington.cs.dericp.diffutils.patch.Patch;
+import edu.washington.cs.dericp.diffutils.patch.PatchComposer;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Created by dpang on 3/11/16.
@@ -67,5 +75,231 @@ public class PatchTests {
             e.printStackTrace();
         }
     }
-}
 
+    @Test
+    public void testRemoveChanges() throws IOException {
+        List<LineChange> changes = patch3.getChanges();
+        List<LineChange> removed = Arrays.asList(changes.get(0), changes.get(changes.size() - 1), changes.get(3));
+
+        Patch expected = new MultiFileUnifiedDiff(TEST_DIFF_3);
+        for (LineChange change : removed) {
+            expected.removeChange(change);
+        }
+        // the default methods of Patch remove the changes one at a time
+        Patch delegating = delegatingPatch(new MultiFileUnifiedDiff(TEST_DIFF_3));
+        delegating.removeChanges(removed);
+        assertEquals(expected.getPatchLines(), delegating.getPatchLines());
+
+        patch3.removeChanges(removed);
+        assertEquals(expected.getPatchLines(), patch3.getPatchLines());
+
+        delegating.retainChanges(change -> change.getType() != LineChange.Type.INSERTION);
+        expected.retainChanges(change -> change.getType() != LineChange.Type.INSERTION);
+        assertEquals(expected.getPatchLines(), delegating.getPatchLines());
+        delegating.compact();
+        assertEquals(expected.getPatchLines(), delegating.getPatchLines());
+
+        MultiFileUnifiedDiff oneByOne = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        MultiFileUnifiedDiff batched = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        for (int hunkIndex : Arrays.asList(0, 1, 3)) {
+            oneByOne.removeHunk(0, hunkIndex);
+        }
+        batched.removeHunks(0, Arrays.asList(3, 0, 1, 1, 7));
+        assertEquals(oneByOne.getPatchLines(), batched.getPatchLines());
+
+        patch1.retainChanges(change -> !change.equals(new LineChange("     *", 170, -1, LineChange.Type.DELETION)));
+        assertEquals(patch1.getPatchLines(), Utils.readFile(TEST_DIR + "TestDiff1RemoveChange(0, 2, 0).expected"));
+
+        patch2.retainChanges(change -> false);
+        for (String line : patch2.getPatchLines()) {
+            if ((line.startsWith("+") && !line.startsWith("+++")) || (line.startsWith("-") && !line.startsWith("---"))) {
+                fail("Change was not removed: " + line);
+            }
+        }
+    }
+
+    @Test
+    public void testCompose() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 300; ++trial) {
+            MyersDiff algorithm = new MyersDiff(random.nextInt(4));
+            List<String> base = DiffAlgorithmTests.randomLines(random);
+            List<String> intermediate = DiffAlgorithmTests.randomLines(random);
+            List<String> last = DiffAlgorithmTests.randomLines(random);
+            SingleFileUnifiedDiff composed = PatchComposer.compose(algorithm.diff("f", base, "f", intermediate),
+                    algorithm.diff("f", intermediate, "f", last));
+            assertEquals(last, new ArrayList<String>(composed.apply(base)));
+        }
+
+        MultiFileUnifiedDiff first = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/x b/x",
+                "--- a/x",
+                "+++ b/x",
+                "@@ -1,1 +1,1 @@",
+                "-x",
+                "+X",
+                "diff --git a/y b/y",
+                "--- /dev/null",
+                "+++ b/y",
+                "@@ -0,0 +1,2 @@",
+                "+one",
+                "+two"));
+        MultiFileUnifiedDiff second = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/y b/y",
+                "--- a/y",
+                "+++ b/y",
+                "@@ -1,2 +1,2 @@",
+                " one",
+                "-two",
+                "+2",
+                "diff --git a/z b/z",
+                "--- a/z",
+                "+++ /dev/null",
+                "@@ -1,1 +0,0 @@",
+                "-z"));
+        assertEquals(Arrays.asList(
+                "diff --git a/x b/x",
+                "--- a/x",
+                "+++ b/x",
+                "@@ -1,1 +1,1 @@",
+                "-x",
+                "+X",
+                "diff --git a/y b/y",
+                "--- /dev/null",
+                "+++ b/y",
+                "@@ -0,0 +1,2 @@",
+                "+one",
+                "+2",
+                "diff --git a/z b/z",
+                "--- a/z",
+                "+++ /dev/null",
+                "@@ -1,1 +0,0 @@",
+                "-z"), PatchComposer.compose(first, second).getPatchLines());
+
+        // changes that are undone leave nothing behind
+        MultiFileUnifiedDiff patch = (MultiFileUnifiedDiff) patch3;
+        assertEquals(0, PatchComposer.compose(patch, patch.reverse()).numDiffs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testComposeMismatch() {
+        MyersDiff algorithm = new MyersDiff();
+        PatchComposer.compose(algorithm.diff("f", Arrays.asList("a"), "f", Arrays.asList("b")),
+                algorithm.diff("f", Arrays.asList("c"), "f", Arrays.asList("d")));
+    }
+
+    @Test
+    public void testHunkIndex() {
+        MultiFileUnifiedDiff first = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/f b/f",
+                "--- a/f",
+                "+++ b/f",
+                "@@ -2,2 +2,2 @@",
+                " b",
+                "-c",
+                "+C",
+                "@@ -10,0 +11,1 @@",
+                "+new",
+                "diff --git a/g b/g",
+                "--- a/g",
+                "+++ b/g",
+                "@@ -1,1 +1,1 @@",
+                "-g",
+                "+G"));
+        MultiFileUnifiedDiff second = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/f b/f",
+                "--- a/f",
+                "+++ b/f",
+                "@@ -3,1 +3,1 @@",
+                "-c",
+                "+see",
+                "@@ -6,5 +6,4 @@",
+                " f",
+                " g",
+                "-h",
+                " i",
+                " j"));
+        // an empty range is numbered by the line before it
+        assertEquals(1, first.getDiff(0).getHunk(0).getOriginalStart());
+        assertEquals(10, first.getDiff(0).getHunk(1).getOriginalStart());
+        assertEquals(10, first.getDiff(0).getHunk(1).getRevisedStart());
+        assertEquals(10, UnifiedHunk.lineNumber(10, 0));
+        assertEquals(11, UnifiedHunk.lineNumber(10, 1));
+        HunkIndex index = new HunkIndex(first);
+        assertEquals(1, index.overlapping("a/f", 3, 4).size());
+        assertEquals(0, index.overlapping("f", 4, 10).size());
+        // the insertion after line 10 touches line 10 and the position after it
+        assertEquals(1, index.overlapping("f", 10, 11).size());
+        assertEquals(1, index.overlapping("f", 11, 11).size());
+        assertEquals(2, index.overlapping("f", 1, 12).size());
+        assertEquals(0, index.overlapping("h", 1, 12).size());
+
+        List<HunkIndex.Conflict> conflicts = index.conflicts(new HunkIndex(second));
+        assertEquals(2, conflicts.size());
+        for (HunkIndex.Conflict conflict : conflicts) {
+            assertEquals("f", conflict.getFirst().getPath());
+        }
+        assertEquals(2, conflicts.get(0).getFirst().getHunk().getOriginalLineNumber());
+        assertEquals(3, conflicts.get(0).getSecond().getHunk().getOriginalLineNumber());
+        assertEquals(10, conflicts.get(1).getFirst().getHunk().getOriginalLineNumber());
+        assertEquals(1, conflicts.get(1).getSecond().getHunkIndex());
+
+        // the hunks of several diffs of one file overlap
+        Random random = new Random(11);
+        MyersDiff algorithm = new MyersDiff(1);
+        List<SingleFileUnifiedDiff> diffs = new ArrayList<SingleFileUnifiedDiff>();
+        for (int i = 0; i < 20; ++i) {
+            diffs.add(algorithm.diff("f", DiffAlgorithmTests.randomLines(random), "f",
+                    DiffAlgorithmTests.randomLines(random)));
+        }
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(diffs.iterator());
+        index = new HunkIndex(patch);
+        for (int trial = 0; trial < 200; ++trial) {
+            int from = 1 + random.nextInt(30);
+            int to = from + random.nextInt(5);
+            int expected = 0;
+            for (SingleFileUnifiedDiff diff : patch.getDiffs()) {
+                for (UnifiedHunk hunk : diff.getHunks()) {
+                    int size = hunk.getOriginalHunkSize();
+                    int start = size == 0 ? hunk.getOriginalLineNumber() : hunk.getOriginalLineNumber() - 1;
+                    int end = start + size;
+                    boolean touches = start == end || from == to
+                            ? start <= to - 1 && from - 1 <= end
+                            : start < to - 1 && from - 1 < end;
+                    if (touches) {
+                        ++expected;
+                    }
+                }
+            }
+            assertEquals(expected, index.overlapping("f", from, to).size());
+        }
+    }
+
+    /**
+     * Returns a Patch that only implements the abstract methods of Patch, by
+     * passing them on to the specified patch.
+     */
+    private static Patch delegatingPatch(Patch patch) {
+        return new Patch() {
+            @Override
+            public List<LineChange> getChanges() {
+                return patch.getChanges();
+            }
+
+            @Override
+            public List<String> getPatchLines() {
+                return patch.getPatchLines();
+            }
+
+            @Override
+            public void removeChange(LineChange change) {
+                patch.removeChange(change);
+            }
+
+            @Override
+            public void writePatch(String pathname) {
+                patch.writePatch(pathname);
+            }
+        };
+    }
+}
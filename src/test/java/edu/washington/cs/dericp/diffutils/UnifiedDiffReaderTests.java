@@ -0,0 +1,198 @@
+package edu.washington.cs.dericp.diffutils;
+
+import static org.junit.Assert.*;
+
+import edu.washington.cs.dericp.diffutils.diff.BinaryDiffReader;
+import edu.washington.cs.dericp.diffutils.diff.BinaryDiffWriter;
+import edu.washington.cs.dericp.diffutils.diff.MappedUnifiedDiffReader;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.PatchCache;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedDiffReader;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedDiffWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class UnifiedDiffReaderTests {
+
+    public static final String TEST_DIR = "src/test/java/edu/washington/cs/dericp/diffutils/";
+    public static final String TEST_DIFF_1 = TEST_DIR + "TestDiff1.test";
+    public static final String TEST_DIFF_2 = TEST_DIR + "TestDiff2.test";
+    public static final String TEST_DIFF_3 = TEST_DIR + "TestDiff3.test";
+
+    @Test
+    public void testReadMatchesParsedLines() throws IOException {
+        MultiFileUnifiedDiff expected = new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_3));
+        List<SingleFileUnifiedDiff> diffs = new ArrayList<>();
+        try (UnifiedDiffReader reader = new UnifiedDiffReader(Paths.get(TEST_DIFF_3))) {
+            while (reader.hasNext()) {
+                diffs.add(reader.next());
+            }
+        }
+        assertEquals(expected.getDiffs(), diffs);
+        assertEquals(expected, new MultiFileUnifiedDiff(diffs.iterator()));
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        List<String> paths;
+        try (Stream<SingleFileUnifiedDiff> diffs = new UnifiedDiffReader(Paths.get(TEST_DIFF_1)).stream()) {
+            paths = diffs.map(SingleFileUnifiedDiff::getOriginalDiffPath).collect(Collectors.toList());
+        }
+        assertEquals(1, paths.size());
+        assertEquals("--- a/src/java/org/apache/commons/lang/enums/ValuedEnum.java", paths.get(0));
+    }
+
+    @Test
+    public void testSkipsLeadingLines() {
+        String patch = "From: someone\n\ndiff a b\n--- a\n+++ b\n@@ -1,1 +1,1 @@\n-x\n+y\n";
+        UnifiedDiffReader reader = new UnifiedDiffReader(new StringReader(patch));
+        assertTrue(reader.hasNext());
+        SingleFileUnifiedDiff diff = reader.next();
+        assertEquals(1, diff.numHunks());
+        assertEquals(2, diff.getHunk(0).getHunkLines().size());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testMappedReadMatchesParsedLines() throws IOException {
+        for (String pathname : new String[] {TEST_DIFF_1, TEST_DIFF_2, TEST_DIFF_3}) {
+            MultiFileUnifiedDiff expected = new MultiFileUnifiedDiff(Utils.readFile(pathname));
+            MultiFileUnifiedDiff mapped = new MultiFileUnifiedDiff(new MappedUnifiedDiffReader(Paths.get(pathname)));
+            assertEquals(expected, mapped);
+            assertEquals(Utils.readFile(pathname), mapped.getPatchLines());
+        }
+
+        // a "\\ No newline at end of file" marker is not read as a line, but
+        // is kept with its hunk and written back
+        Path marked = Files.createTempFile("patch", ".diff");
+        try {
+            List<String> lines = Arrays.asList("diff --git a/f b/f", "--- a/f", "+++ b/f", "@@ -1,1 +1,1 @@", "-x",
+                    "\\ No newline at end of file", "+y");
+            Files.write(marked, lines);
+            MultiFileUnifiedDiff mapped = new MultiFileUnifiedDiff(new MappedUnifiedDiffReader(marked));
+            assertEquals(new MultiFileUnifiedDiff(Utils.readFile(marked.toString())), mapped);
+            assertEquals(2, mapped.getDiff(0).getHunk(0).getHunkLines().size());
+            assertTrue(mapped.getDiff(0).getHunk(0).isOriginalNoNewline());
+            assertEquals(lines, mapped.getPatchLines());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryDiffWriter.write(mapped, out);
+            MultiFileUnifiedDiff read =
+                    new MultiFileUnifiedDiff(new BinaryDiffReader(ByteBuffer.wrap(out.toByteArray())));
+            assertEquals(lines, read.getPatchLines());
+            StringWriter written = new StringWriter();
+            try (UnifiedDiffWriter writer = new UnifiedDiffWriter(written)) {
+                writer.write(read);
+            }
+            assertEquals(String.join(System.lineSeparator(), lines), written.toString());
+        } finally {
+            Files.delete(marked);
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        for (String pathname : new String[] {TEST_DIFF_1, TEST_DIFF_2, TEST_DIFF_3}) {
+            MultiFileUnifiedDiff expected = new MultiFileUnifiedDiff(Utils.readFile(pathname));
+            Path binary = Files.createTempFile("patch", ".bin");
+            try {
+                BinaryDiffWriter.write(expected, binary);
+                assertTrue(Files.size(binary) < Files.size(Paths.get(pathname)));
+                BinaryDiffReader reader = new BinaryDiffReader(binary);
+                assertEquals(expected.numDiffs(), reader.numDiffs());
+                // each section can be read on its own
+                int last = reader.numDiffs() - 1;
+                assertEquals(expected.getDiff(last), reader.readDiff(last));
+                MultiFileUnifiedDiff read = new MultiFileUnifiedDiff(reader);
+                assertEquals(expected, read);
+                assertEquals(Utils.readFile(pathname), read.getPatchLines());
+            } finally {
+                Files.delete(binary);
+            }
+        }
+
+        // removed diffs, hunks and lines are left out
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_1));
+        patch.removeChange(0, 2, 0);
+        patch.removeHunk(0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryDiffWriter.write(patch, out);
+        MultiFileUnifiedDiff read = new MultiFileUnifiedDiff(new BinaryDiffReader(ByteBuffer.wrap(out.toByteArray())));
+        assertEquals(patch.getPatchLines(), read.getPatchLines());
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryReadRejectsText() throws IOException {
+        new BinaryDiffReader(Paths.get(TEST_DIFF_1));
+    }
+
+    @Test
+    public void testPatchCache() throws IOException {
+        long budget = Files.size(Paths.get(TEST_DIFF_1)) + Files.size(Paths.get(TEST_DIFF_3));
+        PatchCache cache = new PatchCache(budget);
+        MultiFileUnifiedDiff expected = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        MultiFileUnifiedDiff first = cache.get(TEST_DIFF_1);
+        assertEquals(expected, first);
+        // removals from a copy do not reach the cache
+        first.removeDiff(0);
+        MultiFileUnifiedDiff second = cache.get(TEST_DIFF_1);
+        assertNotSame(first, second);
+        assertEquals(expected, second);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // the least recently used patch is evicted to stay within the budget
+        cache.get(TEST_DIFF_3);
+        cache.get(TEST_DIFF_1);
+        assertEquals(2, cache.size());
+        assertEquals(budget, cache.getBytes());
+        cache.get(TEST_DIFF_2);
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() <= budget);
+        cache.get(TEST_DIFF_1);
+        assertEquals(3, cache.getHits());
+        cache.get(TEST_DIFF_3);
+        assertEquals(4, cache.getMisses());
+
+        // a patch that is parsed once is loaded from the second tier afterwards
+        Path directory = Files.createTempDirectory("patches");
+        try {
+            new PatchCache(0, directory).get(TEST_DIFF_3);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(directory)) {
+                files = list.collect(Collectors.toList());
+            }
+            assertEquals(1, files.size());
+            // the file is named by the SHA-256 digest and the length of the patch
+            assertTrue(files.get(0).getFileName().toString()
+                    .matches("[0-9a-f]{64}-" + Files.size(Paths.get(TEST_DIFF_3)) + "\\.bin"));
+            PatchCache other = new PatchCache(0, directory);
+            assertEquals(new MultiFileUnifiedDiff(TEST_DIFF_3), other.get(TEST_DIFF_3));
+            assertEquals(0, other.size());
+            // a damaged file is parsed again and replaced
+            Files.write(files.get(0), "DIFB".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(new MultiFileUnifiedDiff(TEST_DIFF_3), new PatchCache(0, directory).get(TEST_DIFF_3));
+            assertTrue(Files.size(files.get(0)) > 4);
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+}
@@ -3,10 +3,29 @@ package edu.washington.cs.dericp.diffutils;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import edu.washington.cs.dericp.diffutils.algorithm.MyersDiff;
+import edu.washington.cs.dericp.diffutils.change.ContentPool;
 import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.ConcurrentMultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.EditJournal;
+import edu.washington.cs.dericp.diffutils.diff.ImmutableMultiFileUnifiedDiff;
 import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.PieceTable;
+import edu.washington.cs.dericp.diffutils.diff.SingleFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedHunk;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -97,4 +116,560 @@ public class UnifiedDiffTests {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testLazyHunks() throws IOException {
+        MultiFileUnifiedDiff lazy = new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_1), true);
+        SingleFileUnifiedDiff diff = lazy.getDiff(0);
+        assertEquals("--- a/src/java/org/apache/commons/lang/enums/ValuedEnum.java", diff.getOriginalDiffPath());
+        assertEquals(4, diff.numHunks());
+        assertEquals(patch1.getDiff(0).getHunk(2), diff.getHunk(2));
+        assertEquals(patch1, lazy);
+
+        lazy = new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_1), true);
+        lazy.removeChange(0, 2, 3);
+        assertEquals(lazy.getPatchLines(), Utils.readFile(TEST_DIR + "TestDiff1RemoveChange(0, 2, 0).expected"));
+    }
+
+    @Test
+    public void testParallelParse() throws IOException {
+        List<String> patchLines = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            patchLines.addAll(Utils.readFile(TEST_DIFF_3));
+        }
+        patchLines.addAll(Utils.readFile(TEST_DIFF_1));
+        patchLines.add(patchLines.size() - 10, "@@ not a hunk header @@");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MultiFileUnifiedDiff parallel = new MultiFileUnifiedDiff(patchLines, pool);
+            assertEquals(patch3.numDiffs() * 20 + 1, parallel.numDiffs());
+            for (int i = 0; i < patch3.numDiffs() * 20; ++i) {
+                assertEquals(patch3.getDiff(i % patch3.numDiffs()), parallel.getDiff(i));
+            }
+            int failed = parallel.numDiffs() - 1;
+            assertNull(parallel.getDiff(failed));
+            assertEquals(1, parallel.getParseErrors().size());
+            assertTrue(parallel.getParseErrors().containsKey(failed));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testHunkLineStore() {
+        UnifiedHunk hunk = patch1.getDiff(0).getHunk(2);
+        LineChange change = hunk.getHunkLines().get(3);
+        assertEquals(new LineChange("     *", 170, -1, LineChange.Type.DELETION), change);
+        assertEquals(3, hunk.getHunkLines().indexOf(change));
+
+        UnifiedHunk copy = new UnifiedHunk(hunk);
+        copy.getHunkLines().get(3).setType(LineChange.Type.CONTEXT);
+        assertEquals(LineChange.Type.CONTEXT, copy.getHunkLines().get(3).getType());
+        assertEquals(LineChange.Type.DELETION, change.getType());
+
+        hunk.removeLine(3);
+        assertEquals(LineChange.Type.CONTEXT, change.getType());
+
+        // a removed line stays readable through the LineChanges taken from it
+        UnifiedHunk first = patch1.getDiff(0).getHunk(0);
+        List<LineChange> lines = first.getHunkLines();
+        LineChange insertion = lines.get(2);
+        Set<LineChange> held = new HashSet<>(Collections.singleton(insertion));
+        patch1.removeChange(insertion);
+        assertNull(lines.get(2));
+        assertEquals(LineChange.Type.INSERTION, insertion.getType());
+        assertTrue(held.contains(insertion));
+
+        // the lines can be edited like any List
+        LineChange replacement = new LineChange(" * Copyright 2002-2007 The Apache Software Foundation.", -1, 2,
+                LineChange.Type.INSERTION);
+        assertNull(lines.set(2, replacement));
+        assertEquals(replacement, lines.get(2));
+        assertTrue(first.hunkToLines().contains("+ * Copyright 2002-2007 The Apache Software Foundation."));
+        LineChange added = new LineChange("added", -1, 1, LineChange.Type.INSERTION);
+        int size = lines.size();
+        lines.add(0, added);
+        lines.add(added);
+        assertEquals(size + 2, lines.size());
+        assertEquals(added, lines.get(0));
+        assertEquals(replacement, lines.get(3));
+        assertEquals(added, lines.remove(size + 1));
+        assertEquals(added, lines.remove(0));
+        assertEquals(replacement, lines.get(2));
+        assertEquals(size, lines.size());
+    }
+
+    @Test
+    public void testContentPool() throws IOException {
+        List<String> patchLines = new ArrayList<>();
+        patchLines.addAll(Utils.readFile(TEST_DIFF_3));
+        patchLines.addAll(Utils.readFile(TEST_DIFF_3));
+        ContentPool pool = new ContentPool(1000);
+        MultiFileUnifiedDiff pooled = new MultiFileUnifiedDiff(patchLines, pool);
+        int half = pooled.numDiffs() / 2;
+        assertEquals(patch3.getDiff(0), pooled.getDiff(0));
+        assertEquals(pooled.getDiff(0), pooled.getDiff(half));
+        assertSame(pooled.getDiff(0).getHunk(0).getHunkLines().get(0).getContent(),
+                pooled.getDiff(half).getHunk(0).getHunkLines().get(0).getContent());
+        assertTrue(pool.hits() * 2 >= pool.lookups());
+        assertTrue(pool.hitRate() >= 0.5);
+
+        ContentPool full = new ContentPool(0);
+        assertEquals(patch3, new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_3), full));
+        assertEquals(0, full.size());
+        assertEquals(0, full.hits());
+    }
+
+    @Test
+    public void testRemoveLineChangeIndexed() throws IOException {
+        LineChange change = new LineChange("     *", 170, -1, LineChange.Type.DELETION);
+        List<String> expected = Utils.readFile(TEST_DIR + "TestDiff1RemoveChange(0, 2, 0).expected");
+        patch1.removeChange(change);
+        patch1.removeChange(change);
+        patch1.removeChange(new LineChange("not in the patch", 1, -1, LineChange.Type.DELETION));
+        assertEquals(expected, patch1.getPatchLines());
+
+        MultiFileUnifiedDiff removedHunk = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        removedHunk.removeHunk(0, 2);
+        removedHunk.removeChange(change);
+        assertEquals(Utils.readFile(TEST_DIR + "TestDiff1RemoveHunk(0, 2).expected"), removedHunk.getPatchLines());
+
+        SingleFileUnifiedDiff diff = patch2.getDiff(0);
+        LineChange first = patch2.getChanges().get(0);
+        diff.removeChange(first);
+        assertFalse(patch2.getChanges().contains(first));
+
+        // lines that become changes after the indexes are built are found
+        List<LineChange> lines = diff.getHunk(0).getHunkLines();
+        int context = 0;
+        while (lines.get(context).getType() != LineChange.Type.CONTEXT) {
+            ++context;
+        }
+        lines.get(context).setType(LineChange.Type.DELETION);
+        LineChange deletion = copyOf(lines.get(context));
+        patch2.removeChange(deletion);
+        assertEquals(LineChange.Type.CONTEXT, lines.get(context).getType());
+
+        lines.set(context, new LineChange("replaced", -1, 1, LineChange.Type.INSERTION));
+        LineChange insertion = copyOf(lines.get(context));
+        diff.removeChange(insertion);
+        assertFalse(patch2.getChanges().contains(insertion));
+    }
+
+    private static LineChange copyOf(LineChange line) {
+        return new LineChange(line.getContent(), line.getOriginalLineNumber(), line.getRevisedLineNumber(),
+                line.getType());
+    }
+
+    @Test
+    public void testRevisedLineNumberShifts() throws IOException {
+        MultiFileUnifiedDiff lazy = new MultiFileUnifiedDiff(Utils.readFile(TEST_DIFF_1), true);
+        lazy.removeHunk(0, 1);
+        lazy.removeChange(0, 0, 1);
+        patch1.removeHunk(0, 1);
+        patch1.removeChange(0, 0, 1);
+        // removing the hunk moves the later hunks down 2 lines, removing
+        // the deletion moves them down another line
+        assertEquals(165 + 3, patch1.getDiff(0).getHunk(2).getRevisedLineNumber());
+        assertEquals(patch1.getPatchLines(), lazy.getPatchLines());
+
+        MultiFileUnifiedDiff copy = new MultiFileUnifiedDiff(patch1);
+        assertEquals(patch1.getPatchLines(), copy.getPatchLines());
+        copy.removeChange(0, 3, 3);
+        assertEquals(patch1.getDiff(0).getHunk(3).getRevisedLineNumber(),
+                copy.getDiff(0).getHunk(3).getRevisedLineNumber());
+    }
+
+    @Test
+    public void testCompact() {
+        patch3.removeDiff(0);
+        patch3.removeHunk(1, 0);
+        patch3.retainChanges(change -> change.getType() != LineChange.Type.INSERTION);
+        List<String> expected = patch3.getPatchLines();
+        MultiFileUnifiedDiff uncompacted = new MultiFileUnifiedDiff(patch3);
+        assertEquals(uncompacted.getChanges(), patch3.getChanges());
+
+        patch3.compact();
+        assertEquals(expected, patch3.getPatchLines());
+        assertEquals(uncompacted, patch3);
+        assertEquals(uncompacted.getChanges(), patch3.getChanges());
+        assertEquals(uncompacted.numDiffs() - 1, patch3.numDiffs());
+        for (int i = 0; i < patch3.numDiffs(); ++i) {
+            for (UnifiedHunk hunk : patch3.getDiff(i).getHunks()) {
+                assertNotNull(hunk);
+                assertFalse(hunk.getHunkLines().contains(null));
+            }
+        }
+
+        // indices refer to the compacted patch from now on
+        patch3.removeChange(0, 0, 0);
+        patch3.removeDiff(0);
+        assertEquals(uncompacted.numDiffs() - 1, patch3.numDiffs());
+        assertNull(patch3.getDiff(0));
+
+        // compacting a diff of a patch drops the change index of the patch
+        LineChange deletion = new LineChange("     *", 170, -1, LineChange.Type.DELETION);
+        MultiFileUnifiedDiff expectedPatch = new MultiFileUnifiedDiff(patch1);
+        expectedPatch.removeHunk(0, 0);
+        expectedPatch.removeChange(deletion);
+        patch1.removeChange(new LineChange("not in the patch", 1, -1, LineChange.Type.DELETION));
+        patch1.removeHunk(0, 0);
+        patch1.getDiff(0).compact();
+        patch1.removeChange(deletion);
+        assertEquals(expectedPatch.getPatchLines(), patch1.getPatchLines());
+    }
+
+    @Test
+    public void testApply() throws IOException {
+        SingleFileUnifiedDiff diff = new SingleFileUnifiedDiff(Arrays.asList(
+                "diff --git a/file b/file",
+                "--- a/file",
+                "+++ b/file",
+                "@@ -1,2 +1,3 @@",
+                "+zero",
+                " one",
+                "-two",
+                "+2",
+                "@@ -5,2 +6,1 @@",
+                " five",
+                "-six"));
+        List<String> original = Arrays.asList("one", "two", "three", "four", "five", "six", "seven");
+        List<String> expected = Arrays.asList("zero", "one", "2", "three", "four", "five", "seven");
+
+        PieceTable revised = diff.apply(original);
+        assertEquals(expected, revised);
+        assertEquals("four", revised.get(4));
+        assertEquals(5, revised.numPieces());
+        PieceTable fromText = diff.apply("one\ntwo\r\nthree\nfour\nfive\nsix\nseven");
+        assertEquals(expected, fromText);
+        StringWriter out = new StringWriter();
+        fromText.writeTo(out, "\n");
+        assertEquals(String.join("\n", expected) + "\n", out.toString());
+    }
+
+    @Test
+    public void testReverse() {
+        SingleFileUnifiedDiff diff = new SingleFileUnifiedDiff(Arrays.asList(
+                "diff --git a/old b/new",
+                "index 1234567..89abcde 100644",
+                "--- a/old",
+                "+++ b/new",
+                "@@ -1,2 +1,3 @@",
+                "+zero",
+                " one",
+                "-two",
+                "+2",
+                "@@ -5,2 +6,1 @@ section",
+                " five",
+                "-six"));
+        assertEquals(Arrays.asList(
+                "diff --git a/new b/old",
+                "index 89abcde..1234567 100644",
+                "--- a/new",
+                "+++ b/old",
+                "@@ -1,3 +1,2 @@",
+                "-zero",
+                " one",
+                "+two",
+                "-2",
+                "@@ -6,1 +5,2 @@ section",
+                " five",
+                "+six"), diff.reverse().diffToLines());
+        assertEquals(diff, diff.reverse().reverse());
+
+        List<String> original = Arrays.asList("one", "two", "three", "four", "five", "six", "seven");
+        List<String> revised = diff.apply(original);
+        assertEquals(original, diff.reverse().apply(revised));
+
+        // removed changes are left out, and the numbers of the later hunk
+        // follow the shift of its revised line number
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(diff.diffToLines());
+        patch.removeChange(new LineChange("zero", -1, 1, LineChange.Type.INSERTION));
+        SingleFileUnifiedDiff reverse = patch.reverse().getDiff(0);
+        assertEquals("@@ -5,1 +5,2 @@ section", reverse.getHunk(1).getContextInfo());
+        assertEquals(original, reverse.apply(patch.getDiff(0).apply(original)));
+
+        for (MultiFileUnifiedDiff testPatch : Arrays.asList(patch1, patch2, patch3)) {
+            assertEquals(testPatch.getPatchLines(), testPatch.reverse().reverse().getPatchLines());
+        }
+        assertEquals(patch3.numDiffs(), patch3.reverse().numDiffs());
+
+        // a diff that only changes the mode of a file has no diff paths
+        MultiFileUnifiedDiff modeOnly = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/script b/script",
+                "old mode 100644",
+                "new mode 100755",
+                "diff --git a/old b/new",
+                "--- a/old",
+                "+++ b/new",
+                "@@ -1,1 +1,1 @@",
+                "-one",
+                "+1"));
+        assertEquals(Arrays.asList(
+                "diff --git a/script b/script",
+                "old mode 100755",
+                "new mode 100644",
+                "diff --git a/new b/old",
+                "--- a/new",
+                "+++ b/old",
+                "@@ -1,1 +1,1 @@",
+                "+one",
+                "-1"), modeOnly.reverse().getPatchLines());
+        assertNull(modeOnly.reverse().getDiff(0).getOriginalDiffPath());
+        assertEquals(modeOnly.getPatchLines(), modeOnly.reverse().reverse().getPatchLines());
+        assertEquals(modeOnly, modeOnly.reverse().reverse());
+        assertEquals(modeOnly.hashCode(), modeOnly.reverse().reverse().hashCode());
+        assertNotEquals(modeOnly, modeOnly.reverse());
+        assertTrue(modeOnly.getDiff(0).toString().endsWith("new mode 100755"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyMismatch() {
+        patch2.getDiff(0).apply(Arrays.asList("not", "the", "original"));
+    }
+
+    @Test
+    public void testApplyNoNewlineMarker() throws IOException {
+        SingleFileUnifiedDiff diff = new SingleFileUnifiedDiff(Arrays.asList(
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1,2 +1,2 @@",
+                " one",
+                "-two",
+                "\\ No newline at end of file",
+                "+2"));
+        assertEquals(3, diff.getHunk(0).getHunkLines().size());
+        PieceTable revised = diff.apply(Arrays.asList("one", "two"));
+        assertEquals(Arrays.asList("one", "2"), new ArrayList<String>(revised));
+        assertTrue(revised.hasFinalNewline());
+
+        // the reverse takes the final newline away again
+        SingleFileUnifiedDiff reverse = diff.reverse();
+        assertEquals(Arrays.asList(
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1,2 +1,2 @@",
+                " one",
+                "+two",
+                "\\ No newline at end of file",
+                "-2"), reverse.diffToLines());
+        PieceTable restored = reverse.apply("one\n2\n");
+        assertFalse(restored.hasFinalNewline());
+        StringWriter out = new StringWriter();
+        restored.writeTo(out, "\n");
+        assertEquals("one\ntwo", out.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyPastEnd() {
+        SingleFileUnifiedDiff diff = new SingleFileUnifiedDiff(Arrays.asList(
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1,1 +1,1 @@",
+                " one",
+                " two"));
+        diff.apply(Collections.singletonList("one"));
+    }
+
+    @Test
+    public void testImmutableMatchesMutable() throws IOException {
+        Random random = new Random(5);
+        for (MultiFileUnifiedDiff patch : Arrays.asList(patch1, patch2, patch3)) {
+            ImmutableMultiFileUnifiedDiff immutable = new ImmutableMultiFileUnifiedDiff(patch);
+            List<ImmutableMultiFileUnifiedDiff> versions = new ArrayList<ImmutableMultiFileUnifiedDiff>();
+            List<List<String>> versionLines = new ArrayList<List<String>>();
+            for (int step = 0; step < 40; ++step) {
+                int diffIndex = random.nextInt(patch.numDiffs());
+                SingleFileUnifiedDiff diff = patch.getDiff(diffIndex);
+                int choice = random.nextInt(20);
+                if (choice == 0 || diff == null) {
+                    patch.removeDiff(diffIndex);
+                    immutable = immutable.withoutDiff(diffIndex);
+                } else {
+                    int hunkIndex = random.nextInt(diff.numHunks());
+                    UnifiedHunk hunk = diff.getHunk(hunkIndex);
+                    if (choice < 4 || hunk == null) {
+                        patch.removeHunk(diffIndex, hunkIndex);
+                        immutable = immutable.withoutHunk(diffIndex, hunkIndex);
+                    } else {
+                        int lineIndex = random.nextInt(hunk.getHunkLines().size());
+                        patch.removeChange(diffIndex, hunkIndex, lineIndex);
+                        immutable = immutable.withoutChange(diffIndex, hunkIndex, lineIndex);
+                    }
+                }
+                assertEquals(patch.getPatchLines(), immutable.getPatchLines());
+                versions.add(immutable);
+                versionLines.add(patch.getPatchLines());
+            }
+            // earlier versions are unchanged by the removals after them
+            for (int i = 0; i < versions.size(); ++i) {
+                assertEquals(versionLines.get(i), versions.get(i).getPatchLines());
+            }
+        }
+
+        // changes to the mutable patch do not reach the immutable one
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        ImmutableMultiFileUnifiedDiff before = new ImmutableMultiFileUnifiedDiff(patch);
+        List<String> lines = patch.getPatchLines();
+        patch.getDiff(0).getHunk(0).getHunkLines().get(1).setType(LineChange.Type.CONTEXT);
+        patch.removeHunk(0, 1);
+        assertEquals(lines, before.getPatchLines());
+    }
+
+    @Test
+    public void testConcurrentEditsMatchSequential() throws Exception {
+        Random random = new Random(3);
+        MyersDiff algorithm = new MyersDiff(1);
+        List<SingleFileUnifiedDiff> files = new ArrayList<SingleFileUnifiedDiff>();
+        while (files.size() < 8) {
+            SingleFileUnifiedDiff diff = algorithm.diff("f" + files.size(), DiffAlgorithmTests.randomLines(random),
+                    "f" + files.size(), DiffAlgorithmTests.randomLines(random));
+            if (diff.numHunks() > 0) {
+                files.add(diff);
+            }
+        }
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(files.iterator());
+        ConcurrentMultiFileUnifiedDiff concurrent = new ConcurrentMultiFileUnifiedDiff(patch);
+        // the same edits are made to patch one at a time, one file after another
+        List<List<int[]>> edits = new ArrayList<List<int[]>>();
+        for (int diffIndex = 0; diffIndex < patch.numDiffs(); ++diffIndex) {
+            List<int[]> diffEdits = new ArrayList<int[]>();
+            SingleFileUnifiedDiff diff = patch.getDiff(diffIndex);
+            for (int step = 0; step < 30; ++step) {
+                int hunkIndex = random.nextInt(diff.numHunks());
+                int lineIndex = random.nextInt(diff.getHunk(hunkIndex).getHunkLines().size());
+                diffEdits.add(new int[] {hunkIndex, lineIndex});
+                patch.removeChange(diffIndex, hunkIndex, lineIndex);
+            }
+            edits.add(diffEdits);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int diffIndex = 0; diffIndex < edits.size(); ++diffIndex) {
+                int editedDiff = diffIndex;
+                futures.add(executor.submit(() -> {
+                    for (int[] edit : edits.get(editedDiff)) {
+                        concurrent.removeChange(editedDiff, edit[0], edit[1]);
+                        // snapshots taken during the edits are whole patches
+                        assertEquals(concurrent.numDiffs(), concurrent.snapshot().numDiffs());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(patch.getPatchLines(), concurrent.getPatchLines());
+
+        concurrent.removeDiff(0);
+        assertNull(concurrent.getDiff(0));
+        patch.removeDiff(0);
+        assertEquals(patch.getPatchLines(), concurrent.getPatchLines());
+    }
+
+    @Test
+    public void testJournalRollbackAndRedo() {
+        Random random = new Random(9);
+        for (MultiFileUnifiedDiff patch : Arrays.asList(patch1, patch2, patch3)) {
+            EditJournal journal = patch.getJournal();
+            List<Long> marks = new ArrayList<Long>();
+            List<List<String>> states = new ArrayList<List<String>>();
+            for (int step = 0; step < 30; ++step) {
+                marks.add(journal.mark());
+                states.add(patch.getPatchLines());
+                int diffIndex = random.nextInt(patch.numDiffs());
+                SingleFileUnifiedDiff diff = patch.getDiff(diffIndex);
+                int choice = random.nextInt(20);
+                if (choice == 0 || diff == null) {
+                    patch.removeDiff(diffIndex);
+                    continue;
+                }
+                int hunkIndex = random.nextInt(diff.numHunks());
+                UnifiedHunk hunk = diff.getHunk(hunkIndex);
+                if (choice < 4 || hunk == null) {
+                    patch.removeHunk(diffIndex, hunkIndex);
+                } else if (choice < 6) {
+                    hunk.modifyRevisedLineNumber(random.nextInt(5) - 2);
+                } else if (choice < 8) {
+                    LineChange change = hunk.getHunkLines().get(random.nextInt(hunk.getHunkLines().size()));
+                    if (change != null) {
+                        change.setType(LineChange.Type.values()[random.nextInt(3)]);
+                    }
+                } else {
+                    patch.removeChange(diffIndex, hunkIndex, random.nextInt(hunk.getHunkLines().size()));
+                }
+            }
+            List<String> last = patch.getPatchLines();
+            assertNotEquals(states.get(0), last);
+
+            // rolling back to each mark in turn restores the state at the mark
+            for (int i = marks.size() - 1; i >= 0; i -= 7) {
+                journal.rollback(marks.get(i));
+                assertEquals(states.get(i), patch.getPatchLines());
+            }
+            assertTrue(journal.canRedo());
+            journal.redo();
+            assertEquals(last, patch.getPatchLines());
+
+            // an edit after a rollback drops the edits that could be redone
+            journal.rollback(marks.get(10));
+            patch.removeDiff(0);
+            assertFalse(journal.canRedo());
+            journal.rollback(marks.get(10));
+            assertEquals(states.get(10), patch.getPatchLines());
+        }
+
+        // compacting the patch clears the journal
+        EditJournal journal = patch3.getJournal();
+        patch3.removeDiff(0);
+        patch3.compact();
+        assertEquals(0, journal.size());
+
+        // so does editing the lines of a hunk through its List
+        patch3.removeHunk(0, 0);
+        patch3.getDiff(0).getHunk(1).getHunkLines().add(new LineChange("added", -1, 1, LineChange.Type.INSERTION));
+        assertEquals(0, journal.size());
+    }
+
+    @Test
+    public void testJournalRollbackRestoresIndexedChanges() throws IOException {
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        LineChange first = patch.getChanges().get(0);
+        LineChange last = patch.getChanges().get(patch.getChanges().size() - 1);
+        EditJournal journal = patch.getJournal();
+        long mark = journal.mark();
+        patch.removeChange(0, 0, patch.getDiff(0).getHunk(0).getHunkLines().indexOf(first));
+        // builds the index while the first change is a context line
+        patch.removeChange(last);
+        journal.rollback(mark);
+        patch.removeChange(first);
+        assertFalse(patch.getChanges().contains(first));
+
+        journal.rollback(mark);
+        journal.redo();
+        patch.removeChange(last);
+        assertFalse(patch.getChanges().contains(last));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testJournalRejectsMarkFromBeforeClear() {
+        EditJournal journal = patch3.getJournal();
+        patch3.removeChange(0, 0, 1);
+        patch3.removeChange(0, 0, 2);
+        long mark = journal.mark();
+        // replacing a line through the List of a hunk clears the journal
+        List<LineChange> lines = patch3.getDiff(0).getHunk(0).getHunkLines();
+        LineChange line = lines.get(0);
+        lines.set(0, new LineChange(line.getContent(), line.getOriginalLineNumber(), line.getRevisedLineNumber(),
+                line.getType()));
+        patch3.removeChange(0, 0, 3);
+        patch3.removeChange(0, 0, 4);
+        patch3.removeChange(0, 0, 5);
+        journal.rollback(mark);
+    }
 }
@@ -0,0 +1,59 @@
+package edu.washington.cs.dericp.diffutils;
+
+import static org.junit.Assert.*;
+
+import edu.washington.cs.dericp.diffutils.change.LineChange;
+import edu.washington.cs.dericp.diffutils.diff.MultiFileUnifiedDiff;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedDiffReader;
+import edu.washington.cs.dericp.diffutils.diff.UnifiedDiffWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+public class UnifiedDiffWriterTests {
+
+    public static final String TEST_DIR = "src/test/java/edu/washington/cs/dericp/diffutils/";
+    public static final String TEST_DIFF_1 = TEST_DIR + "TestDiff1.test";
+    public static final String TEST_DIFF_3 = TEST_DIR + "TestDiff3.test";
+
+    @Test
+    public void testWriteMatchesPatchLines() throws IOException {
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(TEST_DIFF_1);
+        patch.removeHunk(0, 1);
+        patch.retainChanges(change -> change.getType() != LineChange.Type.INSERTION);
+        StringWriter out = new StringWriter();
+        try (UnifiedDiffWriter writer = new UnifiedDiffWriter(out)) {
+            writer.write(patch);
+        }
+        assertEquals(String.join(System.lineSeparator(), patch.getPatchLines()), out.toString());
+
+        // a diff that only changes the mode of a file is written without paths
+        MultiFileUnifiedDiff modeOnly = new MultiFileUnifiedDiff(Arrays.asList(
+                "diff --git a/script b/script",
+                "old mode 100644",
+                "new mode 100755"));
+        out = new StringWriter();
+        try (UnifiedDiffWriter writer = new UnifiedDiffWriter(out)) {
+            writer.write(modeOnly);
+        }
+        assertEquals(String.join(System.lineSeparator(), modeOnly.getPatchLines()), out.toString());
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws IOException {
+        MultiFileUnifiedDiff patch = new MultiFileUnifiedDiff(TEST_DIFF_3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (UnifiedDiffWriter writer = new UnifiedDiffWriter(bytes, StandardCharsets.UTF_8, true)) {
+            writer.write(patch);
+        }
+        UnifiedDiffReader reader = new UnifiedDiffReader(
+                new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())), StandardCharsets.UTF_8);
+        assertEquals(patch, new MultiFileUnifiedDiff(reader));
+    }
+}